@@ -0,0 +1,606 @@
+/**
+ * Board.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class represents a single named whiteboard hosted by the server. Each board has its
+ * own shapes, connected clients and history, so activity on one board never contends with
+ * another board hosted by the same server. The shapes are a conflict-free replicated set, so
+ * drawing updates from many clients are applied concurrently without holding a board lock.
+ * Updates are then sent to clients from one thread per board in sequence order, and each
+ * client only receives the shapes near its viewport. A client joining a large board is first
+ * sent a picture of it, so it sees the board before its shapes arrive.
+ */
+
+import java.net.Socket;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class Board {
+    // Dots of shapes the server adds itself, such as those of an opened file
+    private static final String SERVER_REPLICA = "server";
+    // Shapes per message when sending the shapes behind a raster
+    private static final int DETAIL_CHUNK_SHAPES = 1000;
+    private final String name;
+    private final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    private final ShapeSet shapes = new ShapeSet();
+    // The content of the shapes, off the heap; the set holds handles to it
+    private final ShapeStore store = new ShapeStore();
+    private final SpatialIndex index = new SpatialIndex();
+    private final BoardHistory history;
+    private final BoardRaster raster;
+    private final ExecutorService fanOut;
+    private final boolean readOnly;
+    private volatile String mirroredUserList;
+    // Replaced by the metrics of the server hosting the board
+    private volatile ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * Constructor for the Board class.
+     *
+     * @param name name of the board
+     */
+    public Board(String name) {
+        this(name, false);
+    }
+
+    /**
+     * Constructor for the Board class.
+     *
+     * @param name name of the board
+     * @param readOnly whether the board mirrors another server, so its clients can only watch
+     */
+    public Board(String name, boolean readOnly) {
+        this(name, readOnly, new BoardHistory());
+    }
+
+    /**
+     * Constructor for the Board class.
+     *
+     * @param name name of the board
+     * @param readOnly whether the board mirrors another server, so its clients can only watch
+     * @param history the empty history to record the operations of the board in
+     */
+    public Board(String name, boolean readOnly, BoardHistory history) {
+        this.name = name;
+        this.readOnly = readOnly;
+        this.history = history;
+        this.fanOut = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "board-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.raster = new BoardRaster(name, store, shapes, history, this::query);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BoardHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Sets the listener told about every operation applied to the board, in sequence order,
+     * such as the replicator that streams operations to a standby server.
+     *
+     * @param operationListener the listener
+     */
+    public void setOperationListener(Consumer<BoardOperation> operationListener) {
+        history.setListener(operationListener);
+    }
+
+    /**
+     * Sets where the board records how long its operations, joins and broadcasts take.
+     *
+     * @param metrics the metrics of the server
+     */
+    public void setMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a client to the board and brings it up to date. This runs on the thread that sends
+     * updates, so the client receives everything after what it is sent here, in order. A
+     * client resuming from a sequence number still in the window the history keeps for
+     * resuming only receives the operations after it; otherwise it receives the whole board
+     * near its viewport. A client with a viewport joining a rasterized board is
+     * sent the raster tiles around it and the operations after the raster first, then the
+     * shapes in chunks it can apply a few at a time.
+     *
+     * @param client the client that joined the board
+     * @param lastSeq the sequence number of the last update the client applied, or 0 for none
+     */
+    public void join(ClientHandler client, long lastSeq) {
+        send(() -> {
+            long start = System.nanoTime();
+            clients.add(client);
+            long rasterSeq = raster.getVersion();
+            long seq = history.getLastSequence();
+            Viewport viewport = client.getViewport();
+            ArrayList<BoardOperation> missed = lastSeq > 0 ? history.getRecentOperationsAfter(lastSeq) : null;
+            ArrayList<BoardOperation> sinceRaster = missed == null && viewport != null && rasterSeq >= 0
+                    ? history.getRecentOperationsAfter(rasterSeq) : null;
+            if (missed != null) {
+                sendOperations(client, missed);
+            } else if (sinceRaster != null) {
+                client.sendObject(new RasterSnapshot(rasterSeq, BoardRaster.TILE_SIZE,
+                        raster.getTiles(viewport.interest())));
+                sendOperations(client, sinceRaster);
+                sendDetail(client, seq, viewport);
+            } else {
+                client.sendUpdate(new SequencedUpdate(seq, snapshot()));
+            }
+            metrics.recordSince("join_micros", start);
+        });
+    }
+
+    /**
+     * Takes the full state of the board, recording how long it took.
+     *
+     * @return the state of the board
+     */
+    private BoardSnapshot snapshot() {
+        long start = System.nanoTime();
+        BoardSnapshot snapshot = shapes.snapshot();
+        metrics.recordSince("snapshot_micros", start);
+        return snapshot;
+    }
+
+    private void sendOperations(ClientHandler client, List<BoardOperation> operations) {
+        for (BoardOperation operation : operations) {
+            client.sendUpdate(operation.toUpdate());
+        }
+    }
+
+    /**
+     * Sends the shapes near a viewport in chunks, the first of which also carries what has
+     * been removed from the board, then tells the client it has them all.
+     *
+     * @param client the client
+     * @param seq the last sequence number applied to the board
+     * @param viewport the viewport of the client
+     */
+    private void sendDetail(ClientHandler client, long seq, Viewport viewport) {
+        BoardSnapshot state = snapshot();
+        List<Shape> near = query(viewport.interest());
+        int from = 0;
+        do {
+            int to = Math.min(near.size(), from + DETAIL_CHUNK_SHAPES);
+            ArrayList<Shape> chunk = new ArrayList<>(near.subList(from, to));
+            client.sendUpdate(new SequencedUpdate(seq, from == 0
+                    ? new BoardSnapshot(chunk, state.tombstones(), state.cleared(), state.observed())
+                    : new BoardSnapshot(chunk, new HashSet<>(), new HashMap<>(), new HashMap<>())));
+            from = to;
+        } while (from < near.size());
+        client.sendObject(new VectorDetailComplete(seq));
+    }
+
+    /**
+     * Removes a client from the board.
+     *
+     * @param client the client that left the board
+     */
+    public void removeClient(ClientHandler client) {
+        clients.remove(client);
+    }
+
+    /**
+     * Returns a copy of the clients connected to the board.
+     *
+     * @return the connected clients
+     */
+    public List<ClientHandler> getClients() {
+        return new ArrayList<>(clients);
+    }
+
+    /**
+     * Returns a copy of the shapes on the board, in drawing order.
+     *
+     * @return the shapes on the board
+     */
+    public List<Shape> getShapes() {
+        return shapes.shapes();
+    }
+
+    /**
+     * Returns the full state of the board, for another replica to merge.
+     *
+     * @return the state of the board
+     */
+    public BoardSnapshot getSnapshot() {
+        return snapshot();
+    }
+
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    public long getLastSequence() {
+        return history.getLastSequence();
+    }
+
+    public ShapeStore getStore() {
+        return store;
+    }
+
+    public BoardRaster getRaster() {
+        return raster;
+    }
+
+    /**
+     * Returns the shape with the given dot.
+     *
+     * @param dot the dot
+     * @return the shape, or null if it is not on the board
+     */
+    public Shape getShape(Dot dot) {
+        return shapes.get(dot);
+    }
+
+    /**
+     * Returns the shapes that intersect a region of the canvas, in drawing order.
+     *
+     * @param region the region
+     * @return the shapes in the region
+     */
+    public List<Shape> query(Rectangle2D region) {
+        ShapeSet found = new ShapeSet();
+        for (Dot dot : index.query(region)) {
+            Shape shape = shapes.get(dot);
+            if (shape != null && shape.getBounds().intersects(region)) {
+                found.add(shape);
+            }
+        }
+        return found.shapes();
+    }
+
+    /**
+     * Adds a new shape to the board, or a newer version of one, and broadcasts it to all
+     * connected clients. Shapes from clients that do not give them dots get one from the server.
+     *
+     * @param shape shape to be added
+     * @param sender the client that sent the shape
+     */
+    public void addShape(Shape shape, ClientHandler sender) {
+        addShape(shape, sender, null);
+    }
+
+    /**
+     * Adds a new shape to the board, or a newer version of one, and broadcasts it together
+     * with its trace.
+     *
+     * @param shape shape to be added
+     * @param sender the client that sent the shape
+     * @param trace the trace of the shape, or null if it is not traced
+     */
+    public void addShape(Shape shape, ClientHandler sender, OpTrace trace) {
+        if (shape.getDot() == null) {
+            shapes.stamp(shape, SERVER_REPLICA);
+        }
+        apply(shape, sender, trace);
+    }
+
+    /**
+     * Applies an update to the board, then records it and broadcasts it to all connected
+     * clients except the sender. Updates that change nothing, such as a shape that was
+     * already removed, are dropped.
+     *
+     * @param update a shape, clear, diff or snapshot
+     * @param sender the client that sent the update, or null
+     * @return the recorded operation, or null if the board did not change
+     */
+    public BoardOperation apply(Object update, ClientHandler sender) {
+        return apply(update, sender, null);
+    }
+
+    /**
+     * Applies an update to the board, then records it and broadcasts it together with its trace.
+     *
+     * @param update a shape, clear, diff or snapshot
+     * @param sender the client that sent the update, or null
+     * @param trace the trace of the update, or null if it is not traced
+     * @return the recorded operation, or null if the board did not change
+     */
+    public BoardOperation apply(Object update, ClientHandler sender, OpTrace trace) {
+        long start = System.nanoTime();
+        update = store.intern(update);
+        // Only the tiles under removed shapes need redrawing, so note where they were
+        ArrayList<Rectangle2D> removedBounds = update instanceof BoardDiffCommand diff && diff.addedShapes().isEmpty()
+                ? boundsOf(diff.removedDots()) : null;
+        if (!shapes.apply(update)) {
+            return null;
+        }
+        updateIndex(update, removedBounds);
+        BoardOperation operation = history.record(update, shapes,
+                recorded -> broadcast(recorded.toUpdate().withTrace(trace), sender));
+        metrics.increment("board_ops_total");
+        metrics.recordSince("board_apply_micros", start);
+        return operation;
+    }
+
+    /**
+     * Brings the spatial index up to date with an update that has been applied.
+     *
+     * @param update the update
+     */
+    private void updateIndex(Object update) {
+        updateIndex(update, null);
+    }
+
+    /**
+     * Updates the index and the raster after an update was applied to the board.
+     *
+     * @param update the update
+     * @param removedBounds where the shapes an update only removes were, or null to redraw
+     *                      the whole raster for a removal
+     */
+    private void updateIndex(Object update, List<Rectangle2D> removedBounds) {
+        if (update instanceof Shape shape) {
+            index.update(shape);
+            // Shapes only ever grow, so the newer version covers the tiles of the older one
+            raster.invalidate(shape.getBounds());
+            return;
+        }
+        if (update instanceof BoardDiffCommand diff && removedBounds != null) {
+            diff.removedDots().forEach(index::remove);
+            removedBounds.forEach(raster::invalidate);
+            return;
+        }
+        if (update instanceof BoardDiffCommand diff) {
+            diff.removedDots().forEach(index::remove);
+            diff.addedShapes().forEach(index::update);
+        } else {
+            // Clears and merges can change any shape
+            index.retainAll(dot -> shapes.get(dot) != null);
+            shapes.values().forEach(index::update);
+        }
+        // The raster is redrawn from the index, so it is told once the index is up to date
+        raster.invalidateAll();
+    }
+
+    /**
+     * Queues an update to be sent to all connected clients except the client that sent it.
+     * Updates are queued in sequence order and sent from the board's own thread.
+     *
+     * @param update the update
+     * @param sender the client that sent the update, or null
+     */
+    private void broadcast(SequencedUpdate update, ClientHandler sender) {
+        long queuedAt = System.nanoTime();
+        send(() -> {
+            // How long the update waited for the board's thread, then how long it kept it busy
+            long start = System.nanoTime();
+            metrics.record("broadcast_wait_micros", TimeUnit.NANOSECONDS.toMicros(start - queuedAt));
+            OpTrace trace = update.trace() == null ? null : update.trace().withBroadcast(LatencyTracer.nowMicros());
+            for (ClientHandler client : clients) {
+                if (client != sender) {
+                    // A traced update tells each client when its turn in the fan-out came
+                    client.sendUpdate(trace == null ? update
+                            : update.withTrace(trace.withFannedOut(LatencyTracer.nowMicros())));
+                }
+            }
+            metrics.recordSince("broadcast_micros", start);
+        });
+    }
+
+    /**
+     * Runs a task on the thread that sends updates to the clients of the board.
+     *
+     * @param task the task
+     */
+    private void send(Runnable task) {
+        try {
+            fanOut.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The board has been closed, so there is no one left to send to
+        }
+    }
+
+    /**
+     * Broadcasts a message to all connected clients.
+     *
+     * @param message message to be broadcasted
+     */
+    public void broadcastMessage(String message) {
+        for (ClientHandler client : clients) {
+            client.sendMessage(message);
+        }
+    }
+
+    /**
+     * Updates the user list displayed on the board for all connected clients. A read-only
+     * board shows the user list of the board it mirrors instead of its own viewers.
+     */
+    public void updateUserList() {
+        if (readOnly) {
+            if (mirroredUserList != null) {
+                broadcastMessage(mirroredUserList);
+            }
+            return;
+        }
+        StringBuilder userList = new StringBuilder("<html>");
+        for (ClientHandler client : clients) {
+            userList.append(client.getUsername()).append("<br>");
+        }
+        userList.append("</html>");
+        broadcastMessage("User List Update:" + userList);
+    }
+
+    /**
+     * Shows the user list of the mirrored board to all connected viewers.
+     *
+     * @param userListMessage the user list update received from the mirrored board
+     */
+    public void mirrorUserList(String userListMessage) {
+        mirroredUserList = userListMessage;
+        broadcastMessage(userListMessage);
+    }
+
+    /**
+     * Clears the shapes the sender had seen and broadcasts the clear to all other clients.
+     * A clear without a clock removes every shape the server has seen, and is sent back to
+     * the sender too, since it may remove shapes outside the sender's viewport.
+     *
+     * @param clearCommand the clear command
+     * @param sender the client that sent the clear command
+     */
+    public void clearAllShapes(ClearCommand clearCommand, ClientHandler sender) {
+        if (clearCommand.getClock() == null) {
+            // Every replica must remove the same shapes, so pin down what the server has seen
+            apply(new ClearCommand(shapes.observedClock()), null);
+        } else {
+            apply(clearCommand, sender);
+        }
+    }
+
+    /**
+     * Returns where shapes of the board are.
+     *
+     * @param dots the dots of the shapes
+     * @return the bounds of the ones on the board
+     */
+    private ArrayList<Rectangle2D> boundsOf(List<Dot> dots) {
+        ArrayList<Rectangle2D> bounds = new ArrayList<>();
+        for (Dot dot : dots) {
+            Shape shape = shapes.get(dot);
+            if (shape != null) {
+                bounds.add(shape.getBounds());
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Removes shapes picked by a client's object eraser, and broadcasts the removal to all
+     * other clients. Shapes already removed are skipped.
+     *
+     * @param dots the dots of the shapes
+     * @param sender the client that erased them
+     */
+    public void removeShapes(ArrayList<Dot> dots, ClientHandler sender) {
+        apply(new BoardDiffCommand(dots, new ArrayList<>()), sender);
+    }
+
+    /**
+     * Replaces all shapes on the board with the given shapes. Shapes already on the board are
+     * kept and new ones get dots from the server. Every client, including the one that opened
+     * the board, receives only the shapes that changed, unless so much changed that sending the
+     * whole board is cheaper. Opens are serialized so the server hands out its dots in order.
+     *
+     * @param newShapes shapes of the opened board
+     */
+    public synchronized void openBoard(List<Shape> newShapes) {
+        BoardDiffCommand computed = BoardDiff.compute(shapes.values(), newShapes);
+        for (Shape shape : computed.addedShapes()) {
+            shapes.stamp(shape, SERVER_REPLICA);
+        }
+        BoardDiffCommand diff = (BoardDiffCommand) store.intern(computed);
+        if (!shapes.apply(diff)) {
+            return;
+        }
+        updateIndex(diff);
+        history.record(diff, shapes, operation -> broadcast(BoardDiff.isWorthSending(diff, shapes.size())
+                ? operation.toUpdate() : new SequencedUpdate(operation.seq(), snapshot()), null));
+    }
+
+    /**
+     * Applies an operation replicated from the primary server, keeping its sequence number
+     * so clients that fail over can resume from where they were. Operations already applied
+     * are ignored.
+     *
+     * @param operation the replicated operation
+     */
+    public synchronized void applyReplicated(BoardOperation operation) {
+        if (operation.seq() <= history.getLastSequence()) {
+            return;
+        }
+        BoardOperation stored = new BoardOperation(operation.seq(), operation.timestamp(),
+                store.intern(operation.update()));
+        stored.applyTo(shapes);
+        updateIndex(stored.update());
+        history.append(stored, shapes, recorded -> broadcast(recorded.toUpdate(), null));
+    }
+
+    /**
+     * Sends a command to every client on the board except the given user.
+     *
+     * @param command the command to send
+     * @param excludedUsername username of the client that should not receive the command
+     */
+    public void broadcastCommand(Object command, String excludedUsername) {
+        for (ClientHandler client : clients) {
+            // Clients reached through a channel alone have no socket
+            Socket socket = client.getSocket();
+            if (!Objects.equals(client.getUsername(), excludedUsername) && (socket == null || socket.isConnected())) {
+                client.sendObject(command);
+            }
+        }
+    }
+
+    /**
+     * Kicks out a user from the board by sending a kick command to the client. Their session
+     * is revoked first, so they cannot come back with its token without being approved again.
+     *
+     * @param username username of the user to be kicked out
+     * @param sessions the sessions of the server
+     */
+    public synchronized void kickUser(String username, SessionRegistry sessions) {
+        sessions.revoke(name, username);
+        for (ClientHandler client : clients) {
+            if (client.getUsername().equals(username)) {
+                client.sendObject(new KickCommand(username));
+                client.disconnect();
+                clients.remove(client); // Remove from the client list
+                break;
+            }
+        }
+    }
+
+    /**
+     * Closes the connections of all clients on the board, once what was sent to them is
+     * written. The board stays open, so clients can still join it.
+     */
+    public void disconnectAll() {
+        for (ClientHandler client : clients) {
+            client.disconnect();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Closes the connections of all clients on the board, once what was sent to them is
+     * written, and stops sending updates and drawing the raster, for good.
+     */
+    public void closeAll() {
+        fanOut.shutdown();
+        raster.close();
+        disconnectAll();
+    }
+
+    /**
+     * Checks if a username is already taken by another client on the board.
+     *
+     * @param username username to check
+     * @param replaced the connection the asking client takes the place of, or null
+     * @return true if the username is taken, false otherwise
+     */
+    public synchronized boolean isUsernameTaken(String username, ClientHandler replaced) {
+        return clients.stream()
+                .anyMatch(c -> c != replaced && c.getUsername().equals(username));
+    }
+}
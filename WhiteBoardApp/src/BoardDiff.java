@@ -0,0 +1,73 @@
+/**
+ * BoardDiff.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class computes the difference between the current board and a newly opened board
+ * using the content ids of the shapes, so only the shapes that changed are sent to clients.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BoardDiff {
+    private static final double DIFF_THRESHOLD = 0.5;
+
+    /**
+     * Computes the changes that turn the current board into the target board. Shapes of the
+     * current board are kept when a shape with the same content appears in the target board.
+     * The added shapes still need dots before the diff is applied.
+     *
+     * @param current the shapes currently on the board
+     * @param target the shapes of the opened board
+     * @return the diff
+     */
+    public static BoardDiffCommand compute(Collection<Shape> current, List<Shape> target) {
+        // Shapes of the target board by content id, in board order
+        Map<Long, ArrayDeque<Shape>> wanted = new HashMap<>();
+        for (Shape shape : target) {
+            wanted.computeIfAbsent(shape.getContentId(), id -> new ArrayDeque<>()).add(shape);
+        }
+
+        ArrayList<Dot> removedDots = new ArrayList<>();
+        for (Shape shape : current) {
+            ArrayDeque<Shape> matches = wanted.get(shape.getContentId());
+            if (matches != null && !matches.isEmpty()) {
+                matches.pollFirst();
+            } else {
+                removedDots.add(shape.getDot());
+            }
+        }
+
+        // Whatever was not matched is new, added in the order of the target board
+        ArrayList<Shape> addedShapes = new ArrayList<>();
+        for (Shape shape : target) {
+            ArrayDeque<Shape> unmatched = wanted.get(shape.getContentId());
+            if (unmatched.peekFirst() == shape) {
+                addedShapes.add(unmatched.pollFirst());
+            }
+        }
+        return new BoardDiffCommand(removedDots, addedShapes);
+    }
+
+    /**
+     * Checks whether a diff is small enough that sending it is cheaper than sending the whole board.
+     *
+     * @param diff the diff
+     * @param boardSize the number of shapes on the board after the diff
+     * @return true if the diff should be sent
+     */
+    public static boolean isWorthSending(BoardDiffCommand diff, int boardSize) {
+        return diff.removedDots().size() + diff.addedShapes().size() <= DIFF_THRESHOLD * Math.max(1, boardSize);
+    }
+}
+
+/**
+ * The changes between two boards: the dots of the shapes to remove and the shapes to add.
+ */
+record BoardDiffCommand(ArrayList<Dot> removedDots, ArrayList<Shape> addedShapes) implements Serializable {
+}
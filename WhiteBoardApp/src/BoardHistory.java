@@ -0,0 +1,311 @@
+/**
+ * BoardHistory.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class records every operation applied to the whiteboard together with periodic
+ * checkpoints of the board state, so that the board can be reconstructed at any point
+ * in time without replaying the whole session. Only the latest operations are kept, back to
+ * the checkpoint they start from, so a long session does not hold every shape ever drawn. The
+ * latest operations are also kept in a smaller window, which is all a client resuming after a
+ * dropped connection is caught up from.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class BoardHistory {
+    private static final int CHECKPOINT_INTERVAL = 256;
+    // How many of the latest operations a resuming client can be caught up from; clients
+    // that missed more are sent the board instead
+    private static final int RESUME_OPERATIONS = Integer.getInteger("whiteboard.resume.maxOperations", 5000);
+    // How many of the latest operations can be played back; older ones are dropped along with their checkpoints
+    private static final int MAX_OPERATIONS = Integer.getInteger("whiteboard.history.maxOperations", 100000);
+    private final int maxOperations;
+    private final int resumeOperations;
+    private final ArrayList<BoardOperation> operations = new ArrayList<>();
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+    private final ArrayDeque<BoardOperation> recent = new ArrayDeque<>();
+    private long nextSeq = 1;
+    private long lastTimestamp = 0;
+    // Shapes added or removed by the operations since the last checkpoint
+    private int changedSinceCheckpoint = 0;
+    private Consumer<BoardOperation> listener = operation -> { };
+
+    /**
+     * Constructor for the BoardHistory class. The history starts with an empty
+     * checkpoint so that every seek has a checkpoint to start from.
+     */
+    public BoardHistory() {
+        this(MAX_OPERATIONS);
+    }
+
+    /**
+     * Constructor for the BoardHistory class, keeping at least the given number of the
+     * latest operations for playback, and no more of them for resuming.
+     *
+     * @param maxOperations how many of the latest operations to keep
+     */
+    public BoardHistory(int maxOperations) {
+        this.maxOperations = Math.max(1, maxOperations);
+        // The window for resuming never holds more than the history itself
+        this.resumeOperations = Math.min(RESUME_OPERATIONS, this.maxOperations);
+        checkpoints.add(new Checkpoint(0, 0, new ArrayList<>()));
+    }
+
+    /**
+     * Sets the listener told about every operation as it is recorded. The listener is called
+     * in sequence order, so it must not block.
+     *
+     * @param listener the listener
+     */
+    public synchronized void setListener(Consumer<BoardOperation> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records an update that has just been applied to the board.
+     *
+     * @param update the update, as sent to clients
+     * @param board the board after the update was applied
+     * @param then called with the operation before any later operation is recorded
+     * @return the recorded operation
+     */
+    public synchronized BoardOperation record(Object update, ShapeSet board, Consumer<BoardOperation> then) {
+        // Timestamps must never go backwards, otherwise the binary searches below break
+        long timestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        BoardOperation operation = new BoardOperation(nextSeq, timestamp, update);
+        append(operation, board, then);
+        return operation;
+    }
+
+    /**
+     * Appends an operation that already has a sequence number, such as one replicated from
+     * the primary server.
+     *
+     * @param operation the operation that has just been applied to the board
+     * @param board the board after the operation was applied
+     * @param then called with the operation before any later operation is recorded
+     */
+    public synchronized void append(BoardOperation operation, ShapeSet board, Consumer<BoardOperation> then) {
+        if (operations.isEmpty() && operation.seq() > nextSeq) {
+            // A standby starting from a primary that had already dropped its earliest operations
+            checkpoints.set(0, new Checkpoint(operation.seq() - 1, operation.timestamp(), new ArrayList<>()));
+        }
+        operations.add(operation);
+        recent.addLast(operation);
+        if (recent.size() > resumeOperations) {
+            recent.removeFirst();
+        }
+        nextSeq = operation.seq() + 1;
+        lastTimestamp = Math.max(lastTimestamp, operation.timestamp());
+
+        // Checkpoint once replaying from the last one would change too many shapes, so clears,
+        // opened boards and large diffs get one straight after them and small removals do not
+        changedSinceCheckpoint += countChanges(operation.update());
+        if (changedSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoints.add(new Checkpoint(operation.seq(), lastTimestamp, board.shapes()));
+            changedSinceCheckpoint = 0;
+        }
+        // The second checkpoint becomes the first once enough operations are kept after it
+        while (checkpoints.size() > 1 && operation.seq() - checkpoints.get(1).seq() >= maxOperations) {
+            operations.subList(0, (int) (checkpoints.get(1).seq() - checkpoints.get(0).seq())).clear();
+            checkpoints.remove(0);
+        }
+        listener.accept(operation);
+        then.accept(operation);
+    }
+
+    /**
+     * Returns how many shapes an update adds or removes when it is replayed. Clears and whole
+     * boards count as a full interval, since they can change any shape.
+     *
+     * @param update the update
+     * @return the number of shapes changed
+     */
+    private static int countChanges(Object update) {
+        if (update instanceof Shape) {
+            return 1;
+        } else if (update instanceof BoardDiffCommand diff) {
+            return Math.max(1, diff.removedDots().size() + diff.addedShapes().size());
+        }
+        return CHECKPOINT_INTERVAL;
+    }
+
+    /**
+     * Reconstructs the board as it was at the given point in time.
+     *
+     * @param timestamp the point in time, in milliseconds since the epoch
+     * @return the shapes that were on the board at that time
+     */
+    public synchronized ArrayList<Shape> seek(long timestamp) {
+        return replayTo(countOperationsUntil(timestamp));
+    }
+
+    /**
+     * Reconstructs the board as it was right after the operation with the given sequence
+     * number, or as it was before the first operation still kept if that one is older.
+     *
+     * @param seq the sequence number of the operation
+     * @return the shapes that were on the board after that operation
+     */
+    public synchronized ArrayList<Shape> seekToSequence(long seq) {
+        return replayTo(Math.max(checkpoints.get(0).seq(), Math.min(seq, getLastSequence())));
+    }
+
+    /**
+     * Returns the operations recorded at or after the given sequence number.
+     *
+     * @param fromSeq the first sequence number to return
+     * @param limit the maximum number of operations to return
+     * @return the operations in sequence order
+     */
+    public synchronized ArrayList<BoardOperation> getOperations(long fromSeq, int limit) {
+        int from = (int) Math.max(0, Math.min(fromSeq - checkpoints.get(0).seq() - 1, operations.size()));
+        int to = (int) Math.min(operations.size(), (long) from + limit);
+        return new ArrayList<>(operations.subList(from, to));
+    }
+
+    /**
+     * Returns every operation still kept, preceded by the board as it was before the first of
+     * them if older operations were dropped, so that replaying them all gives the board.
+     *
+     * @return the operations in sequence order
+     */
+    public synchronized ArrayList<BoardOperation> getOperationsFromStart() {
+        ArrayList<BoardOperation> all = new ArrayList<>(operations.size() + 1);
+        Checkpoint first = checkpoints.get(0);
+        if (first.seq() > 0) {
+            all.add(new BoardOperation(first.seq(), first.timestamp(), new BoardSnapshot(new ArrayList<>(first.shapes()),
+                    new HashSet<>(), new HashMap<>(), new HashMap<>())));
+        }
+        all.addAll(operations);
+        return all;
+    }
+
+    /**
+     * Returns the operations after the given sequence number, if they are all still in the
+     * window kept for resuming.
+     *
+     * @param seq the sequence number of the last operation the client has
+     * @return the operations in sequence order, or null if the client is too far behind or
+     *         claims operations that were never recorded
+     */
+    public synchronized ArrayList<BoardOperation> getRecentOperationsAfter(long seq) {
+        if (seq > getLastSequence() || !recent.isEmpty() && recent.peekFirst().seq() > seq + 1) {
+            return null;
+        }
+        ArrayList<BoardOperation> after = new ArrayList<>();
+        for (Iterator<BoardOperation> newest = recent.descendingIterator(); newest.hasNext(); ) {
+            BoardOperation operation = newest.next();
+            if (operation.seq() <= seq) {
+                break;
+            }
+            after.add(operation);
+        }
+        Collections.reverse(after);
+        return after;
+    }
+
+    /**
+     * Returns the number of operations that happened at or before the given time, counting
+     * those no longer kept, which is also the sequence number of the last of them.
+     *
+     * @param timestamp the point in time
+     * @return the number of operations
+     */
+    public synchronized long countOperationsUntil(long timestamp) {
+        int low = 0, high = operations.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (operations.get(mid).timestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return checkpoints.get(0).seq() + low;
+    }
+
+    public synchronized long getFirstTimestamp() {
+        return operations.isEmpty() ? 0 : operations.get(0).timestamp();
+    }
+
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public synchronized long getLastSequence() {
+        return nextSeq - 1;
+    }
+
+    public synchronized int getOperationCount() {
+        return operations.size();
+    }
+
+    public synchronized int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Rebuilds the board after the operation with the given sequence number by starting from
+     * the nearest checkpoint at or before it and replaying only the operations after it.
+     *
+     * @param seq the sequence number of the last operation to apply, no older than the first checkpoint
+     * @return the reconstructed board
+     */
+    private ArrayList<Shape> replayTo(long seq) {
+        int low = 0, high = checkpoints.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (checkpoints.get(mid).seq() <= seq) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        Checkpoint checkpoint = checkpoints.get(low);
+        ShapeSet board = new ShapeSet(checkpoint.shapes());
+        long first = checkpoints.get(0).seq();
+        for (long i = checkpoint.seq(); i < seq; i++) {
+            operations.get((int) (i - first)).applyTo(board);
+        }
+        return board.shapes();
+    }
+
+    /**
+     * A copy of the board taken right after the operation with a given sequence number.
+     */
+    private record Checkpoint(long seq, long timestamp, List<Shape> shapes) {
+    }
+}
+
+/**
+ * A single update applied to the whiteboard.
+ */
+record BoardOperation(long seq, long timestamp, Object update) implements Serializable {
+    /**
+     * Converts the operation into the update sent to clients.
+     *
+     * @return the sequenced update
+     */
+    public SequencedUpdate toUpdate() {
+        return new SequencedUpdate(seq, update);
+    }
+
+    /**
+     * Applies the operation to a set of shapes.
+     *
+     * @param board the shapes to apply the operation to
+     */
+    public void applyTo(ShapeSet board) {
+        board.apply(update);
+    }
+}
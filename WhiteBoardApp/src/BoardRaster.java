@@ -0,0 +1,258 @@
+/**
+ * BoardRaster.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class keeps a picture of a board cut into square tiles, so a client joining a large
+ * board can be shown it at once and receive the shapes themselves afterwards. Updates mark
+ * the tiles they touch, and a thread of the board redraws those tiles from the shape store a
+ * few times a second and keeps them as PNG images. The raster records the sequence number
+ * it is at least as new as, so a joiner is sent the operations after it.
+ */
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class BoardRaster {
+    public static final int TILE_SIZE = 256;
+    // Boards with fewer shapes are cheap to send as shapes, so they are not rasterized
+    public static final int MIN_SHAPES = 2000;
+    private static final long REFRESH_INTERVAL = 250;
+    // Outlines are drawn on the edge of the bounds, so tiles also draw shapes this close to them
+    private static final int EDGE_MARGIN = 2;
+    // Shapes covering more tiles than this redraw the whole raster
+    private static final int MAX_DIRTY_TILES = 256;
+    private final ShapeStore store;
+    private final ShapeSet shapes;
+    private final BoardHistory history;
+    private final Function<Rectangle2D, List<Shape>> query;
+    private final ConcurrentHashMap<Long, byte[]> tiles = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean dirtyAll = true;
+    private volatile long version = -1;
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * Constructor for BoardRaster, which starts redrawing the tiles in the background.
+     *
+     * @param name name of the board, used to name the thread
+     * @param store the store holding the content of the shapes
+     * @param shapes the shapes of the board
+     * @param history the history of the board, whose last sequence number the raster follows
+     * @param query finds the shapes in a region of the board, in drawing order
+     */
+    public BoardRaster(String name, ShapeStore store, ShapeSet shapes, BoardHistory history,
+                       Function<Rectangle2D, List<Shape>> query) {
+        this.store = store;
+        this.shapes = shapes;
+        this.history = history;
+        this.query = query;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "raster-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the tiles covering a region as out of date. This must be called after the board
+     * changes and before the change is recorded, so a raster of a sequence number holds it.
+     *
+     * @param region the region that changed
+     */
+    public void invalidate(Rectangle2D region) {
+        long minX = tile(region.getMinX() - EDGE_MARGIN), maxX = tile(region.getMaxX() + EDGE_MARGIN);
+        long minY = tile(region.getMinY() - EDGE_MARGIN), maxY = tile(region.getMaxY() + EDGE_MARGIN);
+        if ((maxX - minX + 1) * (maxY - minY + 1) > MAX_DIRTY_TILES) {
+            dirtyAll = true;
+            return;
+        }
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                dirty.add(key(x, y));
+            }
+        }
+    }
+
+    /**
+     * Marks every tile as out of date, such as after a clear whose shapes are gone.
+     */
+    public void invalidateAll() {
+        dirtyAll = true;
+    }
+
+    /**
+     * Returns the sequence number the raster is at least as new as.
+     *
+     * @return the sequence number, or -1 if the board is not rasterized
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the tiles covering a region. Tiles may be newer than the version.
+     *
+     * @param region the region, in canvas coordinates
+     * @return the tiles that have something drawn on them
+     */
+    public ArrayList<RasterTile> getTiles(Rectangle2D region) {
+        ArrayList<RasterTile> found = new ArrayList<>();
+        for (long x = tile(region.getMinX()); x <= tile(region.getMaxX()); x++) {
+            for (long y = tile(region.getMinY()); y <= tile(region.getMaxY()); y++) {
+                byte[] png = tiles.get(key(x, y));
+                if (png != null) {
+                    found.add(new RasterTile((int) x, (int) y, png));
+                }
+            }
+        }
+        return found;
+    }
+
+    public long getTileBytes() {
+        return tiles.values().stream().mapToLong(png -> png.length).sum();
+    }
+
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Redraws the tiles that are out of date.
+     */
+    private void refresh() {
+        try {
+            // Read the sequence number first: every update up to it has marked its tiles by now
+            long seq = history.getLastSequence();
+            if (shapes.size() < MIN_SHAPES) {
+                // Too small to be worth it; draw everything once it grows
+                version = -1;
+                dirtyAll = true;
+                tiles.clear();
+                dirty.clear();
+                return;
+            }
+            Set<Long> redraw = new HashSet<>();
+            if (dirtyAll) {
+                dirtyAll = false;
+                dirty.clear();
+                for (Shape shape : shapes.values()) {
+                    Rectangle2D bounds = shape.getBounds();
+                    for (long x = tile(bounds.getMinX() - EDGE_MARGIN); x <= tile(bounds.getMaxX() + EDGE_MARGIN); x++) {
+                        for (long y = tile(bounds.getMinY() - EDGE_MARGIN); y <= tile(bounds.getMaxY() + EDGE_MARGIN); y++) {
+                            redraw.add(key(x, y));
+                        }
+                    }
+                }
+                tiles.keySet().retainAll(redraw);
+            } else {
+                for (Long key : dirty) {
+                    dirty.remove(key);
+                    redraw.add(key);
+                }
+            }
+            for (long key : redraw) {
+                draw(key);
+            }
+            version = seq;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error drawing board raster: " + e.getMessage());
+            dirtyAll = true;
+        }
+    }
+
+    /**
+     * Draws one tile from the shapes over it, or drops it if nothing is drawn there.
+     *
+     * @param key the key of the tile
+     * @throws IOException if the tile cannot be encoded
+     */
+    private void draw(long key) throws IOException {
+        long x = key >> 32, y = (int) key;
+        List<Shape> over = query.apply(new Rectangle2D.Double(x * TILE_SIZE - EDGE_MARGIN, y * TILE_SIZE - EDGE_MARGIN,
+                TILE_SIZE + 2 * EDGE_MARGIN, TILE_SIZE + 2 * EDGE_MARGIN));
+        if (over.isEmpty()) {
+            tiles.remove(key);
+            return;
+        }
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        Shape.applyRenderingHints(g);
+        g.translate(-x * TILE_SIZE, -y * TILE_SIZE);
+        store.forEach(over, row -> paint(g, row));
+        g.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        tiles.put(key, png.toByteArray());
+    }
+
+    /**
+     * Paints a stored shape the way the shape draws itself, without rebuilding it.
+     *
+     * @param g the graphics to paint on
+     * @param row the stored shape
+     */
+    static void paint(Graphics g, ShapeRow row) {
+        g.setColor(new Color(row.color(), true));
+        int x1 = row.x1(), y1 = row.y1(), x2 = row.x2(), y2 = row.y2();
+        switch (row.type()) {
+            case ShapeStore.LINE -> g.drawLine(x1, y1, x2, y2);
+            case ShapeStore.RECTANGLE -> g.drawRect(x1, y1, x2 - x1, y2 - y1);
+            case ShapeStore.OVAL -> g.drawOval(x1, y1, x2 - x1, y2 - y1);
+            case ShapeStore.CIRCLE -> g.drawOval(x1, y1, x2 - x1, x2 - x1);
+            case ShapeStore.TEXT -> g.drawString(row.text(), x1, y1);
+            case ShapeStore.ERASER -> g.fillRect(x1 - row.size() / 2, y1 - row.size() / 2, row.size(), row.size());
+            case ShapeStore.FREE_DRAW -> {
+                for (int i = 1; i < row.pointCount(); i++) {
+                    g.drawLine(row.pointX(i - 1), row.pointY(i - 1), row.pointX(i), row.pointY(i));
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static long tile(double coordinate) {
+        return (long) Math.floor(coordinate / TILE_SIZE);
+    }
+
+    private static long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+}
+
+/**
+ * One tile of a board raster: the PNG image of the square at the given column and row.
+ */
+record RasterTile(int column, int row, byte[] png) implements Serializable {
+}
+
+/**
+ * Sent to a client joining a large board before its shapes: tiles of the board as it was
+ * at least at the given sequence number. The operations after it follow, then the shapes
+ * near the viewport, and the client shows the tiles until VectorDetailComplete arrives.
+ */
+record RasterSnapshot(long seq, int tileSize, ArrayList<RasterTile> tiles) implements Serializable {
+}
+
+/**
+ * Sent once a client that was sent a RasterSnapshot has been sent the shapes near its viewport.
+ */
+record VectorDetailComplete(long seq) implements Serializable {
+}
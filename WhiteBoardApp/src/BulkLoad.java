@@ -0,0 +1,109 @@
+/**
+ * BulkLoad.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class holds the shapes of a large update, such as the board sent on join or an opened
+ * file, while a canvas adds them a slice at a time. The shapes are prepared on a pool of worker
+ * threads in chunks: the bounds every later step needs are worked out, and the shapes are put
+ * in the order they are added, those in view first and then the newest first. Shapes are
+ * always drawn in the order of their dots, so the order they are added in never changes how
+ * the board looks once it is loaded.
+ */
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkLoad {
+    // Shapes prepared together by one worker
+    private static final int CHUNK_SIZE = 4096;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "bulk-load-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final Comparator<Shape> NEWEST_FIRST = Comparator.comparing(Shape::getDot).reversed();
+    private final ArrayList<Shape> ordered;
+    private int next;
+
+    private BulkLoad(ArrayList<Shape> ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Prepares shapes to be added to a canvas, without waiting for them.
+     *
+     * @param shapes the shapes, which have dots
+     * @param visible the area of the canvas in view
+     * @return the load, once it is prepared
+     */
+    public static CompletableFuture<BulkLoad> prepare(List<Shape> shapes, Rectangle2D visible) {
+        List<CompletableFuture<Chunk>> chunks = new ArrayList<>();
+        for (int from = 0; from < shapes.size(); from += CHUNK_SIZE) {
+            List<Shape> chunk = shapes.subList(from, Math.min(shapes.size(), from + CHUNK_SIZE));
+            chunks.add(CompletableFuture.supplyAsync(() -> Chunk.of(chunk, visible), POOL));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApplyAsync(done -> {
+            ArrayList<Shape> inView = new ArrayList<>();
+            ArrayList<Shape> rest = new ArrayList<>();
+            for (CompletableFuture<Chunk> chunk : chunks) {
+                inView.addAll(chunk.join().inView());
+                rest.addAll(chunk.join().rest());
+            }
+            // The chunks are sorted already, so this only merges them
+            rest.sort(NEWEST_FIRST);
+            inView.addAll(rest);
+            return new BulkLoad(inView);
+        }, POOL);
+    }
+
+    public boolean hasNext() {
+        return next < ordered.size();
+    }
+
+    /**
+     * Returns the next shape to add, letting go of it.
+     *
+     * @return the shape
+     */
+    public Shape next() {
+        Shape shape = ordered.get(next);
+        ordered.set(next++, null);
+        return shape;
+    }
+
+    public int getTotal() {
+        return ordered.size();
+    }
+
+    public int getLoaded() {
+        return next;
+    }
+
+    /**
+     * The shapes of a chunk, split by whether they are in view.
+     */
+    private record Chunk(List<Shape> inView, List<Shape> rest) {
+        static Chunk of(List<Shape> shapes, Rectangle2D visible) {
+            List<Shape> inView = new ArrayList<>();
+            List<Shape> rest = new ArrayList<>();
+            for (Shape shape : shapes) {
+                // Strokes keep the bounds they work out, for the index and the paints to come
+                if (visible != null && shape.getBounds().intersects(visible)) {
+                    inView.add(shape);
+                } else {
+                    rest.add(shape);
+                }
+            }
+            rest.sort(NEWEST_FIRST);
+            return new Chunk(inView, rest);
+        }
+    }
+}
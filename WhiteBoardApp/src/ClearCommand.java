@@ -8,8 +8,31 @@
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class ClearCommand implements Serializable {
+    private HashMap<String, Long> clock;
+
+    public ClearCommand() {
+    }
+
+    /**
+     * Constructor for a clear that only removes the shapes the sender had seen.
+     *
+     * @param clock per replica, the highest counter the sender had seen
+     */
+    public ClearCommand(HashMap<String, Long> clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the shapes the clear removes, or null for every shape the receiver has seen.
+     *
+     * @return the clock of the clear
+     */
+    public HashMap<String, Long> getClock() {
+        return clock;
+    }
 }
 
 class KickCommand implements Serializable {
@@ -42,4 +65,68 @@ class ServerQuitCommand implements Serializable {
 }
 
 class UsernameTakenCommand implements Serializable {
-}
\ No newline at end of file
+}
+
+/**
+ * Asks the server for the board as it was at the given point in time.
+ */
+record HistorySeekRequest(long timestamp) implements Serializable {
+}
+
+/**
+ * The board as it was at a point in time, along with the time span of the recorded history.
+ */
+record HistorySnapshot(long timestamp, long seq, ArrayList<Shape> shapes, long firstTimestamp,
+                       long lastTimestamp) implements Serializable {
+}
+
+/**
+ * Asks the server for a range of recorded operations.
+ */
+record HistoryRangeRequest(long fromSeq, int limit) implements Serializable {
+}
+
+/**
+ * A range of recorded operations. The range is complete when it contains the last recorded operation.
+ */
+record HistoryChunk(ArrayList<BoardOperation> operations, boolean complete) implements Serializable {
+}
+
+
+/**
+ * Tells a client to reconnect to another server, which owns the board it wants to join.
+ */
+record RedirectCommand(String host, int port) implements Serializable {
+}
+
+/**
+ * Tells a client it is watching a relayed board and cannot change it.
+ */
+class ViewerModeCommand implements Serializable {
+}
+
+/**
+ * An update to the board together with the sequence number of the operation that caused it,
+ * and the trace of the shape if it is one of the shapes traced.
+ */
+record SequencedUpdate(long seq, Object update, OpTrace trace) implements Serializable {
+    SequencedUpdate(long seq, Object update) {
+        this(seq, update, null);
+    }
+
+    SequencedUpdate withTrace(OpTrace trace) {
+        return new SequencedUpdate(seq, update, trace);
+    }
+}
+
+/**
+ * Removes shapes from the board, sent by a client erasing them with the object eraser.
+ */
+record RemoveShapesCommand(ArrayList<Dot> dots) implements Serializable {
+}
+
+/**
+ * Tells a client which standby server to reconnect to if the server fails.
+ */
+record FailoverInfo(String host, int port) implements Serializable {
+}
@@ -3,19 +3,59 @@
  * Author: Marshall Zhang
  * Student ID: 1160040
  * This file contains the ClientHandler class, which is responsible for handling
- * communication between the server and a single client.
+ * communication between the server and a single client. Each client has a budget of
+ * operations and bytes per second; updates to a stroke beyond the budget are merged
+ * into the latest version, and a client that keeps exceeding it is no longer read from.
+ * Everything sent to the client goes through the queues of its message channel, drained by a
+ * writer thread, so a client whose socket stops taking data never holds up the threads that
+ * send to it, and urgent messages overtake large ones.
  */
 
+import java.awt.geom.Rectangle2D;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ClientHandler implements Runnable {
+    private static final double OPERATIONS_PER_SECOND = 200;
+    private static final double OPERATIONS_BURST = 400;
+    private static final double BYTES_PER_SECOND = 2 * 1024 * 1024;
+    private static final double BYTES_BURST = 8 * 1024 * 1024;
+    // Shapes waiting for the budget before the client is no longer read from
+    private static final int MAX_QUEUED_SHAPES = 256;
+    // Messages waiting to be written before the client is evicted as too slow
+    private static final int MAX_QUEUED_MESSAGES = 10000;
     private Socket socket;
     private WhiteboardServer server;
-    private ObjectOutputStream out;
+    private Board board;
+    private volatile MessageChannel channel;
     private String username;
-    private boolean isFirstJoin;
+    private volatile Viewport viewport;
+    // Shapes the client has been sent, whose updates it keeps receiving wherever they are
+    private final Set<Dot> known = ConcurrentHashMap.newKeySet();
+    private final TokenBucket operations = new TokenBucket(OPERATIONS_PER_SECOND, OPERATIONS_BURST);
+    // Shapes received beyond the budget, in arrival order, holding only the latest version of each
+    private final LinkedHashMap<Dot, Shape> queuedShapes = new LinkedHashMap<>();
+    // Traces of queued shapes, kept from the first traced version of each
+    private final HashMap<Dot, OpTrace> queuedTraces = new HashMap<>();
+    private PendingJoin pendingJoin;
+    private Session session;
+    private PresenceTicket presenceTicket;
+    // Whether the client is on its board, which it only joins once the join policy lets it in,
+    // and whether it has left; guarded by this
+    private boolean joined;
+    private boolean left;
+    private long resumeSeq;
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile ThrottledInputStream input;
+    private final long connectedAt = System.currentTimeMillis();
 
     /**
      * Constructor for ClientHandler
@@ -26,7 +66,22 @@ public class ClientHandler implements Runnable {
     public ClientHandler(Socket socket, WhiteboardServer server) {
         this.socket = socket;
         this.server = server;
-        this.isFirstJoin = true;
+    }
+
+    /**
+     * Constructor for a ClientHandler whose client is reached through a channel rather than
+     * a socket, such as the in-memory clients of the benchmarks. The writer starts at once,
+     * and the caller adds the client to a board.
+     *
+     * @param server the server
+     * @param username the username of the client
+     * @param channel the channel to the client
+     */
+    ClientHandler(WhiteboardServer server, String username, MessageChannel channel) {
+        this.server = server;
+        this.username = username;
+        this.channel = channel;
+        this.writer = channel.startWriter("client " + username, () -> closed = true);
     }
 
     /**
@@ -35,66 +90,261 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-            out = new ObjectOutputStream(socket.getOutputStream());
-
-            this.username = (String) in.readObject();
-            // Check if username is taken
-            if (server.isUsernameTaken(username, this.socket)) {
-                out.writeObject(new UsernameTakenCommand());
-                out.reset();
-                socket.close();
+            ThrottledInputStream input = new ThrottledInputStream(socket.getInputStream(),
+                    new TokenBucket(BYTES_PER_SECOND, BYTES_BURST));
+            this.input = input;
+            MessageChannel channel = MessageChannel.accept(input, new CountingOutputStream(socket.getOutputStream(),
+                    server.getMetrics().counter("outbound_bytes_total")));
+            this.channel = channel;
+
+            // Older clients only send their username and always join the default board
+            Object hello = channel.read();
+            if (hello instanceof ReplicaHello replicaHello && channel.getObjectOutput() != null) {
+                // A standby server streams the operations of every board from here on
+                server.getReplicator().serve(socket, channel.getObjectOutput(), replicaHello);
+                return;
             }
-            server.updateUserList();
 
-            // Send current shapes to new client
-            if (this.isFirstJoin && !server.getShapes().isEmpty()) {
-                for (Shape shape : server.getShapes()) {
-                    sendShape(shape);
+            // From here on the writer thread owns the output stream, and the client is pinged
+            writer = channel.startWriter("client " + socket.getRemoteSocketAddress(), () -> {
+                closed = true;
+                server.getConnectionMonitor().unregister(this);
+                closeConnection();
+            });
+            server.getConnectionMonitor().register(this);
+
+            String boardName = WhiteboardServer.DEFAULT_BOARD;
+            long lastSeq = 0;
+            String sessionToken = null;
+            if (hello instanceof Hello helloCommand) {
+                lastSeq = helloCommand.lastSeq();
+                sessionToken = helloCommand.sessionToken();
+                viewport = helloCommand.viewport();
+                this.username = helloCommand.username();
+                if (helloCommand.boardName() != null && !helloCommand.boardName().isBlank()) {
+                    boardName = helloCommand.boardName();
                 }
-                this.isFirstJoin = false;
+            } else {
+                this.username = (String) hello;
+            }
+
+            // Send the client to the node that owns the board when running in a cluster
+            RedirectCommand redirect = server.redirectFor(boardName);
+            if (redirect != null) {
+                sendObject(redirect);
+                return;
+            }
+            this.board = server.getBoard(boardName);
+
+            // A client presenting its session token takes the place of its old connection,
+            // which may still be on the board if the server has not noticed it dropped
+            Session resumed = server.getSessions().find(sessionToken, username, board.getName());
+            ClientHandler previous = resumed == null ? null : resumed.connection();
+
+            // Check if username is taken by anyone but that old connection, before the
+            // client is given a session or replaces anyone
+            if (board.isUsernameTaken(username, previous)) {
+                sendObject(new UsernameTakenCommand());
+                return;
+            }
+
+            session = server.getSessions().open(sessionToken, username, board.getName());
+            ClientHandler replaced = session.attach(this);
+            if (session.token().equals(sessionToken)) {
+                server.getMetrics().increment("sessions_resumed");
+            }
+            if (replaced != null) {
+                board.removeClient(replaced);
+                replaced.closeConnection();
+            }
+            if (hello instanceof Hello) {
+                sendObject(new SessionToken(session.token()));
+            }
+
+            // Viewers of a relayed board can only watch
+            if (board.isReadOnly()) {
+                sendObject(new ViewerModeCommand());
+            }
+
+            // Tell the client where to reconnect if this server fails
+            FailoverInfo failover = server.getFailover();
+            if (failover != null) {
+                sendObject(failover);
+            }
+
+            // Nothing of the board is sent until the client is let in: at once if everyone
+            // is, or if its session was approved before it reconnected
+            resumeSeq = lastSeq;
+            if (server.getJoinPolicy().admitsEveryone()) {
+                session.setApproved(true);
+            }
+            if (session.isApproved()) {
+                joinBoard();
             }
 
             Object inputObject;
-            while ((inputObject = in.readObject()) != null) {
+            while (true) {
+                applyQueuedShapes();
+                if (!queuedShapes.isEmpty() && (queuedShapes.size() >= MAX_QUEUED_SHAPES || channel.available() == 0)) {
+                    // Nothing more to merge the queued shapes with, or too many of them, so wait
+                    // for the budget instead of reading on
+                    awaitOperation();
+                    applyNextQueuedShape();
+                    continue;
+                }
+                if ((inputObject = channel.read()) == null) {
+                    break;
+                }
+                long receivedAt = LatencyTracer.nowMicros();
+                server.getMetrics().increment("inbound_bytes_throttled_ms",
+                        TimeUnit.NANOSECONDS.toMillis(input.takeThrottledNanos()));
+                server.getMetrics().increment("inbound_bytes_total", input.takeBytesRead());
+                server.getMetrics().increment("messages_in_total");
+                if (inputObject instanceof ClockProbe probe) {
+                    // Answered at once, so the round trip says how far off the client's clock is
+                    sendObject(new ClockProbe(probe.clientSent(), LatencyTracer.nowMicros()));
+                    continue;
+                }
+                OpTrace trace = null;
+                if (inputObject instanceof TracedUpdate traced) {
+                    trace = traced.trace().withReceived(receivedAt);
+                    inputObject = traced.update();
+                }
+                if (!isJoined() && !isAllowedBeforeJoining(inputObject)) {
+                    // Clients the join policy has not let in yet can only ask to join
+                    continue;
+                }
+                if (board.isReadOnly() && !isAllowedForViewer(inputObject)) {
+                    // Viewers cannot draw, chat or manage a relayed board
+                    continue;
+                }
+                if (inputObject instanceof Shape shape && shape.getDot() != null) {
+                    queueShape(shape, trace);
+                    continue;
+                }
+                // Anything else is applied after the shapes sent before it
+                while (!queuedShapes.isEmpty()) {
+                    awaitOperation();
+                    applyNextQueuedShape();
+                }
+                awaitOperation();
                 if (inputObject instanceof String) {
                     // Broadcast message to all clients
-                    server.broadcastMessage(username + ": " + inputObject);
+                    board.broadcastMessage(username + ": " + inputObject);
                 } else if (inputObject instanceof Shape) {
                     // Broadcast shape to all clients
-                    server.addShape((Shape) inputObject, out);
-                } else if (inputObject instanceof ClearCommand) {
-                    // Clear all shapes
-                    server.clearAllShapes(out);
+                    board.addShape((Shape) inputObject, this, trace);
+                } else if (inputObject instanceof ClearCommand clearCommand) {
+                    // Clear the shapes the client had seen
+                    board.clearAllShapes(clearCommand, this);
+                } else if (inputObject instanceof RemoveShapesCommand removeCommand) {
+                    // Remove the shapes the client erased
+                    board.removeShapes(removeCommand.dots(), this);
                 } else if (inputObject instanceof OpenCommand openCommand) {
-                    // Clear all shapes and open new board
-                    server.clearAllShapes(out);
-                    server.getShapes().addAll(openCommand.getShapes());
-                    server.openNewBoard(out);
+                    // Replace all shapes with the opened board
+                    board.openBoard(openCommand.getShapes());
+                } else if (inputObject instanceof Viewport newViewport) {
+                    // Stream the shapes around where the client is looking now, or remember
+                    // where it is looking until it joins
+                    if (isJoined()) {
+                        moveViewport(newViewport);
+                    } else {
+                        viewport = newViewport;
+                    }
                 } else if (inputObject instanceof JoinRequest joinRequest) {
-                    // Notify manager of join request
-                    boolean isApproved = server.notifyManager(joinRequest);
-                    JoinResponse joinResponse = new JoinResponse(isApproved);
-                    out.writeObject(joinResponse);
-                    out.reset();
+                    // Queue the request for the manager and keep serving the client; the
+                    // answer is sent whenever the manager decides
+                    server.getJoinApprovals().cancel(pendingJoin);
+                    if (session.isApproved()) {
+                        // Approved before the client reconnected
+                        sendObject(new JoinResponse(true));
+                        continue;
+                    }
+                    Session requester = session;
+                    pendingJoin = server.requestJoin(joinRequest, board, approved -> {
+                        requester.setApproved(approved);
+                        sendObject(new JoinResponse(approved));
+                        if (approved) {
+                            joinBoard();
+                        }
+                    });
+                    int position = pendingJoin == null ? -1 : server.getJoinApprovals().position(pendingJoin);
+                    if (position >= 0) {
+                        sendObject(new JoinPending(position));
+                    }
+                } else if (inputObject instanceof HistorySeekRequest seekRequest) {
+                    // Reconstruct the board at the requested time
+                    BoardHistory history = board.getHistory();
+                    long timestamp = seekRequest.timestamp();
+                    sendObject(new HistorySnapshot(timestamp, history.countOperationsUntil(timestamp),
+                            history.seek(timestamp), history.getFirstTimestamp(), history.getLastTimestamp()));
+                } else if (inputObject instanceof HistoryRangeRequest rangeRequest) {
+                    // Stream a range of recorded operations for playback
+                    BoardHistory history = board.getHistory();
+                    ArrayList<BoardOperation> operations = history.getOperations(rangeRequest.fromSeq(),
+                            rangeRequest.limit());
+                    long lastSent = operations.isEmpty() ? rangeRequest.fromSeq() - 1
+                            : operations.get(operations.size() - 1).seq();
+                    sendObject(new HistoryChunk(operations, lastSent >= history.getLastSequence()));
+                } else if (inputObject instanceof ManagerLogin login) {
+                    // A manager deciding the join requests of a headless server
+                    if (!(server.getJoinPolicy() instanceof ManagerPolicy policy) || !policy.login(this, login)) {
+                        sendObject("Server: manager login refused");
+                    } else {
+                        // The manager is on the board without asking
+                        session.setApproved(true);
+                        joinBoard();
+                    }
+                } else if (inputObject instanceof JoinDecision decision) {
+                    if (server.getJoinPolicy() instanceof ManagerPolicy policy) {
+                        policy.decide(this, decision);
+                    }
+                } else if (inputObject instanceof Pong) {
+                    // Nothing to do, the client is known to be there from the bytes read
                 } else if (inputObject instanceof ServerQuitCommand) {
-                    // Shutdown server
-                    server.shutdown();
+                    // Shutdown server, if the manager asked
+                    if (isManager()) {
+                        server.shutdown();
+                    }
                 } else if (inputObject instanceof KickCommand kickCommand) {
-                    // Kick user
-                    server.kickUser(kickCommand.getUsername());
+                    // Kick user, if the manager asked
+                    if (isManager()) {
+                        board.kickUser(kickCommand.getUsername(), server.getSessions());
+                    }
                 }
             }
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Error handling client: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            // Remove client from server
-            server.getClients().remove(this);
-            server.updateUserList();
-            try {
-                socket.close();
-            } catch (IOException e) {
-                System.out.println("Error closing socket: " + e.getMessage());
+            // A join approved from now on finds the client gone
+            boolean wasJoined = leaveBoard();
+
+            // Nobody is left to answer, and the session waits for the client to reconnect
+            server.getJoinApprovals().cancel(pendingJoin);
+            if (server.getJoinPolicy() instanceof ManagerPolicy policy) {
+                policy.logout(this);
+            }
+            if (session != null) {
+                session.detach(this);
+            }
+            if (presenceTicket != null) {
+                server.getPresence().unregister(presenceTicket);
+            }
+
+            // Remove client from its board, keeping the last shapes it drew
+            if (wasJoined) {
+                while (!queuedShapes.isEmpty()) {
+                    applyNextQueuedShape();
+                }
+                board.removeClient(this);
+                board.updateUserList();
+            }
+            if (writer == null) {
+                closeConnection();
+            } else {
+                disconnect();
             }
         }
     }
@@ -104,63 +354,278 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Sends a message to the client
+     * Queues a shape received from the client. A newer version of a stroke that is already
+     * queued replaces it in place, so a stroke dragged faster than the budget allows is sent
+     * on as fewer, larger updates.
      *
-     * @param message the message to send
+     * @param shape the shape, which has a dot
+     * @param trace the trace of the shape, or null if it is not traced
      */
-    public void sendMessage(String message) {
-        try {
-            out.writeObject(message);
-            out.reset();
-        } catch (IOException e) {
-            System.out.println("Error sending message to client: " + e.getMessage());
+    private void queueShape(Shape shape, OpTrace trace) {
+        if (trace != null) {
+            queuedTraces.putIfAbsent(shape.getDot(), trace);
+        }
+        Shape queued = queuedShapes.get(shape.getDot());
+        if (queued == null) {
+            queuedShapes.put(shape.getDot(), shape);
+            return;
+        }
+        server.getMetrics().increment("inbound_updates_coalesced");
+        if (shape.getVersion() > queued.getVersion()) {
+            queuedShapes.put(shape.getDot(), shape);
         }
     }
 
     /**
-     * Sends a shape to the client
+     * Adds queued shapes to the board for as long as the budget allows.
+     */
+    private void applyQueuedShapes() {
+        while (!queuedShapes.isEmpty() && operations.tryAcquire(1)) {
+            applyNextQueuedShape();
+        }
+    }
+
+    private void applyNextQueuedShape() {
+        Iterator<Shape> iterator = queuedShapes.values().iterator();
+        Shape shape = iterator.next();
+        iterator.remove();
+        board.addShape(shape, this, queuedTraces.remove(shape.getDot()));
+    }
+
+    /**
+     * Takes one operation from the budget, waiting for it if the client has used it up.
      *
-     * @param shape the shape to send
+     * @throws InterruptedException if the thread is interrupted while waiting
      */
-    public void sendShape(Shape shape) {
-        try {
-            out.writeObject(shape);
-            out.reset();
-        } catch (IOException e) {
-            System.out.println("Error sending shape to client: " + e.getMessage());
+    private void awaitOperation() throws InterruptedException {
+        server.getMetrics().increment("inbound_ops_throttled_ms",
+                TimeUnit.NANOSECONDS.toMillis(operations.acquire(1)));
+    }
+
+    /**
+     * Puts the client on its board once it is let in, sending it the shapes near its viewport
+     * or only what it missed, and its presence ticket. Called on the thread that lets it in,
+     * and does nothing if the client is already on the board or has gone.
+     */
+    private synchronized void joinBoard() {
+        if (joined || left) {
+            return;
         }
+        joined = true;
+        board.join(this, resumeSeq);
+        board.updateUserList();
+
+        // Cursors and shapes being dragged out go over UDP, except on boards only watched
+        PresenceServer presence = server.getPresence();
+        if (presence != null && !board.isReadOnly()) {
+            presenceTicket = presence.register(this, board);
+            if (presenceTicket != null) {
+                sendObject(presenceTicket);
+            }
+        }
+    }
+
+    /**
+     * Notes that the client has gone, so it can no longer join its board. Waits for a join
+     * under way on another thread, so the client is never left on the board.
+     *
+     * @return true if it was on the board
+     */
+    private synchronized boolean leaveBoard() {
+        left = true;
+        return joined;
     }
 
-    public ObjectOutputStream getOut() {
-        return out;
+    private synchronized boolean isJoined() {
+        return joined;
     }
 
     /**
-     * Sends a clear command to the client
+     * Checks whether the client is the manager, who alone may kick users and shut the
+     * server down.
+     *
+     * @return true if the client logged in as the manager
      */
-    public void sendClearCommand() {
-        try {
-            out.writeObject(new ClearCommand());
-            out.reset();
-        } catch (IOException e) {
-            System.out.println("Error sending clear command to client: " + e.getMessage());
+    private boolean isManager() {
+        return server.getJoinPolicy() instanceof ManagerPolicy policy && policy.isManager(this);
+    }
+
+    /**
+     * Checks whether a client not let onto its board yet may send an object.
+     *
+     * @param inputObject the object sent by the client
+     * @return true if the object asks to join or does not touch the board
+     */
+    private static boolean isAllowedBeforeJoining(Object inputObject) {
+        return inputObject instanceof JoinRequest
+                || inputObject instanceof ManagerLogin
+                || inputObject instanceof Pong
+                || inputObject instanceof Viewport;
+    }
+
+    /**
+     * Checks whether a viewer of a read-only board may send an object.
+     *
+     * @param inputObject the object sent by the viewer
+     * @return true if the object does not change the board
+     */
+    private static boolean isAllowedForViewer(Object inputObject) {
+        return inputObject instanceof JoinRequest
+                || inputObject instanceof Pong
+                || inputObject instanceof Viewport
+                || inputObject instanceof HistorySeekRequest
+                || inputObject instanceof HistoryRangeRequest;
+    }
+
+    /**
+     * Moves the viewport of the client. Shapes it has not been sent that are now in its area
+     * of interest are sent, and shapes it will forget are no longer followed.
+     *
+     * @param newViewport the area the client shows
+     */
+    private void moveViewport(Viewport newViewport) {
+        viewport = newViewport;
+        Rectangle2D retention = newViewport.retention();
+        known.removeIf(dot -> {
+            Shape shape = board.getShape(dot);
+            return shape == null || !shape.getBounds().intersects(retention);
+        });
+        ArrayList<Shape> missing = new ArrayList<>();
+        for (Shape shape : board.query(newViewport.interest())) {
+            if (known.add(shape.getDot())) {
+                missing.add(shape);
+            }
+        }
+        if (!missing.isEmpty()) {
+            sendObject(new BoardDiffCommand(new ArrayList<>(), missing));
         }
     }
 
     /**
-     * Sends an open command to the client
+     * Sends an update of the board to the client, leaving out shapes away from its viewport.
      *
-     * @param shapes the shapes to send
+     * @param update the update
      */
-    public void sendOpenCommand(ArrayList<Shape> shapes) {
-        try {
-            out.writeObject(new OpenCommand(shapes));
-            out.reset();
-        } catch (IOException e) {
-            System.out.println("Error sending open command to client: " + e.getMessage());
+    public void sendUpdate(SequencedUpdate update) {
+        Viewport current = viewport;
+        if (current == null) {
+            sendObject(update);
+            return;
+        }
+        Rectangle2D interest = current.interest();
+        Object filtered = update.update();
+        if (filtered instanceof Shape shape) {
+            filtered = isWanted(shape, interest) ? shape : null;
+        } else if (filtered instanceof BoardDiffCommand diff) {
+            ArrayList<Shape> added = new ArrayList<>();
+            for (Shape shape : diff.addedShapes()) {
+                if (isWanted(shape, interest)) {
+                    added.add(shape);
+                }
+            }
+            filtered = new BoardDiffCommand(diff.removedDots(), added);
+        } else if (filtered instanceof BoardSnapshot snapshot) {
+            ArrayList<Shape> shapes = new ArrayList<>();
+            for (Shape shape : snapshot.shapes()) {
+                if (isWanted(shape, interest)) {
+                    shapes.add(shape);
+                }
+            }
+            filtered = new BoardSnapshot(shapes, snapshot.tombstones(), snapshot.cleared(), snapshot.observed());
+        }
+        // Updates arrive in sequence order, so skipping one never leaves a gap to resume from
+        if (filtered != null) {
+            sendObject(new SequencedUpdate(update.seq(), filtered, update.trace()));
+        }
+    }
+
+    /**
+     * Checks whether the client should receive a shape: one it already has, or one in its area of interest.
+     *
+     * @param shape the shape
+     * @param interest the area of interest of the client
+     * @return true if the shape should be sent
+     */
+    private boolean isWanted(Shape shape, Rectangle2D interest) {
+        if (known.contains(shape.getDot()) || shape.getBounds().intersects(interest)) {
+            known.add(shape.getDot());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends a message to the client
+     *
+     * @param message the message to send
+     */
+    public void sendMessage(String message) {
+        sendObject(message);
+    }
+
+    /**
+     * Queues an object for the writer thread to send to the client, so the caller never
+     * waits for the network. A client that falls too far behind is evicted.
+     *
+     * @param object the object to send
+     */
+    public void sendObject(Object object) {
+        MessageChannel current = channel;
+        if (closed || current == null) {
+            return;
+        }
+        current.send(object);
+        server.getMetrics().increment("messages_out_total");
+        if (current.size() > MAX_QUEUED_MESSAGES) {
+            server.getConnectionMonitor().evict(this, "send_queue_overflow");
         }
     }
 
+    /**
+     * Closes the connection once the messages queued so far have been written.
+     */
+    public void disconnect() {
+        MessageChannel current = channel;
+        if (current != null) {
+            current.finish();
+        }
+    }
+
+    public int getQueuedMessages() {
+        MessageChannel current = channel;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Returns when anything was last received from the client.
+     *
+     * @return the time in milliseconds
+     */
+    public long getLastReceivedAt() {
+        ThrottledInputStream current = input;
+        return current == null ? connectedAt : current.getLastReadAt();
+    }
+
+    /**
+     * Returns how long the write in progress has been waiting for the socket.
+     *
+     * @param now the current time in milliseconds
+     * @return the time in milliseconds, or 0 if nothing is being written
+     */
+    public long getWriteStalledFor(long now) {
+        MessageChannel current = channel;
+        return current == null ? 0 : current.getWriteStalledFor(now);
+    }
+
+    /**
+     * Returns the area the client shows.
+     *
+     * @return the viewport, or null if the client receives the whole board
+     */
+    public Viewport getViewport() {
+        return viewport;
+    }
+
     public Socket getSocket() {
         return socket;
     }
@@ -169,6 +634,11 @@ public class ClientHandler implements Runnable {
      * Closes the connection with the client
      */
     public void closeConnection() {
+        closed = true;
+        MessageChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
         try {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
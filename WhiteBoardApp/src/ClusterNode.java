@@ -0,0 +1,350 @@
+/**
+ * ClusterNode.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class lets several servers share the boards between them. Nodes gossip their
+ * membership to each other, boards are assigned to nodes by consistent hashing, and
+ * when a node joins or leaves, the boards it no longer owns are handed to their new owner.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ClusterNode {
+    private static final int GOSSIP_INTERVAL = 1000;
+    private static final int FAILURE_TIMEOUT = 5000;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int TRANSFER_ATTEMPTS = 3;
+    private final WhiteboardServer server;
+    private final String host;
+    private final int clientPort;
+    private final int gossipPort;
+    private final List<InetSocketAddress> seeds;
+    private final ConcurrentHashMap<String, ClusterMember> members = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lastSeen = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> removed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final Random random = new Random();
+    private ServerSocket gossipSocket;
+    private volatile ConsistentHashRing ring;
+    private long heartbeat;
+    private volatile boolean left;
+    // Whether some board could not be handed to its new owner yet
+    private volatile boolean boardsToMove;
+
+    /**
+     * Constructor for the ClusterNode class.
+     *
+     * @param server the server hosting the boards of this node
+     * @param host the address clients and other nodes use to reach this node
+     * @param clientPort the port clients connect to
+     * @param gossipPort the port other nodes gossip with
+     * @param seeds gossip addresses of nodes to contact first
+     */
+    public ClusterNode(WhiteboardServer server, String host, int clientPort, int gossipPort,
+                       List<InetSocketAddress> seeds) {
+        this.server = server;
+        this.host = host;
+        this.clientPort = clientPort;
+        this.gossipPort = gossipPort;
+        this.seeds = seeds;
+        // Heartbeats start from the clock so a restarted node is never mistaken for its old self
+        this.heartbeat = System.currentTimeMillis();
+        members.put(getNodeId(), new ClusterMember(getNodeId(), host, clientPort, gossipPort, heartbeat, false));
+        rebuildRing();
+    }
+
+    public String getNodeId() {
+        return host + ":" + clientPort;
+    }
+
+    /**
+     * Starts listening for other nodes and gossiping with them.
+     *
+     * @throws IOException if the gossip port cannot be opened
+     */
+    public void start() throws IOException {
+        gossipSocket = new ServerSocket(gossipPort);
+        pool.execute(this::listenForNodes);
+        scheduler.scheduleWithFixedDelay(this::gossipRound, 0, GOSSIP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tells the other nodes this node is leaving, so its boards move without waiting for
+     * the failure timeout, and stops gossiping.
+     */
+    public synchronized void leave() {
+        if (left) {
+            return;
+        }
+        left = true;
+        scheduler.shutdownNow();
+        ClusterMember self = members.get(getNodeId());
+        members.put(getNodeId(), new ClusterMember(getNodeId(), host, clientPort, gossipPort,
+                self.heartbeat() + 1, true));
+        for (ClusterMember member : members.values()) {
+            if (!member.nodeId().equals(getNodeId())) {
+                exchange(new InetSocketAddress(member.host(), member.gossipPort()));
+            }
+        }
+
+        // Hand every board to the remaining nodes
+        if (members.size() > 1) {
+            members.remove(getNodeId());
+            rebuildRing();
+            if (!server.rebalance()) {
+                System.err.println("Some boards could not be handed over and are lost with this node.");
+            }
+        }
+        try {
+            gossipSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing gossip socket: " + e.getMessage());
+        }
+        pool.shutdownNow();
+    }
+
+    /**
+     * Checks whether a board is owned by this node.
+     *
+     * @param boardName name of the board
+     * @return true if this node owns the board
+     */
+    public boolean isLocal(String boardName) {
+        return getNodeId().equals(ring.ownerOf(boardName));
+    }
+
+    /**
+     * Returns the member that owns a board.
+     *
+     * @param boardName name of the board
+     * @return the owning member, or null if no node is known
+     */
+    public ClusterMember ownerOf(String boardName) {
+        String owner = ring.ownerOf(boardName);
+        return owner == null ? null : members.get(owner);
+    }
+
+    /**
+     * Sends the state of a board this node no longer owns to its new owner, trying again a
+     * few times if it cannot be reached.
+     *
+     * @param boardName name of the board
+     * @param snapshot state of the board
+     * @param owner the new owner of the board
+     * @return true if the new owner acknowledged the board
+     */
+    public boolean transfer(String boardName, BoardSnapshot snapshot, ClusterMember owner) {
+        for (int attempt = 1; attempt <= TRANSFER_ATTEMPTS; attempt++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(owner.host(), owner.gossipPort()), CONNECT_TIMEOUT);
+                socket.setSoTimeout(FAILURE_TIMEOUT);
+                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.writeObject(new BoardTransfer(boardName, snapshot));
+                out.flush();
+                if (Boolean.TRUE.equals(new ObjectInputStream(socket.getInputStream()).readObject())) {
+                    return true;
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Error transferring board " + boardName + ": " + e.getMessage());
+            }
+            try {
+                Thread.sleep((long) CONNECT_TIMEOUT * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accepts connections from other nodes.
+     */
+    private void listenForNodes() {
+        while (!gossipSocket.isClosed()) {
+            try {
+                Socket socket = gossipSocket.accept();
+                pool.execute(() -> handleNode(socket));
+            } catch (IOException e) {
+                if (!gossipSocket.isClosed()) {
+                    System.err.println("Error accepting node connection: " + e.getMessage());
+                }
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers a gossip exchange or receives a board transferred from another node.
+     *
+     * @param socket the connection from the other node
+     */
+    private void handleNode(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(FAILURE_TIMEOUT);
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            Object message = in.readObject();
+            if (message instanceof GossipDigest digest) {
+                merge(digest.members());
+                out.writeObject(new GossipDigest(new HashMap<>(members)));
+            } else if (message instanceof BoardTransfer transfer) {
+                server.receiveBoard(transfer.boardName(), transfer.snapshot());
+                out.writeObject(Boolean.TRUE);
+            }
+            out.flush();
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Error handling node connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Increments this node's heartbeat, drops nodes that stopped gossiping, and exchanges
+     * membership with a random node, or a seed while no other node is known.
+     */
+    private void gossipRound() {
+        try {
+            members.put(getNodeId(), new ClusterMember(getNodeId(), host, clientPort, gossipPort, ++heartbeat, false));
+            detectFailures();
+
+            List<ClusterMember> others = new ArrayList<>();
+            for (ClusterMember member : members.values()) {
+                if (!member.nodeId().equals(getNodeId())) {
+                    others.add(member);
+                }
+            }
+            if (!others.isEmpty()) {
+                ClusterMember peer = others.get(random.nextInt(others.size()));
+                exchange(new InetSocketAddress(peer.host(), peer.gossipPort()));
+            } else if (!seeds.isEmpty()) {
+                exchange(seeds.get(random.nextInt(seeds.size())));
+            }
+            if (boardsToMove) {
+                pool.execute(this::rebalance);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error during gossip round: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exchanges membership with another node.
+     *
+     * @param address gossip address of the other node
+     */
+    private void exchange(InetSocketAddress address) {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, CONNECT_TIMEOUT);
+            socket.setSoTimeout(FAILURE_TIMEOUT);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.writeObject(new GossipDigest(new HashMap<>(members)));
+            out.flush();
+            Object reply = new ObjectInputStream(socket.getInputStream()).readObject();
+            if (reply instanceof GossipDigest digest) {
+                merge(digest.members());
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // The node is unreachable; it is dropped once its heartbeat times out
+        }
+    }
+
+    /**
+     * Merges membership received from another node, keeping the entry with the higher
+     * heartbeat for each node.
+     *
+     * @param received the membership known by the other node
+     */
+    private synchronized void merge(Map<String, ClusterMember> received) {
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+        for (ClusterMember member : received.values()) {
+            if (member.nodeId().equals(getNodeId())) {
+                continue;
+            }
+            Long removedAt = removed.get(member.nodeId());
+            if (removedAt != null && removedAt >= member.heartbeat()) {
+                continue;
+            }
+            if (member.leaving()) {
+                removed.put(member.nodeId(), member.heartbeat());
+                changed |= members.remove(member.nodeId()) != null;
+                lastSeen.remove(member.nodeId());
+                continue;
+            }
+            ClusterMember known = members.get(member.nodeId());
+            if (known == null || member.heartbeat() > known.heartbeat()) {
+                members.put(member.nodeId(), member);
+                lastSeen.put(member.nodeId(), now);
+                removed.remove(member.nodeId());
+                changed |= known == null;
+            }
+        }
+        if (changed) {
+            onMembershipChanged();
+        }
+    }
+
+    /**
+     * Removes nodes whose heartbeat has not increased within the failure timeout.
+     */
+    private synchronized void detectFailures() {
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+        for (ClusterMember member : new ArrayList<>(members.values())) {
+            Long seen = lastSeen.get(member.nodeId());
+            if (seen != null && now - seen > FAILURE_TIMEOUT) {
+                System.out.println("Cluster node " + member.nodeId() + " timed out.");
+                members.remove(member.nodeId());
+                lastSeen.remove(member.nodeId());
+                removed.put(member.nodeId(), member.heartbeat());
+                changed = true;
+            }
+        }
+        if (changed) {
+            onMembershipChanged();
+        }
+    }
+
+    private void onMembershipChanged() {
+        rebuildRing();
+        System.out.println("Cluster membership: " + new TreeSet<>(members.keySet()));
+        // Hand boards over outside the gossip lock, since transfers talk to other nodes
+        pool.execute(this::rebalance);
+    }
+
+    /**
+     * Hands boards this node no longer owns to their new owners, noting whether any are left
+     * to try again after the next gossip round.
+     */
+    private void rebalance() {
+        boardsToMove = !server.rebalance();
+    }
+
+    private void rebuildRing() {
+        ring = new ConsistentHashRing(new ArrayList<>(members.keySet()));
+    }
+}
+
+/**
+ * A node of the cluster as known through gossip.
+ */
+record ClusterMember(String nodeId, String host, int clientPort, int gossipPort, long heartbeat,
+                     boolean leaving) implements Serializable {
+}
+
+/**
+ * The membership known by a node, exchanged during gossip.
+ */
+record GossipDigest(HashMap<String, ClusterMember> members) implements Serializable {
+}
+
+/**
+ * The state of a board handed to its new owner.
+ */
+record BoardTransfer(String boardName, BoardSnapshot snapshot) implements Serializable {
+}
@@ -0,0 +1,41 @@
+/**
+ * ClusterServer.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * ClusterServer is the main class that starts one node of a whiteboard cluster. Nodes share
+ * the boards between them and redirect clients to the node that owns their board.
+ */
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClusterServer {
+    public static void main(String[] args) {
+        // Check if the correct number of arguments are provided
+        if (args.length < 3) {
+            System.out.println("Usage: java ClusterServer <nodeAddress> <clientPort> <gossipPort> [seedAddress:seedGossipPort ...]");
+            System.exit(1);
+        }
+
+        String nodeAddress = args[0];
+        int clientPort = Integer.parseInt(args[1]);
+        int gossipPort = Integer.parseInt(args[2]);
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            String[] seed = args[i].split(":");
+            seeds.add(new InetSocketAddress(seed[0], Integer.parseInt(seed[1])));
+        }
+
+        try {
+            WhiteboardServer server = new WhiteboardServer(clientPort);
+            ClusterNode node = new ClusterNode(server, nodeAddress, clientPort, gossipPort, seeds);
+            server.setCluster(node);
+            node.start();
+            System.out.println("Cluster node " + node.getNodeId() + " started.");
+            server.listenForClients();
+        } catch (Exception e) {
+            System.out.println("Error starting cluster node: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * ConnectionMonitor.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class watches the client connections of a server. Every interval it pings each client,
+ * and it evicts clients that have sent nothing for longer than the timeout, such as a laptop
+ * that was closed without disconnecting, and clients whose socket has not taken a write for
+ * that long. Eviction closes the socket, which ends both threads of the connection and
+ * removes the client from its board.
+ */
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionMonitor {
+    public static final long DEFAULT_INTERVAL = 5000;
+    public static final long DEFAULT_TIMEOUT = 15000;
+    private final ServerMetrics metrics;
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "connection-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long interval;
+    private volatile long timeout;
+    private ScheduledFuture<?> task;
+
+    /**
+     * Constructor for ConnectionMonitor. The interval and timeout can be set with the
+     * whiteboard.heartbeat.interval and whiteboard.heartbeat.timeout system properties,
+     * in milliseconds.
+     *
+     * @param metrics where to count evictions
+     */
+    public ConnectionMonitor(ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.interval = Long.getLong("whiteboard.heartbeat.interval", DEFAULT_INTERVAL);
+        this.timeout = Long.getLong("whiteboard.heartbeat.timeout", DEFAULT_TIMEOUT);
+        metrics.registerGauge("connections_open", connections::size);
+        metrics.registerGauge("outbound_queued_messages",
+                () -> connections.stream().mapToLong(ClientHandler::getQueuedMessages).sum());
+        metrics.registerGauge("client_outbound_queue", "client", () -> {
+            HashMap<String, Long> depths = new HashMap<>();
+            for (ClientHandler connection : connections) {
+                depths.merge(String.valueOf(connection.getUsername()), (long) connection.getQueuedMessages(), Long::sum);
+            }
+            return depths;
+        });
+    }
+
+    /**
+     * Sets how often clients are pinged and how long a client may stay silent or stalled.
+     * The timeout should span a few intervals, so one late pong does not evict a client.
+     *
+     * @param interval milliseconds between pings
+     * @param timeout milliseconds after which a client is evicted
+     */
+    public synchronized void setHeartbeat(long interval, long timeout) {
+        this.interval = interval;
+        this.timeout = timeout;
+        if (task != null) {
+            task.cancel(false);
+            start();
+        }
+    }
+
+    /**
+     * Starts pinging and checking the connections.
+     */
+    public synchronized void start() {
+        task = scheduler.scheduleAtFixedRate(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void register(ClientHandler connection) {
+        connections.add(connection);
+    }
+
+    public void unregister(ClientHandler connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Evicts a connection, counting the reason.
+     *
+     * @param connection the connection
+     * @param reason why it is evicted, used in the name of the counter
+     */
+    public void evict(ClientHandler connection, String reason) {
+        if (connections.remove(connection)) {
+            metrics.increment("connections_evicted_total");
+            metrics.increment("connections_evicted_" + reason);
+            System.out.println("Evicting " + connection.getUsername() + ": " + reason.replace('_', ' '));
+            connection.closeConnection();
+        }
+    }
+
+    /**
+     * Evicts the connections that have gone silent or stalled, and pings the others.
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (ClientHandler connection : connections) {
+            if (connection.getWriteStalledFor(now) > timeout) {
+                evict(connection, "write_stall");
+            } else if (now - connection.getLastReceivedAt() > timeout) {
+                evict(connection, "heartbeat_timeout");
+            } else {
+                connection.sendObject(new Ping(now));
+            }
+        }
+    }
+}
+
+/**
+ * Sent by the server every heartbeat interval. The client answers with a Pong carrying
+ * the same time, which shows the server it is still there.
+ */
+record Ping(long sentAt) implements Serializable {
+}
+
+record Pong(long sentAt) implements Serializable {
+}
@@ -0,0 +1,66 @@
+/**
+ * ConsistentHashRing.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class assigns boards to cluster nodes by consistent hashing. Each node is placed on
+ * the ring many times so boards spread evenly, and adding or removing a node only moves
+ * the boards that hashed next to it.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ConsistentHashRing {
+    private static final int VIRTUAL_NODES = 64;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Constructor for the ConsistentHashRing class.
+     *
+     * @param nodeIds ids of the nodes on the ring
+     */
+    public ConsistentHashRing(Collection<String> nodeIds) {
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    /**
+     * Returns the node that owns a board.
+     *
+     * @param boardName name of the board
+     * @return id of the owning node, or null if the ring is empty
+     */
+    public String ownerOf(String boardName) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(boardName));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Hashes a key onto the ring using the first eight bytes of its MD5 digest.
+     *
+     * @param key the key to hash
+     * @return the position of the key on the ring
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
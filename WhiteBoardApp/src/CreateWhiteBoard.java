@@ -6,25 +6,28 @@
  */
 
 import javax.swing.*;
+import java.util.UUID;
 
 public class CreateWhiteBoard {
-    private static WhiteboardServer server;
-
     public static void main(String[] args) {
         // Check if the correct number of arguments are provided
-        if (args.length != 3) {
-            System.out.println("Usage: java CreateWhiteBoard <serverAddress> <serverPort> <username>");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java CreateWhiteBoard <serverAddress> <serverPort> <username> [boardName]");
             System.exit(1);
         }
 
         String serverAddress = args[0];
         int serverPort = Integer.parseInt(args[1]);
         String username = args[2];
+        String boardName = args.length == 4 ? args[3] : WhiteboardServer.DEFAULT_BOARD;
 
-        // Start the server in a new thread
+        // Start the server in a new thread, created first so the manager can be given its join requests.
+        // The manager's client logs in with a key that never leaves this process
+        WhiteboardServer server = new WhiteboardServer(serverPort);
+        String managerKey = UUID.randomUUID().toString();
+        server.setJoinPolicy(new ManagerPolicy(server.getJoinApprovals(), managerKey, false), username);
         new Thread(() -> {
             try {
-                server = new WhiteboardServer(serverPort);
                 server.listenForClients();
             } catch (Exception e) {
                 System.out.println("Error creating server: " + e.getMessage());
@@ -33,8 +36,9 @@ public class CreateWhiteBoard {
 
         // Start the manager in the event dispatch thread
         SwingUtilities.invokeLater(() -> {
-            WhiteboardManager manager = new WhiteboardManager(serverAddress, serverPort, username);
-            server.setManager(manager);
+            WhiteboardManager manager = new WhiteboardManager(serverAddress, serverPort, username, boardName);
+            manager.logIn(managerKey);
+            manager.watchJoinRequests(server.getJoinApprovals());
             manager.setVisible(true);
         });
     }
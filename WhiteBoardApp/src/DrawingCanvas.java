@@ -3,15 +3,36 @@
  * Author: Marshall Zhang
  * Student ID: 1160040
  * This file contains the DrawingCanvas class which is a JPanel that allows the user to draw shapes on it.
+ * The canvas is unbounded: dragging with the right or middle mouse button pans it and the mouse
+ * wheel zooms it. Only the shapes near the visible area are kept. On joining a large board the
+ * server's picture of it is shown under the shapes until they have all arrived.
  */
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class DrawingCanvas extends JPanel {
+    // Updates adding more shapes than this are added a slice at a time
+    static final int BULK_THRESHOLD = Integer.getInteger("whiteboard.load.bulkThreshold", 2000);
+    // How long one slice may keep the Swing thread, and how often a load shows its progress
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("whiteboard.load.sliceMs", 8));
+    private static final long LOAD_REPAINT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double MIN_SCALE = 0.05;
+    private static final double MAX_SCALE = 8;
+    private static final double ZOOM_STEP = 1.1;
     private int startX = -1, startY = -1;
     private Color currentColor = Color.BLACK;
     private String currentTool = "Free Draw";
@@ -20,7 +41,34 @@ public class DrawingCanvas extends JPanel {
     private FreeDraw freeDraw;
     private Text text;
     private WhiteboardClient client;
-    private ArrayList<Shape> shapes = new ArrayList<>();
+    private final ShapeSet shapes = new ShapeSet();
+    // Where the shapes are, for the object eraser to find the ones under it
+    private final SpatialIndex index = new SpatialIndex();
+    private int lastEraseX, lastEraseY;
+    // Shapes the object eraser removed during the current drag, sent to the server when it ends
+    private final ArrayList<Dot> erased = new ArrayList<>();
+    private final String replicaId;
+    private boolean readOnly;
+    // Maps canvas coordinates to screen coordinates
+    private final AffineTransform view = new AffineTransform();
+    private Point panStart;
+    private volatile Viewport reportedViewport;
+    // Tiles of the raster sent on join by their position on the canvas, or null once the shapes are in
+    private HashMap<Point, BufferedImage> raster;
+    private int rasterTileSize;
+    // Traced shapes of other clients applied since the last paint
+    private final ArrayList<AwaitingPaint> awaitingPaint = new ArrayList<>();
+    private final RenderProfiler profiler;
+    // Large updates still being prepared or added, and whether the raster goes once they are in
+    private final ArrayList<BulkLoad> loads = new ArrayList<>();
+    private int loadsPreparing;
+    private boolean dropRasterAfterLoads;
+    private long lastLoadRepaint;
+    // The area in view when last painted, read by the threads preparing loads
+    private volatile Rectangle2D lastVisible;
+    // The cursors of other users and the shapes they are dragging out, and the one dragged out here
+    private final PresenceClient presence;
+    private Shape preview;
 
     /**
      * Constructor for the DrawingCanvas class.
@@ -29,9 +77,36 @@ public class DrawingCanvas extends JPanel {
      */
     public DrawingCanvas(WhiteboardClient client) {
         this.client = client;
+        // Unique per session, so shapes drawn after rejoining never reuse the dots of earlier ones
+        this.replicaId = client.getUsername() + "#" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        this.profiler = new RenderProfiler(client.getUsername());
+        this.presence = client.getPresence();
+        presence.setListener(this::repaint);
         setBackground(Color.WHITE);
         setDoubleBuffered(true);
         addMouseListeners();
+
+        if (client.isViewportLimited()) {
+            // Start with the size of the window, the canvas has no size until it is shown
+            reportedViewport = new Viewport(0, 0, client.getWidth(), client.getHeight());
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    reportViewport();
+                }
+            });
+        }
+    }
+
+    /**
+     * Constructor for a DrawingCanvas that only shows the updates applied to it, with no
+     * client to send drawings to, such as one painted into an offscreen image.
+     */
+    DrawingCanvas() {
+        this.replicaId = "offscreen#" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        this.profiler = new RenderProfiler("offscreen");
+        this.presence = null;
+        setBackground(Color.WHITE);
     }
 
     /**
@@ -46,28 +121,36 @@ public class DrawingCanvas extends JPanel {
              */
             @Override
             public void mousePressed(MouseEvent e) {
-                startX = e.getX();
-                startY = e.getY();
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    // Pan with the other buttons, which viewers can do too
+                    panStart = e.getPoint();
+                    return;
+                }
+                if (readOnly) {
+                    return;
+                }
+                Point point = toCanvas(e);
+                startX = point.x;
+                startY = point.y;
 
                 // Create a new shape based on the current tool
                 switch (currentTool) {
                     case "Eraser" -> {
-                        Eraser eraser = new Eraser(startX, startY, eraserSize, Color.WHITE);
-                        shapes.add(eraser);
-                        repaint();
-                        client.sendShape(eraser);
+                        drawShape(new Eraser(startX, startY, eraserSize, Color.WHITE), e.getWhen());
+                    }
+                    case "Object Eraser" -> {
+                        eraseObjects(startX, startY, startX, startY);
                     }
                     case "Text" -> {
                         text = new Text(startX, startY, textToDraw, currentColor);
-                        shapes.add(text);
-                        repaint();
-                        client.sendShape(text);
+                        drawShape(text, e.getWhen());
                         text = null;
                     }
                     case "Free Draw" -> {
                         freeDraw = new FreeDraw(currentColor);
                         freeDraw.addPoint(startX, startY);
-                        shapes.add(freeDraw);
+                        shapes.add(shapes.stamp(freeDraw, replicaId));
+                        index.update(freeDraw);
                     }
                 }
             }
@@ -79,43 +162,181 @@ public class DrawingCanvas extends JPanel {
              */
             @Override
             public void mouseReleased(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    panStart = null;
+                    return;
+                }
+                // Sent even if the user was made a viewer during the drag, since they are already gone here
+                sendErased();
+                if (readOnly) {
+                    return;
+                }
+                Point point = toCanvas(e);
+                if (preview != null) {
+                    preview = null;
+                    presence.clearPreview();
+                }
                 if (currentTool.equals("Free Draw") && freeDraw != null) {
                     // Finish the free draw shape
-                    freeDraw.addPoint(e.getX(), e.getY());
+                    freeDraw.addPoint(point.x, point.y);
                     repaint();
-                    client.sendShape(freeDraw);
+                    client.sendShape(freeDraw, e.getWhen());
+                    index.update(freeDraw);
                     freeDraw = null;
-                } else if (!currentTool.equals("Eraser") && !currentTool.equals("Text")) {
+                } else if (!currentTool.equals("Eraser") && !currentTool.equals("Object Eraser")
+                        && !currentTool.equals("Text")) {
                     // Create a shape based on the current tool and add it to the list of shapes
-                    Shape shape = createShape(startX, startY, e.getX(), e.getY());
+                    Shape shape = createShape(startX, startY, point.x, point.y);
                     if (shape != null) {
-                        shapes.add(shape);
-                        repaint();
-                        client.sendShape(shape);
+                        drawShape(shape, e.getWhen());
                     }
                 }
             }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                presence.hideCursor();
+            }
         });
 
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (currentTool.equals("Free Draw") && freeDraw != null) {
+                if (panStart != null) {
+                    // Move the view with the mouse
+                    AffineTransform pan = AffineTransform.getTranslateInstance(e.getX() - panStart.x, e.getY() - panStart.y);
+                    view.preConcatenate(pan);
+                    panStart = e.getPoint();
+                    viewChanged();
+                    return;
+                }
+                if (readOnly) {
+                    return;
+                }
+                Point point = toCanvas(e);
+                presence.moveCursor(point.x, point.y);
+                Shape dragged = createShape(startX, startY, point.x, point.y);
+                if (dragged != null) {
+                    // Show the shape being dragged out, here and to the other users
+                    preview = dragged;
+                    presence.setPreview(currentTool, startX, startY, point.x, point.y, currentColor);
+                    repaint();
+                } else if (currentTool.equals("Free Draw") && freeDraw != null) {
                     // Continue adding points to the free draw shape
-                    freeDraw.addPoint(e.getX(), e.getY());
+                    freeDraw.addPoint(point.x, point.y);
                     repaint();
-                    client.sendShape(freeDraw);
+                    client.sendShape(freeDraw, e.getWhen());
                 } else if (currentTool.equals("Eraser")) {
                     // Create an eraser shape and add it to the list of shapes
-                    Eraser eraser = new Eraser(e.getX(), e.getY(), eraserSize, Color.WHITE);
-                    shapes.add(eraser);
-                    repaint();
-                    client.sendShape(eraser);
+                    drawShape(new Eraser(point.x, point.y, eraserSize, Color.WHITE), e.getWhen());
+                } else if (currentTool.equals("Object Eraser")) {
+                    // Remove the shapes the eraser passed over since the last event
+                    eraseObjects(lastEraseX, lastEraseY, point.x, point.y);
                 }
             }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                if (!readOnly) {
+                    Point point = toCanvas(e);
+                    presence.moveCursor(point.x, point.y);
+                }
+            }
+        });
+
+        // Zoom around the mouse pointer
+        addMouseWheelListener(e -> {
+            double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+            double scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, view.getScaleX() * factor));
+            factor = scale / view.getScaleX();
+            AffineTransform zoom = AffineTransform.getTranslateInstance(e.getX(), e.getY());
+            zoom.scale(factor, factor);
+            zoom.translate(-e.getX(), -e.getY());
+            view.preConcatenate(zoom);
+            viewChanged();
         });
     }
 
+    /**
+     * Converts the position of a mouse event to canvas coordinates.
+     *
+     * @param e the mouse event
+     * @return the position on the canvas
+     */
+    private Point toCanvas(MouseEvent e) {
+        return new Point((int) Math.round((e.getX() - view.getTranslateX()) / view.getScaleX()),
+                (int) Math.round((e.getY() - view.getTranslateY()) / view.getScaleY()));
+    }
+
+    /**
+     * Returns the area of the canvas that is visible.
+     *
+     * @return the visible area, in canvas coordinates
+     */
+    private Viewport getVisibleArea() {
+        return new Viewport(-view.getTranslateX() / view.getScaleX(), -view.getTranslateY() / view.getScaleY(),
+                getWidth() / view.getScaleX(), getHeight() / view.getScaleY());
+    }
+
+    private void viewChanged() {
+        repaint();
+        reportViewport();
+    }
+
+    /**
+     * Tells the server where the canvas is looking once the visible area nears the edge of
+     * the shapes streamed so far, and forgets the shapes that are now far away.
+     */
+    private void reportViewport() {
+        if (reportedViewport == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        Viewport visible = getVisibleArea();
+        if (reportedViewport.prefetched().contains(visible.bounds())) {
+            return;
+        }
+        reportedViewport = visible;
+        Rectangle2D retention = visible.retention();
+        shapes.forget(shape -> shape != freeDraw && !shape.getBounds().intersects(retention));
+        index.retainAll(dot -> shapes.get(dot) != null);
+        client.sendCommand(visible);
+    }
+
+    /**
+     * Returns the viewport last reported to the server.
+     *
+     * @return the viewport, or null if the canvas receives the whole board
+     */
+    public Viewport getViewport() {
+        return reportedViewport;
+    }
+
+    /**
+     * Gives a shape drawn on this canvas its dot, adds it to the canvas and sends it to the server.
+     *
+     * @param shape the new shape
+     * @param inputMillis the time of the mouse event that drew it
+     */
+    private void drawShape(Shape shape, long inputMillis) {
+        shapes.add(shapes.stamp(shape, replicaId));
+        index.update(shape);
+        repaint();
+        client.sendShape(shape, inputMillis);
+    }
+
+    /**
+     * Sends the shapes drawn on this canvas to the server again after reconnecting, since
+     * the last ones sent before the connection dropped may never have arrived. The server
+     * ignores the ones it already has.
+     */
+    public void resendOwnShapes() {
+        for (Shape shape : shapes.values()) {
+            if (replicaId.equals(shape.getDot().replica())) {
+                client.sendShape(shape);
+            }
+        }
+    }
+
     /**
      * Creates a shape based on the current tool and the given coordinates.
      *
@@ -126,16 +347,31 @@ public class DrawingCanvas extends JPanel {
      * @return the created shape
      */
     private Shape createShape(int x1, int y1, int x2, int y2) {
-        switch (currentTool) {
+        return createShape(currentTool, x1, y1, x2, y2, currentColor);
+    }
+
+    /**
+     * Creates the shape a tool draws when dragged between two points.
+     *
+     * @param tool the tool
+     * @param x1 the x-coordinate of the starting point
+     * @param y1 the y-coordinate of the starting point
+     * @param x2 the x-coordinate of the ending point
+     * @param y2 the y-coordinate of the ending point
+     * @param color the colour of the shape
+     * @return the created shape, or null if the tool does not draw by dragging
+     */
+    static Shape createShape(String tool, int x1, int y1, int x2, int y2, Color color) {
+        switch (tool) {
             case "Line":
-                return new Line(x1, y1, x2, y2, currentColor);
+                return new Line(x1, y1, x2, y2, color);
             case "Rectangle":
-                return new Rectangle(x1, y1, x2 - x1, y2 - y1, currentColor);
+                return new Rectangle(x1, y1, x2 - x1, y2 - y1, color);
             case "Oval":
-                return new Oval(x1, y1, x2 - x1, y2 - y1, currentColor);
+                return new Oval(x1, y1, x2 - x1, y2 - y1, color);
             case "Circle":
                 int diameter = (int) Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
-                return new Circle(x1, y1, diameter, currentColor);
+                return new Circle(x1, y1, diameter, color);
             default:
                 return null;
         }
@@ -157,28 +393,365 @@ public class DrawingCanvas extends JPanel {
         this.textToDraw = text;
     }
 
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public RenderProfiler getProfiler() {
+        return profiler;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
-        for (Shape shape : shapes) {
-            shape.draw(g);
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.transform(view);
+        Rectangle2D visible = getVisibleArea().bounds();
+        lastVisible = visible;
+        if (raster != null) {
+            raster.forEach((position, tile) -> {
+                if (visible.intersects(position.x, position.y, rasterTileSize, rasterTileSize)) {
+                    g2.drawImage(tile, position.x, position.y, null);
+                }
+            });
+        }
+        Shape.applyRenderingHints(g2);
+        int drawn = 0;
+        for (Shape shape : shapes.values()) {
+            if (shape.getBounds().intersects(visible)) {
+                shape.draw(g2);
+                drawn++;
+            }
+        }
+        List<PresencePacket> others = presence == null ? List.of() : presence.getRemote();
+        drawPreviews(g2, others);
+        g2.dispose();
+        drawCursors(g, others);
+        if (!loads.isEmpty()) {
+            drawLoadProgress(g);
+        }
+        int total = shapes.size();
+        profiler.frame(start, drawn, total - drawn);
+        if (profiler.isOverlayShown()) {
+            Graphics2D overlay = (Graphics2D) g.create();
+            profiler.drawOverlay(overlay, total);
+            overlay.dispose();
+        }
+        if (!awaitingPaint.isEmpty()) {
+            long painted = LatencyTracer.nowMicros();
+            for (AwaitingPaint traced : awaitingPaint) {
+                client.getTracer().complete(traced.trace(), traced.received(), traced.applied(), painted);
+            }
+            awaitingPaint.clear();
+        }
+    }
+
+    /**
+     * Applies an update received from the server and repaints the canvas if it changed.
+     *
+     * @param update a shape, clear, diff or snapshot of the board
+     */
+    public void applyUpdate(Object update) {
+        if (raster != null && (update instanceof ClearCommand
+                || update instanceof BoardDiffCommand diff && !diff.removedDots().isEmpty())) {
+            // The raster may show removed shapes, and the shapes that remain are on their way
+            discardRaster();
+        }
+        if (shapes.apply(update)) {
+            updateIndex(update);
+            repaint();
         }
     }
 
-    public void addShape(Shape shape) {
-        shapes.add(shape);
+    /**
+     * Applies a traced shape received from the server, and finishes its trace once the canvas
+     * has painted it.
+     *
+     * @param update the shape
+     * @param trace the trace stamped by the sender and the server
+     * @param received when the client read the shape
+     */
+    public void applyUpdate(Object update, OpTrace trace, long received) {
+        long applied = LatencyTracer.nowMicros();
+        if (shapes.apply(update)) {
+            updateIndex(update);
+            awaitingPaint.add(new AwaitingPaint(trace, received, applied));
+            repaint();
+        }
+    }
+
+    /**
+     * Checks whether an update adds so many shapes that it is added a slice at a time.
+     *
+     * @param update an update from the server
+     * @return true for a large snapshot or diff
+     */
+    static boolean isBulk(Object update) {
+        return update instanceof BoardSnapshot snapshot && snapshot.shapes().size() > BULK_THRESHOLD
+                || update instanceof BoardDiffCommand diff && diff.addedShapes().size() > BULK_THRESHOLD;
+    }
+
+    /**
+     * Applies a large update without holding the Swing thread until it is all in. What it
+     * removes is applied first, then its shapes are prepared on worker threads and added in
+     * slices, with the canvas painted in between so it stays responsive and shows the board
+     * filling in. Shapes, removals and clears can be applied in any order, so updates that
+     * arrive meanwhile are applied as usual. Called on any thread.
+     *
+     * @param update a snapshot or diff for which isBulk is true
+     */
+    public void applyInSlices(Object update) {
+        ArrayList<Shape> added;
+        Object removals;
+        if (update instanceof BoardSnapshot snapshot) {
+            added = snapshot.shapes();
+            removals = new BoardSnapshot(new ArrayList<>(), snapshot.tombstones(), snapshot.cleared(),
+                    snapshot.observed());
+        } else {
+            BoardDiffCommand diff = (BoardDiffCommand) update;
+            added = diff.addedShapes();
+            removals = new BoardDiffCommand(diff.removedDots(), new ArrayList<>());
+        }
+        // Queued ahead of anything read after the update, such as the end of the detail behind a raster
+        SwingUtilities.invokeLater(() -> {
+            applyUpdate(removals);
+            loadsPreparing++;
+        });
+        BulkLoad.prepare(added, lastVisible).whenComplete((load, error) -> SwingUtilities.invokeLater(() -> {
+            loadsPreparing--;
+            if (error != null) {
+                System.err.println("Error preparing board update: " + error.getMessage());
+                loadFinished();
+                return;
+            }
+            loads.add(load);
+            addSlice(load);
+        }));
+    }
+
+    /**
+     * Adds shapes of a load for as long as a slice allows, then lets the Swing thread handle
+     * input and painting before the next slice.
+     *
+     * @param load the load
+     */
+    private void addSlice(BulkLoad load) {
+        long start = System.nanoTime();
+        while (load.hasNext() && System.nanoTime() - start < SLICE_NANOS) {
+            Shape shape = load.next();
+            if (shapes.add(shape)) {
+                index.update(shape);
+            }
+        }
+        if (load.hasNext()) {
+            // Painting a large board takes long too, so only show the progress now and then
+            if (start - lastLoadRepaint > LOAD_REPAINT_NANOS) {
+                lastLoadRepaint = start;
+                repaint();
+            }
+            SwingUtilities.invokeLater(() -> addSlice(load));
+            return;
+        }
+        loads.remove(load);
+        loadFinished();
+    }
+
+    /**
+     * Drops the raster if it was only kept for the loads, once the last of them is in.
+     */
+    private void loadFinished() {
+        if (loadsPreparing == 0 && loads.isEmpty() && dropRasterAfterLoads) {
+            discardRaster();
+        }
         repaint();
     }
 
     /**
-     * Clears the canvas by removing all shapes and repainting it.
+     * Draws the shapes being dragged out, here and by other users, which are not on the board yet.
+     *
+     * @param g2 the graphics of the canvas, in canvas coordinates
+     * @param others the presence of the other users
+     */
+    private void drawPreviews(Graphics2D g2, List<PresencePacket> others) {
+        if (preview != null) {
+            preview.draw(g2);
+        }
+        for (PresencePacket other : others) {
+            Shape shape = other.hasPreview() ? createShape(other.tool(), other.x1(), other.y1(), other.x2(),
+                    other.y2(), new Color(other.rgb() & 0xffffff | 0x80000000, true)) : null;
+            if (shape != null) {
+                shape.draw(g2);
+            }
+        }
+    }
+
+    /**
+     * Draws the cursors of the other users with their names, the same size at any zoom.
+     *
+     * @param g the graphics of the canvas, in screen coordinates
+     * @param others the presence of the other users
+     */
+    private void drawCursors(Graphics g, List<PresencePacket> others) {
+        for (PresencePacket other : others) {
+            if (!other.hasCursor()) {
+                continue;
+            }
+            Point2D at = view.transform(new Point2D.Double(other.cursorX(), other.cursorY()), null);
+            int x = (int) Math.round(at.getX()), y = (int) Math.round(at.getY());
+            g.setColor(Color.getHSBColor((other.username().hashCode() & 0xff) / 255f, 0.7f, 0.8f));
+            g.fillPolygon(new int[]{x, x, x + 4, x + 10}, new int[]{y, y + 14, y + 10, y + 10}, 4);
+            g.drawString(other.username(), x + 10, y + 22);
+        }
+    }
+
+    /**
+     * Draws how far the large updates being added have got, along the bottom of the canvas.
+     *
+     * @param g the graphics of the canvas, in screen coordinates
+     */
+    private void drawLoadProgress(Graphics g) {
+        long total = 0, loaded = 0;
+        for (BulkLoad load : loads) {
+            total += load.getTotal();
+            loaded += load.getLoaded();
+        }
+        int width = Math.min(300, getWidth() - 20);
+        int x = 10, y = getHeight() - 30;
+        g.setColor(new Color(0, 0, 0, 150));
+        g.fillRect(x, y, width, 20);
+        g.setColor(new Color(70, 130, 230));
+        g.fillRect(x, y, (int) (width * loaded / Math.max(1, total)), 20);
+        g.setColor(Color.WHITE);
+        g.drawString(String.format("Loading board: %,d of %,d shapes", loaded, total), x + 6, y + 15);
+    }
+
+    /**
+     * Brings the index up to date with an update applied to the shapes.
+     *
+     * @param update the update
+     */
+    private void updateIndex(Object update) {
+        if (update instanceof Shape shape) {
+            // The set keeps the newest version, which may not be the one received
+            Shape current = shapes.get(shape.getDot());
+            if (current != null) {
+                index.update(current);
+            }
+        } else if (update instanceof BoardDiffCommand diff) {
+            diff.removedDots().forEach(index::remove);
+            diff.addedShapes().forEach(this::updateIndex);
+        } else {
+            // Clears and whole boards can change any shape
+            index.retainAll(dot -> shapes.get(dot) != null);
+            shapes.values().forEach(index::update);
+        }
+    }
+
+    /**
+     * Removes the shapes the object eraser touches as it moves from one point to another. The
+     * server is told about them when the drag ends, so a drag is a single operation on the
+     * board however many shapes it passes over. The eraser is checked at steps of half its size
+     * along the way, so a fast drag does not skip over thin shapes.
+     *
+     * @param fromX the x-coordinate the eraser moved from
+     * @param fromY the y-coordinate the eraser moved from
+     * @param toX the x-coordinate the eraser moved to
+     * @param toY the y-coordinate the eraser moved to
+     */
+    private void eraseObjects(int fromX, int fromY, int toX, int toY) {
+        lastEraseX = toX;
+        lastEraseY = toY;
+        int steps = Math.max(1, (int) Math.ceil(Math.hypot(toX - fromX, toY - fromY) / Math.max(1, eraserSize / 2.0)));
+        LinkedHashSet<Dot> hit = new LinkedHashSet<>();
+        for (int i = 0; i <= steps; i++) {
+            double x = fromX + (toX - fromX) * (double) i / steps;
+            double y = fromY + (toY - fromY) * (double) i / steps;
+            Rectangle2D area = new Rectangle2D.Double(x - eraserSize / 2.0, y - eraserSize / 2.0, eraserSize, eraserSize);
+            for (Dot dot : index.query(area)) {
+                Shape shape = shapes.get(dot);
+                if (shape != null && shape.isHitBy(area)) {
+                    hit.add(dot);
+                }
+            }
+        }
+        if (hit.isEmpty()) {
+            return;
+        }
+        ArrayList<Dot> removed = new ArrayList<>(hit);
+        applyUpdate(new BoardDiffCommand(removed, new ArrayList<>()));
+        erased.addAll(removed);
+    }
+
+    /**
+     * Tells the server to remove the shapes the object eraser removed during the drag that
+     * just ended, if any.
+     */
+    private void sendErased() {
+        if (!erased.isEmpty()) {
+            client.sendCommand(new RemoveShapesCommand(new ArrayList<>(erased)));
+            erased.clear();
+        }
+    }
+
+    /**
+     * Decodes the tiles of a raster of the board and shows them under the shapes. The tiles
+     * are decoded on the calling thread, which should not be the Swing thread.
+     *
+     * @param snapshot the raster sent on join
+     */
+    public void showRaster(RasterSnapshot snapshot) {
+        HashMap<Point, BufferedImage> decoded = new HashMap<>();
+        for (RasterTile tile : snapshot.tiles()) {
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(tile.png()));
+                if (image != null) {
+                    decoded.put(new Point(tile.column() * snapshot.tileSize(), tile.row() * snapshot.tileSize()), image);
+                }
+            } catch (IOException e) {
+                System.err.println("Error decoding board tile: " + e.getMessage());
+            }
+        }
+        SwingUtilities.invokeLater(() -> {
+            raster = decoded;
+            rasterTileSize = snapshot.tileSize();
+            repaint();
+        });
+    }
+
+    /**
+     * Stops showing the raster, once the shapes it stood in for have arrived. While large
+     * updates are still being added, the raster stays until they are in.
+     */
+    public void dropRaster() {
+        if (loadsPreparing > 0 || !loads.isEmpty()) {
+            dropRasterAfterLoads = true;
+            return;
+        }
+        discardRaster();
+    }
+
+    /**
+     * Stops showing the raster at once.
+     */
+    private void discardRaster() {
+        dropRasterAfterLoads = false;
+        if (raster != null) {
+            raster = null;
+            repaint();
+        }
+    }
+
+    /**
+     * Clears the canvas by removing all shapes seen so far and repainting it, and tells the
+     * server to clear the board. The server sends back which shapes it cleared, since that
+     * includes shapes outside the viewport.
      */
     public void clearCanvas() {
-        shapes.clear();
-        repaint();
+        applyUpdate(new ClearCommand(shapes.observedClock()));
 
         try {
-            client.sendClearCommand();
+            client.sendClearCommand(new ClearCommand());
         } catch (IOException e) {
             System.err.println("Failed to send clear command: " + e.getMessage());
         }
@@ -191,14 +764,15 @@ public class DrawingCanvas extends JPanel {
      */
     public void saveShapesToFile(File file) {
         try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
-            out.writeObject(shapes);
+            out.writeObject(shapes.shapes());
         } catch (IOException ex) {
             ex.printStackTrace();
         }
     }
 
     /**
-     * Loads shapes from a file and repaints the canvas with the new shapes.
+     * Loads shapes from a file and asks the server to open them. The server sends the
+     * changes back to every client, this one included.
      *
      * @param file the file to load the shapes from
      */
@@ -206,9 +780,6 @@ public class DrawingCanvas extends JPanel {
     public void loadShapesFromFile(File file) {
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
             ArrayList<Shape> newShapes = (ArrayList<Shape>) in.readObject();
-            shapes.clear();
-            shapes.addAll(newShapes);
-            repaint();
             client.sendNewShapesList(newShapes);
         } catch (IOException | ClassNotFoundException e) {
             JOptionPane.showMessageDialog(this, "Error loading shapes: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
@@ -216,3 +787,10 @@ public class DrawingCanvas extends JPanel {
     }
 
 }
+
+/**
+ * A traced shape that has been applied to the canvas but not painted yet, with the times the
+ * client read and applied it.
+ */
+record AwaitingPaint(OpTrace trace, long received, long applied) {
+}
@@ -0,0 +1,43 @@
+/**
+ * HeadlessServer.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * HeadlessServer is the main class that starts a server on its own, with no window, so it can
+ * run on a server machine with its own heap and garbage collector settings. Join requests are
+ * decided by a policy: everyone joins, only the users on an allowlist, or a manager decides
+ * from a ManageWhiteBoard client that logs in with the key of the server.
+ */
+
+import java.io.IOException;
+import java.util.UUID;
+
+public class HeadlessServer {
+    public static void main(String[] args) {
+        // Never start the window system, the boards are only drawn into images
+        System.setProperty("java.awt.headless", "true");
+
+        // Check if the correct number of arguments are provided
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("Usage: java HeadlessServer <serverPort> [auto | allow:<user>,... | allowfile:<path> | manager]");
+            System.exit(1);
+        }
+
+        int serverPort = Integer.parseInt(args[0]);
+        String policySpec = args.length == 2 ? args[1] : "auto";
+
+        try {
+            WhiteboardServer server = new WhiteboardServer(serverPort);
+            String managerKey = System.getProperty("whiteboard.manager.key");
+            if (policySpec.equals("manager") && managerKey == null) {
+                managerKey = UUID.randomUUID().toString();
+                System.out.println("Manager key: " + managerKey);
+            }
+            server.setJoinPolicy(JoinPolicy.parse(policySpec, server.getJoinApprovals(), managerKey), null);
+            System.out.println("Headless server started with join policy " + policySpec + ".");
+            server.listenForClients();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error starting headless server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * JoinApprovalQueue.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class holds the join requests waiting for the manager. Asking never waits for the
+ * answer: each request carries what to do once the manager decides, which may be long after
+ * and for many requests at once, so the connections asking keep being served meanwhile.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class JoinApprovalQueue {
+    private final LinkedHashMap<Long, PendingJoin> pending = new LinkedHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile Runnable listener = () -> {
+    };
+
+    /**
+     * Queues a join request for the manager to decide.
+     *
+     * @param username the user asking to join
+     * @param boardName the board they want to join
+     * @param decision called with true or false once the manager decides
+     * @return the queued request
+     */
+    public PendingJoin submit(String username, String boardName, Consumer<Boolean> decision) {
+        PendingJoin request = new PendingJoin(nextId.incrementAndGet(), username, boardName,
+                System.currentTimeMillis(), decision);
+        synchronized (this) {
+            pending.put(request.id(), request);
+        }
+        listener.run();
+        return request;
+    }
+
+    /**
+     * Approves or denies requests. Requests that were already decided or cancelled are skipped.
+     *
+     * @param requests the requests
+     * @param approved true to let them join, false to turn them away
+     */
+    public void decide(Collection<PendingJoin> requests, boolean approved) {
+        List<PendingJoin> decided = new ArrayList<>();
+        synchronized (this) {
+            for (PendingJoin request : requests) {
+                if (pending.remove(request.id()) != null) {
+                    decided.add(request);
+                }
+            }
+        }
+        // Answer outside the lock, the answers are sent over the network
+        for (PendingJoin request : decided) {
+            request.decision().accept(approved);
+        }
+        if (!decided.isEmpty()) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Drops a request without answering it, such as when the user disconnects while waiting.
+     *
+     * @param request the request, or null
+     */
+    public void cancel(PendingJoin request) {
+        boolean removed;
+        synchronized (this) {
+            removed = request != null && pending.remove(request.id()) != null;
+        }
+        if (removed) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns how many requests are ahead of a request in the queue.
+     *
+     * @param request the request
+     * @return the number of earlier requests, or -1 if the request is no longer waiting
+     */
+    public synchronized int position(PendingJoin request) {
+        int position = 0;
+        for (long id : pending.keySet()) {
+            if (id == request.id()) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the requests waiting for a decision, oldest first.
+     *
+     * @return the requests
+     */
+    public synchronized List<PendingJoin> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Replaces the requests waiting with the given ones, such as a copy of the queue of a
+     * remote server kept by the manager deciding them.
+     *
+     * @param requests the requests now waiting, oldest first
+     */
+    public void replace(Collection<PendingJoin> requests) {
+        synchronized (this) {
+            pending.clear();
+            for (PendingJoin request : requests) {
+                pending.put(request.id(), request);
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Sets what to run whenever requests are queued, decided or cancelled. It is called on
+     * the thread that changed the queue, never while the queue is locked.
+     *
+     * @param listener the listener
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+}
+
+/**
+ * A join request waiting for the manager.
+ */
+record PendingJoin(long id, String username, String boardName, long requestedAt, Consumer<Boolean> decision) {
+    @Override
+    public String toString() {
+        return WhiteboardServer.DEFAULT_BOARD.equals(boardName) ? username : username + " (" + boardName + ")";
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * JoinPolicy.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This interface decides whether a user may join a board. A server started together with the
+ * manager's window leaves it to the manager; a headless server can approve everyone, only the
+ * users on an allowlist, or leave it to a manager who connects from elsewhere.
+ */
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public interface JoinPolicy {
+    /**
+     * Decides a join request, at once or later, without waiting for the decision.
+     *
+     * @param username the user asking to join
+     * @param boardName the board they want to join
+     * @param decision called with the decision, on the thread that makes it
+     * @return the queued request, or null if it was decided at once
+     */
+    PendingJoin requestJoin(String username, String boardName, Consumer<Boolean> decision);
+
+    /**
+     * Checks whether clients are let onto their board as soon as they connect, without
+     * asking to join.
+     *
+     * @return true if everyone joins
+     */
+    default boolean admitsEveryone() {
+        return false;
+    }
+
+    /**
+     * Creates a policy from its description on the command line: "auto", "allow:alice,bob",
+     * "allowfile:users.txt" with one user per line, or "manager".
+     *
+     * @param spec the description
+     * @param approvals the queue the manager decides requests from
+     * @param managerKey the key a remote manager logs in with
+     * @return the policy
+     * @throws IOException if the allowlist file cannot be read
+     */
+    static JoinPolicy parse(String spec, JoinApprovalQueue approvals, String managerKey) throws IOException {
+        if (spec.equals("auto")) {
+            return new AutoApprovePolicy();
+        } else if (spec.startsWith("allow:")) {
+            return new AllowlistPolicy(new HashSet<>(Arrays.asList(spec.substring("allow:".length()).split(","))));
+        } else if (spec.startsWith("allowfile:")) {
+            Set<String> users = new HashSet<>();
+            for (String line : Files.readAllLines(Path.of(spec.substring("allowfile:".length())))) {
+                if (!line.isBlank()) {
+                    users.add(line.strip());
+                }
+            }
+            return new AllowlistPolicy(users);
+        } else if (spec.equals("manager")) {
+            return new ManagerPolicy(approvals, managerKey, true);
+        }
+        throw new IllegalArgumentException("Unknown join policy: " + spec);
+    }
+}
+
+/**
+ * Lets everyone join, as cluster nodes and relays do.
+ */
+class AutoApprovePolicy implements JoinPolicy {
+    @Override
+    public PendingJoin requestJoin(String username, String boardName, Consumer<Boolean> decision) {
+        decision.accept(true);
+        return null;
+    }
+
+    @Override
+    public boolean admitsEveryone() {
+        return true;
+    }
+}
+
+/**
+ * Lets the users on a list join and turns everyone else away.
+ */
+class AllowlistPolicy implements JoinPolicy {
+    private final Set<String> users;
+
+    /**
+     * Constructor for AllowlistPolicy.
+     *
+     * @param users the users who may join
+     */
+    AllowlistPolicy(Set<String> users) {
+        this.users = Set.copyOf(users);
+    }
+
+    @Override
+    public PendingJoin requestJoin(String username, String boardName, Consumer<Boolean> decision) {
+        decision.accept(users.contains(username));
+        return null;
+    }
+}
+
+/**
+ * Queues the requests for a manager: the manager's window in the same process, or a manager
+ * client that logs in over the network with the key of the server. Either way the manager's
+ * client logs in with the key, which makes it the only client that may kick users or shut
+ * the server down. Requests wait in the queue while no manager is there.
+ */
+class ManagerPolicy implements JoinPolicy {
+    private final JoinApprovalQueue approvals;
+    private final byte[] key;
+    // Whether the requests are sent to the manager's client, rather than shown by a window in this process
+    private final boolean remote;
+    private volatile ClientHandler manager;
+
+    /**
+     * Constructor for ManagerPolicy.
+     *
+     * @param approvals the queue of join requests
+     * @param key the key the manager's client logs in with, or null if no client can
+     * @param remote whether the manager decides from its client rather than from this process
+     */
+    ManagerPolicy(JoinApprovalQueue approvals, String key, boolean remote) {
+        this.approvals = approvals;
+        this.key = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        this.remote = remote;
+    }
+
+    @Override
+    public PendingJoin requestJoin(String username, String boardName, Consumer<Boolean> decision) {
+        return approvals.submit(username, boardName, decision);
+    }
+
+    /**
+     * Makes a client the manager if it presents the key, and sends a remote manager the
+     * requests waiting. A manager logging in replaces the one before.
+     *
+     * @param client the client
+     * @param login the key the client presented
+     * @return true if the client is now the manager
+     */
+    boolean login(ClientHandler client, ManagerLogin login) {
+        if (key == null || login.key() == null
+                || !MessageDigest.isEqual(key, login.key().getBytes(StandardCharsets.UTF_8))) {
+            return false;
+        }
+        manager = client;
+        if (remote) {
+            approvals.setListener(this::publish);
+            publish();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a client is the logged in manager.
+     *
+     * @param client the client
+     * @return true if it is the manager
+     */
+    boolean isManager(ClientHandler client) {
+        return client != null && manager == client;
+    }
+
+    /**
+     * Stops sending requests to a manager that disconnected. Requests keep waiting for the next one.
+     *
+     * @param client the client that disconnected
+     */
+    void logout(ClientHandler client) {
+        if (manager == client) {
+            manager = null;
+        }
+    }
+
+    /**
+     * Applies the decision of the manager's client. Decisions from anyone else are ignored.
+     *
+     * @param client the client that sent the decision
+     * @param decision the decision
+     */
+    void decide(ClientHandler client, JoinDecision decision) {
+        if (!isManager(client)) {
+            return;
+        }
+        List<PendingJoin> decided = new ArrayList<>();
+        for (PendingJoin request : approvals.getPending()) {
+            if (decision.ids().contains(request.id())) {
+                decided.add(request);
+            }
+        }
+        approvals.decide(decided, decision.approved());
+    }
+
+    /**
+     * Sends the requests now waiting to the remote manager.
+     */
+    private void publish() {
+        ClientHandler manager = this.manager;
+        if (!remote || manager == null) {
+            return;
+        }
+        ArrayList<JoinRequestInfo> requests = new ArrayList<>();
+        for (PendingJoin request : approvals.getPending()) {
+            requests.add(new JoinRequestInfo(request.id(), request.username(), request.boardName(),
+                    request.requestedAt()));
+        }
+        manager.sendObject(new JoinRequestList(requests));
+    }
+}
+
+/**
+ * Sent by a manager client after connecting, to decide join requests and manage the board.
+ */
+record ManagerLogin(String key) implements Serializable {
+}
+
+/**
+ * A join request waiting for the manager, as sent to a remote manager.
+ */
+record JoinRequestInfo(long id, String username, String boardName, long requestedAt) implements Serializable {
+}
+
+/**
+ * The join requests waiting for the manager, sent to a remote manager whenever they change.
+ */
+record JoinRequestList(ArrayList<JoinRequestInfo> requests) implements Serializable {
+}
+
+/**
+ * The decision of a remote manager on some of the requests waiting.
+ */
+record JoinDecision(HashSet<Long> ids, boolean approved) implements Serializable {
+}
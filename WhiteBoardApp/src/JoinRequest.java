@@ -20,4 +20,39 @@ public class JoinRequest implements Serializable {
 }
 
 record JoinResponse(boolean approved) implements Serializable {
-}
\ No newline at end of file
+}
+
+/**
+ * Sent while a join request waits for the manager, with the number of requests ahead of it.
+ * The JoinResponse follows once the manager decides.
+ */
+record JoinPending(int position) implements Serializable {
+}
+
+/**
+ * The first message a client sends after connecting, naming the board it wants to join.
+ * A client reconnecting after a failure also sends the sequence number of the last update
+ * it applied, so it only receives what it missed, and the session token it was given, so it
+ * takes the place of its old connection. A client with a viewport only receives the shapes
+ * near it; without one it receives the whole board.
+ */
+record Hello(String username, String boardName, long lastSeq, Viewport viewport, String sessionToken)
+        implements Serializable {
+    Hello(String username, String boardName, long lastSeq, Viewport viewport) {
+        this(username, boardName, lastSeq, viewport, null);
+    }
+
+    Hello(String username, String boardName, long lastSeq) {
+        this(username, boardName, lastSeq, null);
+    }
+
+    Hello(String username, String boardName) {
+        this(username, boardName, 0);
+    }
+}
+
+/**
+ * Sent to a client when it joins a board, for it to present when it reconnects.
+ */
+record SessionToken(String token) implements Serializable {
+}
@@ -10,18 +10,19 @@ import javax.swing.*;
 public class JoinWhiteBoard {
     public static void main(String[] args) {
         // Check if the number of arguments is correct
-        if (args.length != 3) {
-            System.out.println("Usage: java JoinWhiteBoard <serverAddress> <serverPort> <username>");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java JoinWhiteBoard <serverAddress> <serverPort> <username> [boardName]");
             System.exit(1);
         }
 
         String serverAddress = args[0];
         int serverPort = Integer.parseInt(args[1]);
         String username = args[2];
+        String boardName = args.length == 4 ? args[3] : WhiteboardServer.DEFAULT_BOARD;
 
         // Create a new client and make it visible
         SwingUtilities.invokeLater(() -> {
-            WhiteboardClient client = new WhiteboardClient(serverAddress, serverPort, username);
+            WhiteboardClient client = new WhiteboardClient(serverAddress, serverPort, username, boardName);
             client.sendJoinRequest(username);
             client.setVisible(true);
         });
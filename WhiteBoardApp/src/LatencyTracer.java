@@ -0,0 +1,236 @@
+/**
+ * LatencyTracer.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class follows a sample of the shapes drawn on a board from the mouse event that drew
+ * them to the moment another client has painted them. The sender, the server and the receiver
+ * each stamp the times they handled a traced shape, and the receiver breaks the total down
+ * into where the time went. Clients stamp in the clock of the server, which each estimates
+ * from round trips, so the stamps of two clients can be compared. Each breakdown is logged to
+ * a CSV file for offline analysis, set with -Dwhiteboard.trace.log.
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LatencyTracer {
+    // One shape in this many is traced, or none if 0
+    private static final int SAMPLE_EVERY = Integer.getInteger("whiteboard.trace.sample", 10);
+    // The offset is taken from the quickest of this many recent round trips
+    private static final int CLOCK_SAMPLES = 8;
+    private static final String[] SEGMENTS = {"client send", "network", "server queue", "fan-out",
+            "receiver queue", "paint", "total"};
+    private static final long EPOCH_MICROS = System.currentTimeMillis() * 1000;
+    private static final long EPOCH_NANOS = System.nanoTime();
+    private final String username;
+    private final Map<String, LatencyHistogram> segments = new LinkedHashMap<>();
+    private final ArrayDeque<long[]> clockSamples = new ArrayDeque<>();
+    private final AtomicLong drawn = new AtomicLong();
+    private final ExecutorService logExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trace-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private BufferedWriter log;
+    // The clock of the server minus the clock of this process, and the round trip it was taken from
+    private volatile long offset;
+    private volatile long offsetRoundTrip = -1;
+
+    /**
+     * Constructor for LatencyTracer.
+     *
+     * @param username the user whose client traces shapes
+     */
+    public LatencyTracer(String username) {
+        this.username = username;
+        for (String segment : SEGMENTS) {
+            segments.put(segment, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Returns the time, in microseconds since the epoch. It is read from the monotonic clock,
+     * so it is steady and finer than the wall clock, which it starts from.
+     *
+     * @return the time in microseconds
+     */
+    public static long nowMicros() {
+        return EPOCH_MICROS + (System.nanoTime() - EPOCH_NANOS) / 1000;
+    }
+
+    /**
+     * Starts a trace of a shape about to be sent, if it is one of the sample. Nothing is traced
+     * until the clock of the server is known.
+     *
+     * @param inputMillis the time of the mouse event that drew the shape, in milliseconds since the epoch
+     * @return the trace, or null if the shape is not traced
+     */
+    public OpTrace start(long inputMillis) {
+        if (SAMPLE_EVERY <= 0 || offsetRoundTrip < 0 || drawn.incrementAndGet() % SAMPLE_EVERY != 0) {
+            return null;
+        }
+        long now = nowMicros();
+        return new OpTrace(username, Math.min(inputMillis * 1000, now) + offset, now + offset, 0, 0, 0);
+    }
+
+    /**
+     * Returns a probe to send to the server, which answers with its clock.
+     *
+     * @return the probe
+     */
+    public ClockProbe probe() {
+        return new ClockProbe(nowMicros(), 0);
+    }
+
+    /**
+     * Estimates the clock of the server from an answered probe. Halfway through the round
+     * trip is taken as the moment the server read its clock, so the estimate is off by at
+     * most half the round trip, and the quickest recent round trip gives the best one.
+     *
+     * @param answer the probe answered by the server
+     */
+    public synchronized void onProbe(ClockProbe answer) {
+        long received = nowMicros();
+        long roundTrip = received - answer.clientSent();
+        if (roundTrip < 0 || answer.serverTime() == 0) {
+            return;
+        }
+        clockSamples.addLast(new long[]{roundTrip, answer.serverTime() - (answer.clientSent() + received) / 2});
+        if (clockSamples.size() > CLOCK_SAMPLES) {
+            clockSamples.removeFirst();
+        }
+        long[] best = clockSamples.getFirst();
+        for (long[] sample : clockSamples) {
+            if (sample[0] < best[0]) {
+                best = sample;
+            }
+        }
+        offset = best[1];
+        offsetRoundTrip = best[0];
+    }
+
+    /**
+     * Forgets the clock of the server, after connecting to another one.
+     */
+    public synchronized void resetClock() {
+        clockSamples.clear();
+        offsetRoundTrip = -1;
+    }
+
+    /**
+     * Finishes the trace of a shape drawn by another client, once it has been painted here.
+     *
+     * @param trace the trace stamped by the sender and the server
+     * @param received when this client read the shape, in microseconds of its own clock
+     * @param applied when the Swing thread applied it
+     * @param painted when the canvas had painted it
+     */
+    public void complete(OpTrace trace, long received, long applied, long painted) {
+        long shift = offset;
+        long roundTrip = offsetRoundTrip;
+        logExecutor.execute(() -> {
+            long receivedAt = received + shift;
+            long appliedAt = applied + shift;
+            long paintedAt = painted + shift;
+            long[] times = {
+                    trace.sent() - trace.input(),
+                    (trace.received() - trace.sent()) + (receivedAt - trace.fannedOut()),
+                    trace.broadcast() - trace.received(),
+                    trace.fannedOut() - trace.broadcast(),
+                    appliedAt - receivedAt,
+                    paintedAt - appliedAt,
+                    paintedAt - trace.input()};
+            for (int i = 0; i < SEGMENTS.length; i++) {
+                segments.get(SEGMENTS[i]).record(times[i]);
+            }
+            writeLog(trace.sender() + "," + username + "," + trace.input() + "," + trace.sent() + ","
+                    + trace.received() + "," + trace.broadcast() + "," + trace.fannedOut() + ","
+                    + receivedAt + "," + appliedAt + "," + paintedAt + "," + shift + "," + roundTrip);
+        });
+    }
+
+    /**
+     * Appends a line to the log, opening it with a header the first time. Runs on the log thread.
+     *
+     * @param line the line
+     */
+    private void writeLog(String line) {
+        try {
+            if (log == null) {
+                String path = System.getProperty("whiteboard.trace.log",
+                        System.getProperty("java.io.tmpdir") + "/whiteboard-trace-" + username + ".csv");
+                log = new BufferedWriter(new FileWriter(path, true));
+                log.write("sender,receiver,input_us,sent_us,server_received_us,broadcast_us,fanned_out_us,"
+                        + "received_us,applied_us,painted_us,clock_offset_us,clock_round_trip_us");
+                log.newLine();
+                System.out.println("Logging latency traces to " + path);
+            }
+            log.write(line);
+            log.newLine();
+            log.flush();
+        } catch (IOException e) {
+            System.err.println("Error logging latency trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Describes where the time went for the shapes traced so far, segment by segment.
+     *
+     * @return a table of percentiles, in milliseconds
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-16s %8s %8s %8s %8s%n",
+                "segment (ms)", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, LatencyHistogram> entry : segments.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            report.append(String.format("%-16s %8.1f %8.1f %8.1f %8.1f%n", entry.getKey(),
+                    histogram.getPercentile(0.5) / 1000.0, histogram.getPercentile(0.9) / 1000.0,
+                    histogram.getPercentile(0.99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        report.append(String.format("%n%d traces, 1 in %d shapes sampled%n", segments.get("total").getCount(),
+                SAMPLE_EVERY));
+        report.append(offsetRoundTrip < 0 ? "Clock of the server not known yet"
+                : String.format("Clock offset to the server %.1f ms, within %.1f ms", offset / 1000.0,
+                offsetRoundTrip / 2000.0));
+        return report.toString();
+    }
+}
+
+/**
+ * The times a traced shape was handled on its way to other clients, in microseconds of the
+ * clock of the server. Times not reached yet are 0.
+ */
+record OpTrace(String sender, long input, long sent, long received, long broadcast, long fannedOut)
+        implements Serializable {
+    OpTrace withReceived(long time) {
+        return new OpTrace(sender, input, sent, time, broadcast, fannedOut);
+    }
+
+    OpTrace withBroadcast(long time) {
+        return new OpTrace(sender, input, sent, received, time, fannedOut);
+    }
+
+    OpTrace withFannedOut(long time) {
+        return new OpTrace(sender, input, sent, received, broadcast, time);
+    }
+}
+
+/**
+ * A shape sent to the server together with its trace.
+ */
+record TracedUpdate(Object update, OpTrace trace) implements Serializable {
+}
+
+/**
+ * Asks the server for its clock. The server answers with the same probe and its clock filled in.
+ */
+record ClockProbe(long clientSent, long serverTime) implements Serializable {
+}
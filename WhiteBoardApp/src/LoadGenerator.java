@@ -0,0 +1,500 @@
+/**
+ * LoadGenerator.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * LoadGenerator connects any number of headless bots to a board, speaking the same protocol
+ * as the whiteboard client without opening a window. Each bot draws strokes, erases, writes
+ * text and chats at random times at the configured rates, and the time every update takes to
+ * reach each of the other bots is recorded. Throughput and latency percentiles are printed
+ * as the load runs and once it ends, to find how much load a server takes before it saturates.
+ *
+ * Rates are per bot per second, set with -Dwhiteboard.load.strokes, -Dwhiteboard.load.erasers,
+ * -Dwhiteboard.load.texts and -Dwhiteboard.load.chats. Strokes are sent as they are drawn, one
+ * point every -Dwhiteboard.load.pointInterval milliseconds for -Dwhiteboard.load.strokePoints points.
+ * The first -Dwhiteboard.load.warmup seconds are reported but left out of the totals.
+ */
+
+import java.awt.Color;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadGenerator {
+    private static final long REPORT_INTERVAL = 5000;
+    // Updates not delivered to every bot by then were merged by the server or lost
+    private static final long DELIVERY_TIMEOUT = 10000;
+    private static final long SETTLE_TIME = 2000;
+    private static final int SCHEDULER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    // Kinds of operations
+    static final String STROKE = "stroke";
+    static final String ERASER = "eraser";
+    static final String TEXT = "text";
+    static final String CHAT = "chat";
+    private static final String[] KINDS = {STROKE, ERASER, TEXT, CHAT};
+    private final String serverAddress;
+    private final int serverPort;
+    private final String boardName;
+    private final double[] rates = new double[KINDS.length];
+    private final int strokePoints;
+    private final long pointInterval;
+    private final long warmup;
+    private final CopyOnWriteArrayList<LoadBot> bots = new CopyOnWriteArrayList<>();
+    // Updates sent and not yet delivered to every other bot, by shape version or chat id
+    private final ConcurrentHashMap<Object, PendingDelivery> pending = new ConcurrentHashMap<>();
+    // Totals of the updates sent after the warmup, by kind
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> sent = new ConcurrentHashMap<>();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong undelivered = new AtomicLong();
+    // Counts of every update, warmup included, for the reports along the way
+    private volatile LatencyHistogram interval = new LatencyHistogram();
+    private final AtomicLong sentAll = new AtomicLong();
+    private final AtomicLong deliveredAll = new AtomicLong();
+    private final AtomicLong chatIds = new AtomicLong();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean measuring;
+    // Updates sent from then on, from System.nanoTime(), count towards the totals
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    /**
+     * Constructor for the LoadGenerator class, reading the rates from the system properties.
+     *
+     * @param serverAddress address of the server
+     * @param serverPort port of the server
+     * @param boardName name of the board the bots join
+     */
+    public LoadGenerator(String serverAddress, int serverPort, String boardName) {
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.boardName = boardName;
+        rates[0] = Double.parseDouble(System.getProperty("whiteboard.load.strokes", "0.5"));
+        rates[1] = Double.parseDouble(System.getProperty("whiteboard.load.erasers", "0.2"));
+        rates[2] = Double.parseDouble(System.getProperty("whiteboard.load.texts", "0.1"));
+        rates[3] = Double.parseDouble(System.getProperty("whiteboard.load.chats", "0.1"));
+        this.strokePoints = Integer.getInteger("whiteboard.load.strokePoints", 30);
+        this.pointInterval = Long.getLong("whiteboard.load.pointInterval", 16);
+        this.warmup = TimeUnit.SECONDS.toMillis(Long.getLong("whiteboard.load.warmup", 10));
+        this.scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, task -> {
+            Thread thread = new Thread(task, "load-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String kind : KINDS) {
+            latencies.put(kind, new LatencyHistogram());
+            sent.put(kind, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) {
+        // Check if the correct number of arguments are provided
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Usage: java LoadGenerator <serverAddress> <port> <bots> [boardName] [seconds]");
+            System.exit(1);
+        }
+
+        String serverAddress = args[0];
+        int serverPort = Integer.parseInt(args[1]);
+        int botCount = Integer.parseInt(args[2]);
+        String boardName = args.length >= 4 ? args[3] : WhiteboardServer.DEFAULT_BOARD;
+        long seconds = args.length == 5 ? Long.parseLong(args[4]) : 60;
+
+        LoadGenerator generator = new LoadGenerator(serverAddress, serverPort, boardName);
+        try {
+            generator.run(botCount, TimeUnit.SECONDS.toMillis(seconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Connects the bots, lets them send for the warmup and then the given time while
+     * reporting, then prints the totals.
+     *
+     * @param botCount the number of bots
+     * @param duration how long to send for after the warmup, in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run(int botCount, long duration) throws InterruptedException {
+        for (int i = 0; i < botCount; i++) {
+            LoadBot bot = new LoadBot(this, "bot-" + i);
+            try {
+                bot.connect(serverAddress, serverPort, boardName);
+                bots.add(bot);
+            } catch (IOException e) {
+                System.out.println("Error connecting bot-" + i + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Connected " + bots.size() + " bots to board " + boardName + " at "
+                + serverAddress + ":" + serverPort);
+        // Let the bots receive the board before anything is measured
+        Thread.sleep(SETTLE_TIME);
+
+        measuring = true;
+        for (LoadBot bot : bots) {
+            for (int kind = 0; kind < KINDS.length; kind++) {
+                scheduleNext(bot, KINDS[kind], rates[kind]);
+            }
+        }
+        long start = System.currentTimeMillis();
+        long end = start + warmup + duration;
+        measureFrom = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmup);
+        long lastReport = start, lastSent = 0, lastDelivered = 0;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL, end - System.currentTimeMillis()));
+            expireUndelivered(System.nanoTime());
+            LatencyHistogram reported = interval;
+            interval = new LatencyHistogram();
+            long sentNow = sentAll.get();
+            long deliveredNow = deliveredAll.get();
+            long now = System.currentTimeMillis();
+            double seconds = (now - lastReport) / 1000.0;
+            System.out.printf("%4ds%s  sent %8.1f ops/s  delivered %9.1f/s  %s  undelivered %d  bots %d%n",
+                    (now - start) / 1000, lastReport - start < warmup ? " warmup" : "", (sentNow - lastSent) / seconds,
+                    (deliveredNow - lastDelivered) / seconds, describe(reported), undelivered.get(), connected.get());
+            lastReport = now;
+            lastSent = sentNow;
+            lastDelivered = deliveredNow;
+        }
+        measuring = false;
+        scheduler.shutdownNow();
+        for (LoadBot bot : bots) {
+            bot.close();
+        }
+
+        double elapsed = (System.currentTimeMillis() - start - warmup) / 1000.0;
+        LatencyHistogram total = new LatencyHistogram();
+        latencies.values().forEach(total::add);
+        System.out.println("Totals over " + Math.round(elapsed) + "s with " + bots.size() + " bots:");
+        for (String kind : KINDS) {
+            System.out.printf("  %-6s sent %8d  %s%n", kind, sent.get(kind).get(), describe(latencies.get(kind)));
+        }
+        System.out.printf("  all    sent %8.1f ops/s  delivered %9.1f/s  %s  undelivered %d%n",
+                sent.values().stream().mapToLong(AtomicLong::get).sum() / elapsed, delivered.get() / elapsed,
+                describe(total), undelivered.get());
+    }
+
+    /**
+     * Schedules the next operation of a kind for a bot, at a random time that makes the
+     * operations of the bot arrive at the given average rate.
+     *
+     * @param bot the bot
+     * @param kind the kind of operation
+     * @param rate operations per second
+     */
+    private void scheduleNext(LoadBot bot, String kind, double rate) {
+        if (rate <= 0 || !measuring || !bot.isConnected()) {
+            return;
+        }
+        double delay = -Math.log(1 - ThreadLocalRandom.current().nextDouble()) / rate;
+        try {
+            scheduler.schedule(() -> {
+                perform(bot, kind);
+                scheduleNext(bot, kind, rate);
+            }, (long) (delay * 1_000_000), TimeUnit.MICROSECONDS);
+        } catch (RuntimeException e) {
+            // The scheduler has been shut down as the load ends
+        }
+    }
+
+    private void perform(LoadBot bot, String kind) {
+        switch (kind) {
+            case STROKE -> bot.startStroke(strokePoints, pointInterval, scheduler);
+            case ERASER -> bot.erase();
+            case TEXT -> bot.writeText();
+            case CHAT -> bot.chat(chatIds.incrementAndGet());
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Records that a bot sent an update, which every other bot should receive.
+     *
+     * @param key the shape version or chat id that identifies the update
+     * @param kind the kind of operation
+     */
+    void sent(Object key, String kind) {
+        int receivers = connected.get() - 1;
+        sentAll.incrementAndGet();
+        if (System.nanoTime() >= measureFrom) {
+            sent.get(kind).incrementAndGet();
+        }
+        if (receivers > 0) {
+            pending.put(key, new PendingDelivery(kind, System.nanoTime(), new AtomicInteger(receivers)));
+        }
+    }
+
+    /**
+     * Records that a bot received an update sent by another bot.
+     *
+     * @param key the shape version or chat id that identifies the update
+     * @param receivedAt when it was received, from System.nanoTime()
+     */
+    void received(Object key, long receivedAt) {
+        PendingDelivery delivery = pending.get(key);
+        if (delivery == null) {
+            return;
+        }
+        long latency = TimeUnit.NANOSECONDS.toMicros(receivedAt - delivery.sentAt());
+        interval.record(latency);
+        deliveredAll.incrementAndGet();
+        if (delivery.sentAt() >= measureFrom) {
+            latencies.get(delivery.kind()).record(latency);
+            delivered.incrementAndGet();
+        }
+        if (delivery.remaining().decrementAndGet() == 0) {
+            pending.remove(key);
+        }
+    }
+
+    /**
+     * Gives up on updates that have not reached every bot in time, such as stroke versions
+     * the server merged into a later version.
+     *
+     * @param now the current time, from System.nanoTime()
+     */
+    private void expireUndelivered(long now) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT);
+        pending.values().removeIf(delivery -> {
+            if (now - delivery.sentAt() > timeout) {
+                if (delivery.sentAt() >= measureFrom) {
+                    undelivered.addAndGet(delivery.remaining().get());
+                }
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Keeps count of the bots connected, which each update should reach but for its sender.
+     *
+     * @param change 1 when a bot connects, -1 when it disconnects
+     */
+    void countConnected(int change) {
+        connected.addAndGet(change);
+    }
+
+    private static String describe(LatencyHistogram histogram) {
+        return String.format("latency ms p50 %7.2f  p99 %7.2f  p999 %7.2f  max %7.2f",
+                histogram.getPercentile(0.5) / 1000.0, histogram.getPercentile(0.99) / 1000.0,
+                histogram.getPercentile(0.999) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    /**
+     * An update on its way to the other bots.
+     */
+    private record PendingDelivery(String kind, long sentAt, AtomicInteger remaining) {
+    }
+}
+
+/**
+ * A headless client of the load generator. It sends through a framed channel like the
+ * whiteboard client, and reads everything the server sends on its own thread, answering
+ * pings and reporting the updates of other bots as they arrive.
+ */
+class LoadBot {
+    private static final int AREA_WIDTH = 4000;
+    private static final int AREA_HEIGHT = 3000;
+    private final LoadGenerator generator;
+    private final String username;
+    // Stamps the shapes of this bot with dots of its own
+    private final ShapeSet shapes = new ShapeSet();
+    private final String replicaId;
+    private Socket socket;
+    private MessageChannel channel;
+    private final AtomicBoolean connected = new AtomicBoolean();
+
+    /**
+     * Constructor for the LoadBot class.
+     *
+     * @param generator the generator the bot reports to
+     * @param username the username of the bot
+     */
+    LoadBot(LoadGenerator generator, String username) {
+        this.generator = generator;
+        this.username = username;
+        this.replicaId = username + "#" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Connects to the server, joins the board and starts reading.
+     *
+     * @param serverAddress address of the server
+     * @param serverPort port of the server
+     * @param boardName name of the board
+     * @throws IOException if the connection fails
+     */
+    void connect(String serverAddress, int serverPort, String boardName) throws IOException {
+        socket = new Socket(serverAddress, serverPort);
+        socket.setTcpNoDelay(true);
+        channel = MessageChannel.connect(socket.getInputStream(), socket.getOutputStream());
+        channel.startWriter(username, this::close);
+        connected.set(true);
+        generator.countConnected(1);
+        // Without a viewport, so the bot receives every update of the board
+        channel.send(new Hello(username, boardName));
+        // Servers that decide who joins send the board once the bot is let in
+        channel.send(new JoinRequest(username));
+        Thread reader = new Thread(this::read, "reader-" + username);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isConnected() {
+        return connected.get();
+    }
+
+    /**
+     * Reads what the server sends until the connection is closed.
+     */
+    private void read() {
+        try {
+            while (connected.get()) {
+                Object object = channel.read();
+                long receivedAt = System.nanoTime();
+                if (object instanceof SequencedUpdate update) {
+                    object = update.update();
+                }
+                if (object instanceof Shape shape && shape.getDot() != null) {
+                    generator.received(new ShapeVersion(shape.getDot(), shape.getVersion()), receivedAt);
+                } else if (object instanceof String message) {
+                    // Chat messages of bots end with their id
+                    int id = message.lastIndexOf('#');
+                    if (id >= 0 && !message.startsWith(username + ":")) {
+                        try {
+                            generator.received(Long.parseLong(message.substring(id + 1)), receivedAt);
+                        } catch (NumberFormatException e) {
+                            // Not from a bot
+                        }
+                    }
+                } else if (object instanceof Ping ping) {
+                    channel.send(new Pong(ping.sentAt()));
+                } else if (object instanceof UsernameTakenCommand) {
+                    System.out.println("Error joining as " + username + ": username is taken");
+                    break;
+                } else if (object instanceof KickCommand || object instanceof ServerQuitCommand) {
+                    break;
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (connected.get()) {
+                System.out.println("Error reading for " + username + ": " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Draws a stroke at a random place, sending it after every point as the client does
+     * while the mouse is dragged.
+     *
+     * @param points the number of points
+     * @param pointInterval the time between points, in milliseconds
+     * @param scheduler where the later points are scheduled
+     */
+    void startStroke(int points, long pointInterval, ScheduledExecutorService scheduler) {
+        Random random = ThreadLocalRandom.current();
+        FreeDraw stroke = new FreeDraw(new Color(random.nextInt(0xffffff)));
+        shapes.stamp(stroke, replicaId);
+        addPoint(stroke, random.nextInt(AREA_WIDTH), random.nextInt(AREA_HEIGHT), points, pointInterval, scheduler);
+    }
+
+    private void addPoint(FreeDraw stroke, int x, int y, int remaining, long pointInterval,
+                          ScheduledExecutorService scheduler) {
+        if (!connected.get()) {
+            return;
+        }
+        stroke.addPoint(x, y);
+        send(stroke, LoadGenerator.STROKE);
+        if (remaining > 1) {
+            Random random = ThreadLocalRandom.current();
+            int nextX = x + random.nextInt(11) - 5, nextY = y + random.nextInt(11) - 5;
+            try {
+                scheduler.schedule(() -> addPoint(stroke, nextX, nextY, remaining - 1, pointInterval, scheduler),
+                        pointInterval, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // The load has ended
+            }
+        }
+    }
+
+    void erase() {
+        Random random = ThreadLocalRandom.current();
+        Eraser eraser = new Eraser(random.nextInt(AREA_WIDTH), random.nextInt(AREA_HEIGHT), 10 + random.nextInt(30),
+                Color.WHITE);
+        send(shapes.stamp(eraser, replicaId), LoadGenerator.ERASER);
+    }
+
+    void writeText() {
+        Random random = ThreadLocalRandom.current();
+        Text text = new Text(random.nextInt(AREA_WIDTH), random.nextInt(AREA_HEIGHT),
+                "Note " + random.nextInt(1000), Color.BLACK);
+        send(shapes.stamp(text, replicaId), LoadGenerator.TEXT);
+    }
+
+    /**
+     * Sends a chat message ending with the given id, by which the other bots report it.
+     *
+     * @param id the id of the message
+     */
+    void chat(long id) {
+        if (!connected.get()) {
+            return;
+        }
+        generator.sent(id, LoadGenerator.CHAT);
+        channel.send("load test message #" + id);
+    }
+
+    /**
+     * Sends a shape, which is serialized at once, so a stroke can go on changing afterwards.
+     *
+     * @param shape the shape
+     * @param kind the kind of operation
+     */
+    private void send(Shape shape, String kind) {
+        if (!connected.get()) {
+            return;
+        }
+        generator.sent(new ShapeVersion(shape.getDot(), shape.getVersion()), kind);
+        channel.send(shape);
+    }
+
+    /**
+     * Closes the connection to the server.
+     */
+    void close() {
+        if (connected.getAndSet(false)) {
+            generator.countConnected(-1);
+        }
+        MessageChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+        try {
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Identifies one version of a shape sent by a bot.
+     */
+    private record ShapeVersion(Dot dot, int version) {
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * ManageWhiteBoard.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * ManageWhiteBoard is the main class that starts a manager for a board of a headless server
+ * started with the manager join policy. The manager logs in with the key the server printed
+ * and decides the join requests from its window, as if it had started the server.
+ */
+
+import javax.swing.*;
+
+public class ManageWhiteBoard {
+    public static void main(String[] args) {
+        // Check if the correct number of arguments are provided
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: java ManageWhiteBoard <serverAddress> <serverPort> <username> <managerKey> [boardName]");
+            System.exit(1);
+        }
+
+        String serverAddress = args[0];
+        int serverPort = Integer.parseInt(args[1]);
+        String username = args[2];
+        String managerKey = args[3];
+        String boardName = args.length == 5 ? args[4] : WhiteboardServer.DEFAULT_BOARD;
+
+        // Start the manager in the event dispatch thread
+        SwingUtilities.invokeLater(() -> {
+            WhiteboardManager manager = new WhiteboardManager(serverAddress, serverPort, username, boardName, managerKey);
+            manager.setVisible(true);
+        });
+    }
+}
@@ -0,0 +1,418 @@
+/**
+ * MessageChannel.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class carries the messages of a connection between a client and the server. Messages
+ * are split into frames on four channels by priority: control messages such as kicks, join
+ * answers and heartbeats, then chat, then live drawing, then bulk transfers such as opened
+ * boards, snapshots and history. The writer always sends the next frame of the most urgent
+ * message waiting, so a kick or a chat message is never stuck behind a large board. Connections
+ * that start with a serialized object instead of the frame header, such as standby servers,
+ * relays and older clients, are served one whole message at a time in the order sent.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayDeque;
+
+public class MessageChannel {
+    // Sent first by clients that speak in frames; serialized streams start with 0xACED instead
+    static final int MAGIC = 0x57424631;
+    public static final int CHUNK_SIZE = 16 * 1024;
+    static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+    // Set on the last frame of a message
+    private static final int LAST = 1;
+    // Removals of up to this many shapes go on the live channel, like the shapes themselves
+    private static final int MAX_LIVE_REMOVALS = 256;
+
+    /**
+     * The channels, most urgent first.
+     */
+    enum Priority {
+        CONTROL, CHAT, LIVE, BULK
+    }
+
+    private static final int CHANNELS = Priority.values().length;
+    private final boolean framed;
+    private final boolean eager;
+    private final BufferedInputStream buffered;
+    private final DataInputStream framesIn;
+    private final DataOutputStream framesOut;
+    private final ObjectInputStream objectIn;
+    private final ObjectOutputStream objectOut;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Object>[] queues = new ArrayDeque[CHANNELS];
+    // The message being written on each channel and how much of it has been written, used by the writer only
+    private final byte[][] inProgress = new byte[CHANNELS][];
+    private final int[] written = new int[CHANNELS];
+    // The frames of the message being read on each channel, used by the reader only
+    private final ByteArrayOutputStream[] partial = new ByteArrayOutputStream[CHANNELS];
+    private int queued;
+    private boolean finishing;
+    private boolean closed;
+    private volatile long writeStartedAt;
+
+    private MessageChannel(BufferedInputStream in, OutputStream out, boolean framed, boolean eager) throws IOException {
+        this.framed = framed;
+        this.eager = eager;
+        this.buffered = in;
+        if (framed) {
+            framesIn = new DataInputStream(in);
+            framesOut = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE + 6));
+            objectIn = null;
+            objectOut = null;
+        } else {
+            framesIn = null;
+            framesOut = null;
+            objectIn = new ObjectInputStream(in);
+            objectOut = new ObjectOutputStream(out);
+        }
+        for (int i = 0; i < CHANNELS; i++) {
+            queues[i] = new ArrayDeque<>();
+            partial[i] = new ByteArrayOutputStream();
+        }
+    }
+
+    /**
+     * Opens the server end of a connection, speaking frames if the other end starts with the
+     * frame header and whole serialized objects otherwise.
+     *
+     * @param in the stream from the other end
+     * @param out the stream to the other end
+     * @return the channel
+     * @throws IOException if the connection fails
+     */
+    public static MessageChannel accept(InputStream in, OutputStream out) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(4);
+        if (new DataInputStream(buffered).readInt() == MAGIC) {
+            return new MessageChannel(buffered, out, true, false);
+        }
+        buffered.reset();
+        return new MessageChannel(buffered, out, false, false);
+    }
+
+    /**
+     * Opens the client end of a connection, which speaks frames. Messages are serialized as
+     * soon as they are sent, since the client goes on changing the strokes it sends.
+     *
+     * @param in the stream from the server
+     * @param out the stream to the server
+     * @return the channel
+     * @throws IOException if the connection fails
+     */
+    public static MessageChannel connect(InputStream in, OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.flush();
+        return new MessageChannel(new BufferedInputStream(in), out, true, true);
+    }
+
+    /**
+     * Returns the channel a message is sent on.
+     *
+     * @param message the message
+     * @return its priority
+     */
+    static Priority priorityOf(Object message) {
+        Object content = message instanceof SequencedUpdate update ? update.update()
+                : message instanceof TracedUpdate traced ? traced.update() : message;
+        if (content instanceof String) {
+            return Priority.CHAT;
+        } else if (content instanceof Shape || content instanceof ClearCommand || content instanceof Viewport
+                || content instanceof BulkPending || content instanceof HistorySeekRequest
+                || content instanceof HistoryRangeRequest || content instanceof RemoveShapesCommand
+                || content instanceof BoardDiffCommand diff && diff.addedShapes().isEmpty()
+                && diff.removedDots().size() <= MAX_LIVE_REMOVALS) {
+            // Erasing a few shapes is as small as drawing one
+            return Priority.LIVE;
+        } else if (content instanceof BoardSnapshot || content instanceof BoardDiffCommand
+                || content instanceof OpenCommand || content instanceof RasterSnapshot
+                || content instanceof VectorDetailComplete || content instanceof HistorySnapshot
+                || content instanceof HistoryChunk) {
+            return Priority.BULK;
+        }
+        return Priority.CONTROL;
+    }
+
+    /**
+     * Checks whether a message is a numbered board update sent on the bulk channel, which
+     * live updates after it may overtake.
+     *
+     * @param message the message
+     * @return true if a BulkPending is sent ahead of it
+     */
+    static boolean isSequencedBulk(Object message) {
+        return message instanceof RasterSnapshot
+                || message instanceof SequencedUpdate && priorityOf(message) == Priority.BULK;
+    }
+
+    /**
+     * Queues a message for the writer. A numbered board update on the bulk channel is
+     * announced on the live channel first, so the other end knows it is on its way.
+     *
+     * @param message the message
+     */
+    public void send(Object message) {
+        Priority priority = framed ? priorityOf(message) : Priority.LIVE;
+        boolean announce = framed && isSequencedBulk(message);
+        Object item = message;
+        Object announcement = new BulkPending();
+        if (eager) {
+            try {
+                item = new Serialized(serialize(message));
+                announcement = new Serialized(serialize(announcement));
+            } catch (IOException e) {
+                System.out.println("Error sending message: " + e.getMessage());
+                return;
+            }
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (announce) {
+                queues[Priority.LIVE.ordinal()].add(announcement);
+                queued++;
+            }
+            queues[priority.ordinal()].add(item);
+            queued++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the next frame of the most urgent message waiting, or the next whole message if
+     * the other end does not speak frames, waiting until there is one.
+     *
+     * @return false once the channel is finished or closed and has nothing left to write
+     * @throws IOException if the connection fails
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean writeNext() throws IOException, InterruptedException {
+        int channel;
+        Object next = null;
+        synchronized (this) {
+            while ((channel = nextChannel()) < 0) {
+                if (finishing || closed) {
+                    return false;
+                }
+                wait();
+            }
+            if (inProgress[channel] == null) {
+                next = queues[channel].poll();
+                queued--;
+            }
+        }
+        writeStartedAt = System.currentTimeMillis();
+        try {
+            if (!framed) {
+                objectOut.writeObject(next);
+                objectOut.reset();
+                return true;
+            }
+            if (next != null) {
+                inProgress[channel] = next instanceof Serialized serialized ? serialized.bytes() : serialize(next);
+                written[channel] = 0;
+            }
+            byte[] bytes = inProgress[channel];
+            int length = Math.min(CHUNK_SIZE, bytes.length - written[channel]);
+            boolean last = written[channel] + length == bytes.length;
+            framesOut.writeByte(channel);
+            framesOut.writeByte(last ? LAST : 0);
+            framesOut.writeInt(length);
+            framesOut.write(bytes, written[channel], length);
+            written[channel] += length;
+            if (last) {
+                inProgress[channel] = null;
+            }
+            boolean idle;
+            synchronized (this) {
+                idle = nextChannel() < 0;
+            }
+            if (idle) {
+                framesOut.flush();
+            }
+            return true;
+        } finally {
+            writeStartedAt = 0;
+        }
+    }
+
+    /**
+     * Reads the next message. Frames of different channels arrive interleaved, and a message
+     * is returned once its last frame has arrived.
+     *
+     * @return the message
+     * @throws IOException if the connection fails or the frames are malformed
+     * @throws ClassNotFoundException if the message is of an unknown class
+     */
+    public Object read() throws IOException, ClassNotFoundException {
+        if (!framed) {
+            return objectIn.readObject();
+        }
+        while (true) {
+            int channel = framesIn.readUnsignedByte();
+            int flags = framesIn.readUnsignedByte();
+            int length = framesIn.readInt();
+            if (channel >= CHANNELS || length < 0 || length > CHUNK_SIZE
+                    || partial[channel].size() + length > MAX_MESSAGE_BYTES) {
+                throw new StreamCorruptedException("Malformed frame");
+            }
+            byte[] chunk = new byte[length];
+            framesIn.readFully(chunk);
+            partial[channel].write(chunk);
+            if ((flags & LAST) != 0) {
+                byte[] bytes = partial[channel].toByteArray();
+                partial[channel].reset();
+                return deserialize(bytes);
+            }
+        }
+    }
+
+    /**
+     * Returns how many bytes can be read without waiting, showing whether more messages are arriving.
+     *
+     * @return the number of bytes
+     * @throws IOException if the connection fails
+     */
+    public int available() throws IOException {
+        return buffered.available();
+    }
+
+    /**
+     * Returns the serialized stream of a connection that does not speak frames, such as a
+     * standby server that is handed over to the replicator.
+     *
+     * @return the stream, or null if the connection speaks frames
+     */
+    public ObjectOutputStream getObjectOutput() {
+        return objectOut;
+    }
+
+    public synchronized int size() {
+        return queued;
+    }
+
+    /**
+     * Returns how long the write in progress has been waiting for the socket.
+     *
+     * @param now the current time in milliseconds
+     * @return the time in milliseconds, or 0 if nothing is being written
+     */
+    public long getWriteStalledFor(long now) {
+        long started = writeStartedAt;
+        return started == 0 ? 0 : now - started;
+    }
+
+    /**
+     * Lets the writer stop once everything queued has been written.
+     */
+    public synchronized void finish() {
+        finishing = true;
+        notifyAll();
+    }
+
+    /**
+     * Drops everything queued and stops the writer. The caller closes the socket.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (ArrayDeque<Object> queue : queues) {
+            queue.clear();
+        }
+        queued = 0;
+        notifyAll();
+    }
+
+    /**
+     * Starts a thread that writes the queued messages until the channel is finished, closed
+     * or the connection fails.
+     *
+     * @param name name of the thread
+     * @param whenDone run once the thread stops writing
+     * @return the thread
+     */
+    public Thread startWriter(String name, Runnable whenDone) {
+        Thread writer = new Thread(() -> {
+            try {
+                while (writeNext()) {
+                    // Keep writing
+                }
+            } catch (IOException e) {
+                System.out.println("Error sending to " + name + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                whenDone.run();
+            }
+        }, "writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+        return writer;
+    }
+
+    private int nextChannel() {
+        for (int i = 0; i < CHANNELS; i++) {
+            if (inProgress[i] != null || !queues[i].isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Serializes a message on its own, as it is sent in frames.
+     *
+     * @param message the message
+     * @return the serialized message
+     * @throws IOException if the message cannot be serialized
+     */
+    static byte[] serialize(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a message serialized on its own.
+     *
+     * @param bytes the serialized message
+     * @return the message
+     * @throws IOException if the bytes are malformed
+     * @throws ClassNotFoundException if the message is of an unknown class
+     */
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * A message serialized when it was sent.
+     */
+    private record Serialized(byte[] bytes) {
+    }
+}
+
+/**
+ * Sent on the live channel in place of a numbered board update that goes on the bulk channel,
+ * such as a snapshot, so the live updates that overtake it do not let a client that reconnects
+ * before it arrives resume from after it.
+ */
+record BulkPending() implements Serializable {
+}
@@ -0,0 +1,162 @@
+/**
+ * MetricsExporter.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class exposes the metrics of a server outside the process: as an MBean that JMX
+ * tools such as jconsole can read, and in the Prometheus text format over HTTP on a port of
+ * the local machine, set with -Dwhiteboard.metrics.port. The HTTP endpoint is only started
+ * when a port is set.
+ */
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class MetricsExporter {
+    private final ServerMetrics metrics;
+    private final int serverPort;
+    private HttpServer http;
+    private ObjectName name;
+
+    /**
+     * Constructor for MetricsExporter.
+     *
+     * @param metrics the metrics to expose
+     * @param serverPort the port clients connect to, which tells servers in one process apart
+     */
+    public MetricsExporter(ServerMetrics metrics, int serverPort) {
+        this.metrics = metrics;
+        this.serverPort = serverPort;
+    }
+
+    /**
+     * Registers the MBean, and starts the HTTP endpoint if a port is set.
+     */
+    public synchronized void start() {
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("whiteboard:type=ServerMetrics,port=" + serverPort);
+            if (!beans.isRegistered(name)) {
+                beans.registerMBean(new ServerMetricsMBean(metrics), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Error registering metrics MBean: " + e.getMessage());
+        }
+
+        int port = Integer.getInteger("whiteboard.metrics.port", 0);
+        if (port <= 0) {
+            return;
+        }
+        try {
+            // Only reachable from this machine
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start();
+            System.out.println("Serving metrics at http://localhost:" + port + "/metrics");
+        } catch (IOException e) {
+            System.out.println("Error starting metrics endpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the HTTP endpoint and unregisters the MBean.
+     */
+    public synchronized void stop() {
+        if (http != null) {
+            http.stop(0);
+            http = null;
+        }
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            if (name != null && beans.isRegistered(name)) {
+                beans.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            System.out.println("Error unregistering metrics MBean: " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * An MBean with one read-only attribute for every metric of a server. Metrics are created
+ * as the server runs, so the attributes are listed afresh whenever they are asked for.
+ */
+class ServerMetricsMBean implements DynamicMBean {
+    private final ServerMetrics metrics;
+
+    /**
+     * Constructor for ServerMetricsMBean.
+     *
+     * @param metrics the metrics to expose
+     */
+    ServerMetricsMBean(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> values = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = metrics.snapshot().keySet().stream()
+                .map(name -> new MBeanAttributeInfo(name, "long", name, true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+        return new MBeanInfo(getClass().getName(), "Metrics of a whiteboard server", attributes, null, null, null);
+    }
+}
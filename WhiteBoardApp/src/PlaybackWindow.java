@@ -0,0 +1,218 @@
+/**
+ * PlaybackWindow.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class shows how the whiteboard evolved during the session. It seeks to any point
+ * in the recorded history and plays the operations after it back at an adjustable speed.
+ */
+
+import javax.swing.*;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+
+public class PlaybackWindow extends JDialog {
+    private static final int TICK_MILLIS = 30;
+    private static final int CHUNK_SIZE = 512;
+    private static final int LOW_WATER_MARK = 128;
+    private static final long MAX_IDLE_GAP = 2000;
+    private static final int SLIDER_STEPS = 1000;
+    private final WhiteboardClient client;
+    private final ArrayDeque<BoardOperation> buffered = new ArrayDeque<>();
+    private final JPanel view;
+    private final JSlider timeline = new JSlider(0, SLIDER_STEPS, 0);
+    private final JLabel timeLabel = new JLabel(" ");
+    private final JButton playButton = new JButton("Play");
+    private final Timer timer = new Timer(TICK_MILLIS, e -> tick());
+    private ShapeSet shapes = new ShapeSet();
+    private double speed = 1.0;
+    private long firstTimestamp, lastTimestamp, playbackTime;
+    private long expectedSeq = 1;
+    private boolean requestPending, historyComplete, updatingTimeline;
+
+    /**
+     * Constructor for the PlaybackWindow class.
+     *
+     * @param client the client used to request the history from the server
+     */
+    public PlaybackWindow(WhiteboardClient client) {
+        super(client, "Board Playback", false);
+        this.client = client;
+        setSize(900, 700);
+        setLocationRelativeTo(client);
+
+        view = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                Graphics2D g2 = (Graphics2D) g.create();
+                Shape.applyRenderingHints(g2);
+                for (Shape shape : shapes.values()) {
+                    shape.draw(g2);
+                }
+                g2.dispose();
+            }
+        };
+        view.setBackground(Color.WHITE);
+        add(view, BorderLayout.CENTER);
+
+        JPanel controls = new JPanel(new BorderLayout());
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        playButton.addActionListener(e -> {
+            if (timer.isRunning()) {
+                pause();
+            } else {
+                play();
+            }
+        });
+        buttons.add(playButton);
+
+        // Playback speed selection
+        buttons.add(new JLabel("Speed:"));
+        JComboBox<String> speedSelector = new JComboBox<>(new String[]{"0.5x", "1x", "2x", "4x", "8x", "16x", "32x"});
+        speedSelector.setSelectedIndex(1);
+        speedSelector.addActionListener(e -> {
+            String selected = (String) speedSelector.getSelectedItem();
+            speed = Double.parseDouble(selected.substring(0, selected.length() - 1));
+        });
+        buttons.add(speedSelector);
+        buttons.add(timeLabel);
+        controls.add(buttons, BorderLayout.WEST);
+
+        // Seek when the user lets go of the timeline
+        timeline.addChangeListener(e -> {
+            if (!updatingTimeline && !timeline.getValueIsAdjusting()) {
+                long span = Math.max(1, lastTimestamp - firstTimestamp);
+                seek(firstTimestamp + span * timeline.getValue() / SLIDER_STEPS);
+            }
+        });
+        controls.add(timeline, BorderLayout.CENTER);
+        add(controls, BorderLayout.SOUTH);
+
+        seek(0);
+    }
+
+    /**
+     * Asks the server for the board at the given time. Playback continues from there
+     * once the snapshot arrives.
+     *
+     * @param timestamp the time to seek to
+     */
+    public void seek(long timestamp) {
+        client.sendCommand(new HistorySeekRequest(timestamp));
+    }
+
+    /**
+     * Refreshes the known time span of the history, keeping the current position.
+     */
+    public void refresh() {
+        if (!timer.isRunning()) {
+            seek(playbackTime);
+        }
+    }
+
+    /**
+     * Shows a reconstructed board and resets the playback position to it.
+     *
+     * @param snapshot the board reconstructed by the server
+     */
+    public void showSnapshot(HistorySnapshot snapshot) {
+        shapes = new ShapeSet(snapshot.shapes());
+        buffered.clear();
+        firstTimestamp = snapshot.firstTimestamp();
+        lastTimestamp = snapshot.lastTimestamp();
+        playbackTime = Math.max(snapshot.timestamp(), firstTimestamp);
+        expectedSeq = snapshot.seq() + 1;
+        requestPending = false;
+        historyComplete = false;
+        updateTimeline();
+        view.repaint();
+        if (timer.isRunning()) {
+            requestMore();
+        }
+    }
+
+    /**
+     * Buffers streamed operations for playback. Chunks requested before the last seek are dropped.
+     *
+     * @param chunk the streamed operations
+     */
+    public void enqueue(HistoryChunk chunk) {
+        ArrayList<BoardOperation> operations = chunk.operations();
+        if (!operations.isEmpty() && operations.get(0).seq() != expectedSeq) {
+            return;
+        }
+        buffered.addAll(operations);
+        if (!operations.isEmpty()) {
+            BoardOperation last = operations.get(operations.size() - 1);
+            expectedSeq = last.seq() + 1;
+            lastTimestamp = Math.max(lastTimestamp, last.timestamp());
+        }
+        historyComplete = chunk.complete();
+        requestPending = false;
+    }
+
+    private void play() {
+        if (historyComplete && buffered.isEmpty()) {
+            // Start again from the beginning once the end was reached
+            seek(0);
+        }
+        requestMore();
+        timer.start();
+        playButton.setText("Pause");
+    }
+
+    private void pause() {
+        timer.stop();
+        playButton.setText("Play");
+    }
+
+    private void requestMore() {
+        if (!requestPending && !historyComplete) {
+            requestPending = true;
+            client.sendCommand(new HistoryRangeRequest(expectedSeq, CHUNK_SIZE));
+        }
+    }
+
+    /**
+     * Advances the playback clock and applies every buffered operation that is due.
+     */
+    private void tick() {
+        playbackTime += (long) (TICK_MILLIS * speed);
+
+        // Skip over long idle stretches instead of showing an unchanged board
+        if (!buffered.isEmpty() && buffered.peekFirst().timestamp() - playbackTime > MAX_IDLE_GAP) {
+            playbackTime = buffered.peekFirst().timestamp();
+        }
+
+        boolean changed = false;
+        while (!buffered.isEmpty() && buffered.peekFirst().timestamp() <= playbackTime) {
+            buffered.pollFirst().applyTo(shapes);
+            changed = true;
+        }
+
+        if (buffered.size() < LOW_WATER_MARK) {
+            requestMore();
+        }
+        if (buffered.isEmpty() && historyComplete) {
+            playbackTime = lastTimestamp;
+            pause();
+        }
+
+        updateTimeline();
+        if (changed) {
+            view.repaint();
+        }
+    }
+
+    private void updateTimeline() {
+        long span = Math.max(1, lastTimestamp - firstTimestamp);
+        updatingTimeline = true;
+        timeline.setValue((int) Math.max(0, Math.min(SLIDER_STEPS, (playbackTime - firstTimestamp) * SLIDER_STEPS / span)));
+        updatingTimeline = false;
+        timeLabel.setText(firstTimestamp == 0 ? "No history yet"
+                : new SimpleDateFormat("HH:mm:ss").format(new Date(playbackTime)));
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * PresenceClient.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class sends where the user's cursor is, and the shape they are dragging out, to the
+ * server over UDP, and keeps the latest of the same from the other users of the board. The
+ * state is sent at most every -Dwhiteboard.presence.intervalMs while it changes, and every
+ * second while it does not, so a lost packet is soon made up for. A user not heard from for
+ * a few seconds is forgotten.
+ */
+
+import java.awt.Color;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class PresenceClient {
+    private static final long INTERVAL_MILLIS = Long.getLong("whiteboard.presence.intervalMs", 33);
+    private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(3);
+    private final Map<Long, RemotePresence> remote = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-send");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private DatagramSocket socket;
+    private volatile Runnable listener = () -> { };
+    // The server and ticket packets are sent with, and what they say, guarded by this
+    private volatile InetSocketAddress server;
+    private PresenceTicket ticket;
+    private long seq;
+    private boolean changed;
+    private long lastSent;
+    private int cursorX = PresencePacket.NO_CURSOR, cursorY;
+    private String tool = "";
+    private int x1, y1, x2, y2, rgb;
+
+    /**
+     * Constructor for PresenceClient, which opens a socket on any port and starts sending
+     * once it is given a ticket.
+     */
+    public PresenceClient() {
+        try {
+            socket = new DatagramSocket();
+            Thread receiver = new Thread(this::receive, "presence-receive");
+            receiver.setDaemon(true);
+            receiver.start();
+            sender.scheduleWithFixedDelay(this::tick, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (SocketException e) {
+            System.out.println("Error creating presence socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets what to call when the users shown change, on any thread.
+     *
+     * @param listener the listener
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts sending to a server with the ticket it gave, after joining a board. The users of
+     * the board before are forgotten.
+     *
+     * @param host the host of the server
+     * @param ticket the ticket
+     */
+    public synchronized void connect(InetAddress host, PresenceTicket ticket) {
+        this.server = new InetSocketAddress(host, ticket.port());
+        this.ticket = ticket;
+        // Sent at once, so the server learns where to relay to before the user moves
+        changed = true;
+        remote.clear();
+        listener.run();
+    }
+
+    /**
+     * Sets where the cursor is.
+     *
+     * @param x the x-coordinate on the canvas
+     * @param y the y-coordinate on the canvas
+     */
+    public synchronized void moveCursor(int x, int y) {
+        changed |= x != cursorX || y != cursorY;
+        cursorX = x;
+        cursorY = y;
+        sendSoon();
+    }
+
+    /**
+     * Notes that the cursor left the canvas.
+     */
+    public synchronized void hideCursor() {
+        changed |= cursorX != PresencePacket.NO_CURSOR;
+        cursorX = PresencePacket.NO_CURSOR;
+    }
+
+    /**
+     * Sets the shape being dragged out, as the tool and the points it is dragged between.
+     *
+     * @param tool the tool
+     * @param x1 the x-coordinate the drag started at
+     * @param y1 the y-coordinate the drag started at
+     * @param x2 the x-coordinate the drag is at
+     * @param y2 the y-coordinate the drag is at
+     * @param color the colour of the shape
+     */
+    public synchronized void setPreview(String tool, int x1, int y1, int x2, int y2, Color color) {
+        this.tool = tool;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.rgb = color.getRGB();
+        changed = true;
+        sendSoon();
+    }
+
+    /**
+     * Notes that no shape is being dragged out any more.
+     */
+    public synchronized void clearPreview() {
+        changed |= !tool.isEmpty();
+        tool = "";
+        sendSoon();
+    }
+
+    /**
+     * Sends a change at once if nothing was sent for an interval, rather than at the next
+     * tick, so a user who starts moving is seen without delay.
+     */
+    private void sendSoon() {
+        if (changed && System.nanoTime() - lastSent >= TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS)
+                && !sender.isShutdown()) {
+            sender.execute(this::tick);
+        }
+    }
+
+    /**
+     * Returns the users heard from lately. A user who reconnected is only shown where they
+     * were last heard from, not where they were before.
+     *
+     * @return the latest presence of each user
+     */
+    public List<PresencePacket> getRemote() {
+        HashMap<String, RemotePresence> latest = new HashMap<>();
+        for (RemotePresence presence : remote.values()) {
+            latest.merge(presence.packet().username(), presence,
+                    (known, other) -> other.receivedAt() > known.receivedAt() ? other : known);
+        }
+        List<PresencePacket> shown = new ArrayList<>();
+        for (RemotePresence presence : latest.values()) {
+            shown.add(presence.packet());
+        }
+        return shown;
+    }
+
+    /**
+     * Sends the state if it changed or has not been sent for a while, and forgets users not
+     * heard from for too long. Runs on the sending thread.
+     */
+    private void tick() {
+        long now = System.nanoTime();
+        if (remote.values().removeIf(presence -> now - presence.receivedAt() > EXPIRY_NANOS)) {
+            listener.run();
+        }
+        DatagramPacket datagram;
+        synchronized (this) {
+            if (ticket == null || !changed && now - lastSent < KEEPALIVE_NANOS) {
+                return;
+            }
+            try {
+                byte[] bytes = new PresencePacket(ticket.id(), ticket.secret(), ++seq, "", cursorX, cursorY, tool,
+                        x1, y1, x2, y2, rgb).encode();
+                datagram = new DatagramPacket(bytes, bytes.length, server);
+            } catch (IOException e) {
+                return;
+            }
+            changed = false;
+            lastSent = now;
+        }
+        try {
+            socket.send(datagram);
+        } catch (IOException e) {
+            // Lost like any other packet, the state is sent again soon
+        }
+    }
+
+    /**
+     * Reads the packets relayed by the server, keeping the newest from each user, until the
+     * socket is closed.
+     */
+    private void receive() {
+        byte[] buffer = new byte[PresencePacket.MAX_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+                socket.receive(datagram);
+                if (!datagram.getSocketAddress().equals(server)) {
+                    // Only the server relays presence
+                    continue;
+                }
+                PresencePacket packet = PresencePacket.decode(datagram.getData(), datagram.getLength());
+                RemotePresence latest = new RemotePresence(packet, System.nanoTime());
+                // Packets can arrive out of order, and an older one never replaces a newer one
+                if (remote.merge(packet.id(), latest,
+                        (known, received) -> received.packet().seq() > known.packet().seq() ? received : known) == latest) {
+                    listener.run();
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("Error reading presence: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops sending and receiving.
+     */
+    public void close() {
+        sender.shutdownNow();
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * The latest packet from a user and when it arrived.
+     */
+    private record RemotePresence(PresencePacket packet, long receivedAt) {
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * PresenceServer.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class relays the cursors of the users of a board, and the shapes they are dragging out
+ * but have not drawn yet, over UDP on the port number of the server. These are sent many times
+ * a second and each one replaces the last, so a lost or late packet does not matter and they
+ * are kept off the connection that carries the shapes. A client is given a ticket over that
+ * connection when it joins a board, and the server only relays packets that carry a ticket,
+ * to the clients of the same board, from the address they last came from.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PresenceServer {
+    // Packets from one client closer together than this are dropped, the next one replaces them anyway
+    private static final long MIN_INTERVAL_NANOS = 10_000_000;
+    private final ServerMetrics metrics;
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, Member> members = new ConcurrentHashMap<>();
+    private final Map<Board, Set<Member>> boards = new ConcurrentHashMap<>();
+    private DatagramSocket socket;
+    private Thread receiver;
+
+    /**
+     * Constructor for PresenceServer. It listens on the given port if it is free, and on any
+     * port otherwise, since clients learn the port from their ticket.
+     *
+     * @param port the port of the server
+     * @param metrics where to count the packets relayed
+     */
+    public PresenceServer(int port, ServerMetrics metrics) {
+        this.metrics = metrics;
+        try {
+            try {
+                socket = new DatagramSocket(port);
+            } catch (SocketException e) {
+                socket = new DatagramSocket(0);
+            }
+        } catch (SocketException e) {
+            System.out.println("Error creating presence socket: " + e.getMessage());
+        }
+        metrics.registerGauge("presence_members", members::size);
+    }
+
+    /**
+     * Starts relaying packets on a thread of its own.
+     */
+    public void start() {
+        if (socket == null || receiver != null) {
+            return;
+        }
+        receiver = new Thread(this::receive, "presence");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Stops relaying packets.
+     */
+    public void stop() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Gives a client on a board a ticket to send its presence with.
+     *
+     * @param client the client
+     * @param board the board it joined
+     * @return the ticket, or null if presence is not relayed
+     */
+    public PresenceTicket register(ClientHandler client, Board board) {
+        if (socket == null || socket.isClosed()) {
+            return null;
+        }
+        Member member = new Member(nextId.incrementAndGet(), random.nextLong(), client, board);
+        members.put(member.id, member);
+        boards.computeIfAbsent(board, key -> ConcurrentHashMap.newKeySet()).add(member);
+        return new PresenceTicket(member.id, member.secret, socket.getLocalPort());
+    }
+
+    /**
+     * Stops relaying the packets of a client that left its board.
+     *
+     * @param ticket the ticket it was given, or null
+     */
+    public void unregister(PresenceTicket ticket) {
+        if (ticket == null) {
+            return;
+        }
+        Member member = members.remove(ticket.id());
+        if (member != null) {
+            Set<Member> onBoard = boards.get(member.board);
+            if (onBoard != null) {
+                onBoard.remove(member);
+            }
+        }
+    }
+
+    /**
+     * Reads packets and passes them on to the other clients on the same board, until the
+     * socket is closed.
+     */
+    private void receive() {
+        byte[] buffer = new byte[PresencePacket.MAX_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+                socket.receive(datagram);
+                relay(datagram);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("Error relaying presence: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Relays a packet if it carries a valid ticket and is newer than the last one from its
+     * client. The username is the one the server knows, whatever the packet says.
+     *
+     * @param datagram the packet received
+     * @throws IOException if it cannot be sent on
+     */
+    private void relay(DatagramPacket datagram) throws IOException {
+        PresencePacket packet;
+        try {
+            packet = PresencePacket.decode(datagram.getData(), datagram.getLength());
+        } catch (IOException e) {
+            metrics.increment("presence_packets_dropped_total");
+            return;
+        }
+        Member member = members.get(packet.id());
+        long now = System.nanoTime();
+        if (member == null || member.secret != packet.secret() || packet.seq() <= member.lastSeq
+                || now - member.lastRelayed < MIN_INTERVAL_NANOS) {
+            metrics.increment("presence_packets_dropped_total");
+            return;
+        }
+        member.lastSeq = packet.seq();
+        member.lastRelayed = now;
+        member.address = datagram.getSocketAddress();
+        metrics.increment("presence_packets_in_total");
+
+        byte[] relayed = packet.relayed(member.client.getUsername()).encode();
+        for (Member other : boards.getOrDefault(member.board, Set.of())) {
+            SocketAddress address = other.address;
+            if (other != member && address != null) {
+                socket.send(new DatagramPacket(relayed, relayed.length, address));
+                metrics.increment("presence_packets_out_total");
+            }
+        }
+    }
+
+    /**
+     * A client that was given a ticket, and where its packets last came from.
+     */
+    private static class Member {
+        private final long id;
+        private final long secret;
+        private final ClientHandler client;
+        private final Board board;
+        private volatile SocketAddress address;
+        // Only touched by the thread relaying packets
+        private long lastSeq;
+        private long lastRelayed = System.nanoTime() - MIN_INTERVAL_NANOS;
+
+        Member(long id, long secret, ClientHandler client, Board board) {
+            this.id = id;
+            this.secret = secret;
+            this.client = client;
+            this.board = board;
+        }
+    }
+}
+
+/**
+ * Sent to a client over its connection when it joins a board: the id and secret to put in its
+ * presence packets, and the UDP port to send them to.
+ */
+record PresenceTicket(long id, long secret, int port) implements Serializable {
+}
+
+/**
+ * Where a user's cursor is and the shape they are dragging out, in canvas coordinates. Sent
+ * by a client with its ticket, and relayed by the server with the secret left out and the
+ * username filled in. The tool is empty when no shape is being dragged out.
+ */
+record PresencePacket(long id, long secret, long seq, String username, int cursorX, int cursorY,
+                      String tool, int x1, int y1, int x2, int y2, int rgb) {
+    static final int MAX_SIZE = 512;
+    // The cursor is off the canvas
+    static final int NO_CURSOR = Integer.MIN_VALUE;
+    private static final int MAGIC = 0x57425031;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    boolean hasCursor() {
+        return cursorX != NO_CURSOR;
+    }
+
+    boolean hasPreview() {
+        return !tool.isEmpty();
+    }
+
+    /**
+     * Returns the packet as relayed to other clients.
+     *
+     * @param username the username the server knows the sender by
+     * @return the packet without the secret
+     */
+    PresencePacket relayed(String username) {
+        String name = username == null ? "" : username;
+        return new PresencePacket(id, 0, seq, name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name,
+                cursorX, cursorY, tool, x1, y1, x2, y2, rgb);
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(id);
+        out.writeLong(secret);
+        out.writeLong(seq);
+        out.writeUTF(username);
+        out.writeInt(cursorX);
+        out.writeInt(cursorY);
+        out.writeUTF(tool);
+        out.writeInt(x1);
+        out.writeInt(y1);
+        out.writeInt(x2);
+        out.writeInt(y2);
+        out.writeInt(rgb);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a packet received over UDP.
+     *
+     * @param data the bytes received
+     * @param length how many of them there are
+     * @return the packet
+     * @throws IOException if the bytes are not a presence packet
+     */
+    static PresencePacket decode(byte[] data, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a presence packet");
+        }
+        return new PresencePacket(in.readLong(), in.readLong(), in.readLong(), in.readUTF(), in.readInt(),
+                in.readInt(), in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    }
+}
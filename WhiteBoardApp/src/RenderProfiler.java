@@ -0,0 +1,228 @@
+/**
+ * RenderProfiler.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class measures how long a canvas takes to paint, and how much work is waiting for the
+ * Swing thread. It can draw what it measured over the canvas, and keeps a rolling log of the
+ * slow frames together with the number of shapes they drew, so jank can be related to the
+ * size of the board. The log is kept in the temporary directory unless set with
+ * -Dwhiteboard.profiler.log, and frames slower than -Dwhiteboard.profiler.slowFrameMs are logged.
+ */
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RenderProfiler {
+    private static final long SLOW_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("whiteboard.profiler.slowFrameMs", 50));
+    // The log is rolled over to a .1 file once it grows past this size
+    private static final long MAX_LOG_BYTES = 1 << 20;
+    // Slow frames shown over the canvas
+    private static final int RECENT_SLOW_FRAMES = 5;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+    private final String name;
+    private final ArrayDeque<String> recentSlowFrames = new ArrayDeque<>();
+    // Board updates read from the server and not applied yet, and how many of them wait for the Swing thread
+    private final AtomicInteger pendingUpdates = new AtomicInteger();
+    private final AtomicInteger queuedOnSwingThread = new AtomicInteger();
+    private final ExecutorService logExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "profiler-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+    private File logFile;
+    private BufferedWriter log;
+    private volatile boolean overlayShown;
+    private long slowFrames;
+    // Frames of the second being measured, and the figures of the last whole second
+    private long windowStart = System.nanoTime();
+    private int windowFrames;
+    private long windowNanos;
+    private long windowMaxNanos;
+    private int framesPerSecond;
+    private double averageMillis;
+    private double maxMillis;
+    private double lastMillis;
+    private int lastDrawn;
+    private int lastCulled;
+
+    /**
+     * Constructor for RenderProfiler.
+     *
+     * @param name the name the log is kept under, such as the username
+     */
+    public RenderProfiler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Notes a board update read from the server, which is applied later on the Swing thread.
+     */
+    public void updateRead() {
+        pendingUpdates.incrementAndGet();
+    }
+
+    /**
+     * Notes that an update read from the server has been handed to the Swing thread.
+     */
+    public void updateQueued() {
+        queuedOnSwingThread.incrementAndGet();
+    }
+
+    /**
+     * Notes that the Swing thread has applied an update read from the server.
+     */
+    public void updateApplied() {
+        queuedOnSwingThread.decrementAndGet();
+        pendingUpdates.decrementAndGet();
+    }
+
+    /**
+     * Records a frame painted by the canvas. Called on the Swing thread.
+     *
+     * @param startNanos when painting started
+     * @param drawn the shapes drawn
+     * @param culled the shapes left out because they were not visible
+     */
+    public void frame(long startNanos, int drawn, int culled) {
+        long end = System.nanoTime();
+        long nanos = end - startNanos;
+        lastMillis = nanos / 1e6;
+        lastDrawn = drawn;
+        lastCulled = culled;
+        if (end - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            rollWindow(end);
+        }
+        windowFrames++;
+        windowNanos += nanos;
+        windowMaxNanos = Math.max(windowMaxNanos, nanos);
+        if (nanos >= SLOW_FRAME_NANOS) {
+            slowFrame(lastMillis, drawn, culled);
+        }
+    }
+
+    /**
+     * Starts measuring a new second, keeping the figures of the last one. Seconds without a
+     * frame count as none painted.
+     *
+     * @param now the time
+     */
+    private void rollWindow(long now) {
+        boolean lastSecond = now - windowStart < TimeUnit.SECONDS.toNanos(2);
+        framesPerSecond = lastSecond ? windowFrames : 0;
+        averageMillis = lastSecond && windowFrames > 0 ? windowNanos / 1e6 / windowFrames : 0;
+        maxMillis = lastSecond ? windowMaxNanos / 1e6 : 0;
+        windowStart = now;
+        windowFrames = 0;
+        windowNanos = 0;
+        windowMaxNanos = 0;
+    }
+
+    /**
+     * Keeps a slow frame to show over the canvas and logs it.
+     *
+     * @param millis how long the frame took
+     * @param drawn the shapes drawn
+     * @param culled the shapes left out
+     */
+    private void slowFrame(double millis, int drawn, int culled) {
+        slowFrames++;
+        String entry = String.format("%s %7.1f ms %7d drawn %7d culled %4d queued %4d pending",
+                timeFormat.format(new Date()), millis, drawn, culled, queuedOnSwingThread.get(),
+                pendingUpdates.get());
+        recentSlowFrames.addLast(entry);
+        if (recentSlowFrames.size() > RECENT_SLOW_FRAMES) {
+            recentSlowFrames.removeFirst();
+        }
+        logExecutor.execute(() -> writeLog(entry));
+    }
+
+    /**
+     * Appends a line to the log, rolling it over once it is too large. Runs on the log thread.
+     *
+     * @param line the line
+     */
+    private void writeLog(String line) {
+        try {
+            if (log == null) {
+                logFile = new File(System.getProperty("whiteboard.profiler.log",
+                        System.getProperty("java.io.tmpdir") + "/whiteboard-slow-frames-" + name + ".log"));
+                log = new BufferedWriter(new FileWriter(logFile, true));
+            } else if (logFile.length() > MAX_LOG_BYTES) {
+                log.close();
+                File previous = new File(logFile.getPath() + ".1");
+                if (!previous.delete() && previous.exists() || !logFile.renameTo(previous)) {
+                    System.err.println("Error rolling over slow frame log " + logFile);
+                }
+                log = new BufferedWriter(new FileWriter(logFile, true));
+            }
+            log.write(line);
+            log.newLine();
+            log.flush();
+        } catch (IOException e) {
+            System.err.println("Error logging slow frame: " + e.getMessage());
+        }
+    }
+
+    public boolean isOverlayShown() {
+        return overlayShown;
+    }
+
+    public void setOverlayShown(boolean overlayShown) {
+        this.overlayShown = overlayShown;
+    }
+
+    /**
+     * Draws the figures over the top left corner of the canvas. Called on the Swing thread,
+     * after the frame has been measured.
+     *
+     * @param g the graphics of the canvas, in screen coordinates
+     * @param shapes the shapes the canvas holds
+     */
+    public void drawOverlay(Graphics2D g, int shapes) {
+        if (System.nanoTime() - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            rollWindow(System.nanoTime());
+        }
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(String.format("frame %6.1f ms  avg %6.1f  max %6.1f  %3d fps", lastMillis, averageMillis,
+                maxMillis, framesPerSecond));
+        lines.add(String.format("shapes %d  drawn %d  culled %d", shapes, lastDrawn, lastCulled));
+        lines.add(String.format("Swing queue %d  pending ops %d", queuedOnSwingThread.get(), pendingUpdates.get()));
+        lines.add(String.format("slow frames (>= %d ms) %d", TimeUnit.NANOSECONDS.toMillis(SLOW_FRAME_NANOS),
+                slowFrames));
+        if (!recentSlowFrames.isEmpty()) {
+            lines.add("");
+            lines.addAll(recentSlowFrames);
+        }
+
+        g.setFont(FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        int lineHeight = metrics.getHeight();
+        g.setColor(BACKGROUND);
+        g.fillRect(4, 4, width + 12, lineHeight * lines.size() + 8);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.size(); i++) {
+            g.drawString(lines.get(i), 10, 8 + metrics.getAscent() + i * lineHeight);
+        }
+    }
+}
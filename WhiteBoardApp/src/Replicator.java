@@ -0,0 +1,106 @@
+/**
+ * Replicator.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class streams the operations of every board to standby servers. Operations are
+ * queued per standby and sent from the standby's own thread, so drawing on the primary
+ * never waits for replication.
+ */
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+public class Replicator {
+    private static final int HEARTBEAT_INTERVAL = 500;
+    private final WhiteboardServer server;
+    private final CopyOnWriteArrayList<BlockingQueue<ReplicatedOperation>> queues = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor for the Replicator class.
+     *
+     * @param server the primary server whose boards are replicated
+     */
+    public Replicator(WhiteboardServer server) {
+        this.server = server;
+        server.getMetrics().registerGauge("replication_backlog_ops",
+                () -> queues.stream().mapToLong(BlockingQueue::size).max().orElse(0));
+        server.getMetrics().registerGauge("replication_standbys", queues::size);
+    }
+
+    /**
+     * Queues an operation for every connected standby.
+     *
+     * @param boardName name of the board the operation was applied to
+     * @param operation the operation
+     */
+    public void publish(String boardName, BoardOperation operation) {
+        for (BlockingQueue<ReplicatedOperation> queue : queues) {
+            queue.offer(new ReplicatedOperation(boardName, operation, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Streams every board to a standby, first as the history kept of each board and then
+     * as each new operation, until the standby disconnects. Heartbeats are sent while idle
+     * so the standby can tell a quiet primary from a failed one.
+     *
+     * @param socket the connection to the standby
+     * @param out the stream to the standby
+     * @param hello where clients can reach the standby
+     */
+    public void serve(Socket socket, ObjectOutputStream out, ReplicaHello hello) {
+        // Start queueing before the snapshot, the standby ignores operations it already has
+        BlockingQueue<ReplicatedOperation> queue = new LinkedBlockingQueue<>();
+        queues.add(queue);
+        FailoverInfo failover = new FailoverInfo(hello.host(), hello.port());
+        server.setFailover(failover);
+        System.out.println("Standby server " + hello.host() + ":" + hello.port() + " connected.");
+        try {
+            for (Board board : new ArrayList<>(server.getBoards())) {
+                out.writeObject(new ReplicaSnapshot(board.getName(),
+                        board.getHistory().getOperationsFromStart()));
+                out.reset();
+            }
+            while (!socket.isClosed()) {
+                ReplicatedOperation operation = queue.poll(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+                out.writeObject(operation != null ? operation : new ReplicationHeartbeat(System.currentTimeMillis()));
+                out.reset();
+            }
+        } catch (IOException e) {
+            System.out.println("Standby server disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queues.remove(queue);
+            if (failover.equals(server.getFailover())) {
+                server.setFailover(null);
+            }
+        }
+    }
+}
+
+/**
+ * Sent by a standby server instead of a Hello, with the address clients should fail over to.
+ */
+record ReplicaHello(String host, int port) implements Serializable {
+}
+
+/**
+ * The full history of a board, sent to a standby when it connects.
+ */
+record ReplicaSnapshot(String boardName, ArrayList<BoardOperation> operations) implements Serializable {
+}
+
+/**
+ * An operation applied to a board on the primary, and when the primary published it.
+ */
+record ReplicatedOperation(String boardName, BoardOperation operation, long publishedAt) implements Serializable {
+}
+
+/**
+ * Sent to a standby while no operations are pending.
+ */
+record ReplicationHeartbeat(long sentAt) implements Serializable {
+}
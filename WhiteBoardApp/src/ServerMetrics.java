@@ -0,0 +1,197 @@
+/**
+ * ServerMetrics.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class holds the named counters, gauges and latency histograms the server exposes
+ * about itself. Counters only go up; gauges are read from the component that owns the value,
+ * and labelled gauges give one value per board or client. Histograms count durations in
+ * microseconds, and are cheap enough to record on every operation.
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+public class ServerMetrics {
+    private static final String PREFIX = "whiteboard_";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LabelledGauge> labelledGauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Adds to a counter, creating it on first use.
+     *
+     * @param name name of the counter
+     * @param amount amount to add
+     */
+    public void increment(String name, long amount) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Returns a counter to add to directly, such as from a stream that counts bytes.
+     *
+     * @param name name of the counter
+     * @return the counter
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Records a duration in a histogram, creating it on first use.
+     *
+     * @param name name of the histogram, ending with its unit
+     * @param micros the duration in microseconds
+     */
+    public void record(String name, long micros) {
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(micros);
+    }
+
+    /**
+     * Records the time since a start in a histogram.
+     *
+     * @param name name of the histogram, ending with its unit
+     * @param startNanos the start, from System.nanoTime()
+     */
+    public void recordSince(String name, long startNanos) {
+        record(name, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name.
+     *
+     * @param name name of the gauge
+     * @param gauge supplies the current value of the gauge
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Registers a gauge with one value per board, client or other label value, replacing any
+     * gauge with the same name.
+     *
+     * @param name name of the gauge
+     * @param label name of the label
+     * @param values supplies the current value for each label value
+     */
+    public void registerGauge(String name, String label, Supplier<Map<String, Long>> values) {
+        labelledGauges.put(name, new LabelledGauge(label, values));
+    }
+
+    /**
+     * Returns the current value of every counter and gauge, and the count and percentiles of
+     * every histogram, sorted by name. Labelled values are named name{label="value"}.
+     *
+     * @return the metric values
+     */
+    public Map<String, Long> snapshot() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        labelledGauges.forEach((name, gauge) -> gauge.values().get().forEach(
+                (labelValue, value) -> values.put(name + labels(gauge.label(), labelValue), value)));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + "_count", histogram.getCount());
+            values.put(name + "_p50", histogram.getPercentile(0.5));
+            values.put(name + "_p99", histogram.getPercentile(0.99));
+            values.put(name + "_p999", histogram.getPercentile(0.999));
+            values.put(name + "_max", histogram.getMax());
+        });
+        return values;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format. Histograms are written as
+     * summaries of their percentiles.
+     *
+     * @return the metrics
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        new TreeMap<>(counters).forEach((name, counter) -> {
+            text.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+            text.append(PREFIX).append(name).append(' ').append(counter.sum()).append('\n');
+        });
+        new TreeMap<>(gauges).forEach((name, gauge) -> {
+            text.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+            text.append(PREFIX).append(name).append(' ').append(gauge.getAsLong()).append('\n');
+        });
+        new TreeMap<>(labelledGauges).forEach((name, gauge) -> {
+            text.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+            new TreeMap<>(gauge.values().get()).forEach((labelValue, value) -> text.append(PREFIX).append(name)
+                    .append(labels(gauge.label(), labelValue)).append(' ').append(value).append('\n'));
+        });
+        new TreeMap<>(histograms).forEach((name, histogram) -> {
+            text.append("# TYPE ").append(PREFIX).append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                text.append(PREFIX).append(name).append(labels("quantile", String.valueOf(quantile))).append(' ')
+                        .append(histogram.getPercentile(quantile)).append('\n');
+            }
+            text.append(PREFIX).append(name).append("_sum ").append(histogram.getSum()).append('\n');
+            text.append(PREFIX).append(name).append("_count ").append(histogram.getCount()).append('\n');
+        });
+        return text.toString();
+    }
+
+    private static String labels(String label, String value) {
+        return "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"}";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        snapshot().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+}
+
+/**
+ * A gauge with one value per value of its label.
+ */
+record LabelledGauge(String label, Supplier<Map<String, Long>> values) {
+}
+
+/**
+ * Counts the bytes written through it, such as to the socket of a client.
+ */
+class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder count;
+
+    /**
+     * Constructor for CountingOutputStream.
+     *
+     * @param out the stream to write to
+     * @param count the counter to add the bytes written to
+     */
+    CountingOutputStream(OutputStream out, LongAdder count) {
+        super(out);
+        this.count = count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count.add(len);
+    }
+}
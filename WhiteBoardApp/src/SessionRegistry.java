@@ -0,0 +1,156 @@
+/**
+ * SessionRegistry.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class keeps the sessions of the clients of a server. A client is given a session
+ * token when it joins and presents it when it reconnects after its connection dropped, so
+ * it takes the place of its old connection, which the server may not have noticed is gone
+ * yet, and is not asked to be approved again. Sessions are forgotten a while after their
+ * client disconnects.
+ */
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class SessionRegistry {
+    private static final long SESSION_TTL = TimeUnit.MINUTES.toMillis(10);
+    private static final int TOKEN_BYTES = 16;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Finds the session with the given token, if it is still kept and belongs to the given
+     * user and board.
+     *
+     * @param token the token the client presented, or null
+     * @param username the username of the client
+     * @param boardName the board the client joins
+     * @return the session, or null if there is none to resume
+     */
+    public Session find(String token, String username, String boardName) {
+        expire();
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null && session.username().equals(username) && session.boardName().equals(boardName)) {
+            return session;
+        }
+        return null;
+    }
+
+    /**
+     * Resumes the session with the given token for a new connection, or opens a new session
+     * if the token is unknown, expired, revoked or belongs to another user or board.
+     *
+     * @param token the token the client presented, or null
+     * @param username the username of the client
+     * @param boardName the board the client joins
+     * @return the session
+     */
+    public Session open(String token, String username, String boardName) {
+        Session session = find(token, username, boardName);
+        if (session != null) {
+            return session;
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        session = new Session(HexFormat.of().formatHex(bytes), username, boardName);
+        sessions.put(session.token(), session);
+        return session;
+    }
+
+    /**
+     * Forgets the sessions of a user on a board, such as one who was kicked, so their token
+     * no longer lets them back in without being approved again.
+     *
+     * @param boardName the board
+     * @param username the user
+     */
+    public void revoke(String boardName, String username) {
+        for (Session session : sessions.values()) {
+            if (session.username().equals(username) && session.boardName().equals(boardName)) {
+                session.setApproved(false);
+                sessions.remove(session.token(), session);
+            }
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now, SESSION_TTL));
+    }
+}
+
+/**
+ * The session of a user on a board, which outlives any one connection of the user.
+ */
+class Session {
+    private final String token;
+    private final String username;
+    private final String boardName;
+    private volatile boolean approved;
+    private ClientHandler connection;
+    private long releasedAt = System.currentTimeMillis();
+
+    Session(String token, String username, String boardName) {
+        this.token = token;
+        this.username = username;
+        this.boardName = boardName;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    public String username() {
+        return username;
+    }
+
+    public String boardName() {
+        return boardName;
+    }
+
+    public boolean isApproved() {
+        return approved;
+    }
+
+    public void setApproved(boolean approved) {
+        this.approved = approved;
+    }
+
+    public synchronized ClientHandler connection() {
+        return connection;
+    }
+
+    /**
+     * Makes a connection the current one of the session.
+     *
+     * @param newConnection the connection
+     * @return the connection it replaces, or null if there was none
+     */
+    public synchronized ClientHandler attach(ClientHandler newConnection) {
+        ClientHandler old = connection;
+        connection = newConnection;
+        return old;
+    }
+
+    /**
+     * Ends a connection of the session, unless another connection has replaced it already.
+     *
+     * @param oldConnection the connection that ended
+     */
+    public synchronized void detach(ClientHandler oldConnection) {
+        if (connection == oldConnection) {
+            connection = null;
+            releasedAt = System.currentTimeMillis();
+        }
+    }
+
+    synchronized boolean isExpired(long now, long ttl) {
+        return connection == null && now - releasedAt > ttl;
+    }
+}
@@ -2,16 +2,39 @@
  * Shape.java
  * Author: Marshall Zhang
  * Student ID: 1160040
- * These classes are used to define the shapes that can be drawn on the canvas.
+ * These classes are used to define the shapes that can be drawn on the canvas. Each shape
+ * builds the geometry it is drawn with the first time it is drawn, and keeps it for every
+ * frame after until the shape changes.
  */
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 abstract class Shape implements Serializable {
+    // Pinned so boards saved before shapes had dots can still be opened
+    @Serial
+    private static final long serialVersionUID = 7983636434861230116L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Shapes are drawn with antialiasing if set with -Dwhiteboard.render.antialias
+    private static final boolean ANTIALIAS = Boolean.getBoolean("whiteboard.render.antialias");
     protected int startX, startY, endX, endY;
     protected Color color;
+    private Dot dot;
+    private int version;
+    private transient long contentId;
+    // Built on first draw and dropped when the shape changes; shapes can be drawn on several threads
+    private transient volatile java.awt.Shape outline;
 
     /**
      * Constructor for the Shape class
@@ -36,20 +59,212 @@ abstract class Shape implements Serializable {
      * @param g the Graphics object
      */
     public abstract void draw(Graphics g);
+
+    /**
+     * Returns the geometry the shape is drawn with, building it the first time.
+     *
+     * @return the geometry, which is never changed once built
+     */
+    protected java.awt.Shape getOutline() {
+        java.awt.Shape cached = outline;
+        if (cached == null) {
+            cached = createOutline();
+            outline = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * Builds the geometry the shape is drawn with. Shapes drawn straight from the graphics
+     * never ask for it.
+     *
+     * @return the geometry
+     */
+    protected java.awt.Shape createOutline() {
+        return getBounds();
+    }
+
+    /**
+     * Draws the outline of the shape in its colour.
+     *
+     * @param g the Graphics object
+     */
+    protected void drawOutline(Graphics g) {
+        g.setColor(color);
+        ((Graphics2D) g).draw(getOutline());
+    }
+
+    /**
+     * Sets the rendering hints shapes are drawn with, turning antialiasing on or off as
+     * configured.
+     *
+     * @param g the graphics shapes are about to be drawn on
+     */
+    public static void applyRenderingHints(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                ANTIALIAS ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                ANTIALIAS ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+    }
+
+    /**
+     * Returns the area of the canvas the shape covers.
+     *
+     * @return the bounds of the shape
+     */
+    public Rectangle2D getBounds() {
+        return bounds(Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+    }
+
+    /**
+     * Checks whether the object eraser, covering an area, touches the pixels the shape draws.
+     *
+     * @param area the area of the eraser
+     * @return true if the shape is hit
+     */
+    public boolean isHitBy(Rectangle2D area) {
+        return getBounds().intersects(area);
+    }
+
+    /**
+     * Widens an area by half a pixel on every side, since a line one pixel wide covers half
+     * a pixel either side of its path.
+     *
+     * @param area the area
+     * @return the wider area
+     */
+    protected static Rectangle2D widen(Rectangle2D area) {
+        return new Rectangle2D.Double(area.getX() - 0.5, area.getY() - 0.5, area.getWidth() + 1, area.getHeight() + 1);
+    }
+
+    /**
+     * Checks whether an area touches the outline of a rectangle or ellipse, which is drawn
+     * one pixel wide: it must touch the shape without lying wholly inside it.
+     *
+     * @param outer the shape with its outline
+     * @param inner the shape without its outline
+     * @param area the area
+     * @return true if the area touches the outline
+     */
+    protected static boolean touchesOutline(java.awt.Shape outer, java.awt.Shape inner, Rectangle2D area) {
+        return outer.intersects(area) && !inner.contains(area);
+    }
+
+    /**
+     * Creates bounds covering the given pixels, so lines and points still have an area.
+     *
+     * @param minX the leftmost pixel
+     * @param minY the topmost pixel
+     * @param maxX the rightmost pixel
+     * @param maxY the bottommost pixel
+     * @return the bounds
+     */
+    protected static Rectangle2D bounds(int minX, int minY, int maxX, int maxY) {
+        return new Rectangle2D.Double(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Returns an identity derived from the content of the shape, so two shapes that look
+     * the same have the same id on every client and across save and open.
+     *
+     * @return the content id of the shape
+     */
+    public long getContentId() {
+        if (contentId == 0) {
+            long hash = mix(FNV_OFFSET, getClass().getName().hashCode());
+            hash = mix(hash, startX);
+            hash = mix(hash, startY);
+            hash = mix(hash, endX);
+            hash = mix(hash, endY);
+            hash = mix(hash, color == null ? 0 : color.getRGB());
+            hash = hashContent(hash);
+            contentId = hash == 0 ? 1 : hash;
+        }
+        return contentId;
+    }
+
+    /**
+     * Mixes the content specific to a subclass into the content id.
+     *
+     * @param hash the hash so far
+     * @return the updated hash
+     */
+    protected long hashContent(long hash) {
+        return hash;
+    }
+
+    /**
+     * Records that the shape has changed, so replicas keep the newest version of it and the
+     * cached content id and geometry are rebuilt.
+     */
+    protected void markChanged() {
+        version++;
+        contentId = 0;
+        outline = null;
+    }
+
+    public Dot getDot() {
+        return dot;
+    }
+
+    public void setDot(Dot dot) {
+        this.dot = dot;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of a shape rebuilt from stored content, so it matches the shape it was stored from.
+     *
+     * @param version the version
+     */
+    void setVersion(int version) {
+        this.version = version;
+        contentId = 0;
+    }
+
+    /**
+     * Mixes an int into a 64-bit FNV-1a hash.
+     *
+     * @param hash the hash so far
+     * @param value the value to mix in
+     * @return the updated hash
+     */
+    protected static long mix(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
 }
 
 /**
  * The Line class is used to draw a line on the canvas
  */
 class Line extends Shape {
+    @Serial
+    private static final long serialVersionUID = 4481561863156290524L;
+
     public Line(int startX, int startY, int endX, int endY, Color color) {
         super(startX, startY, endX, endY, color);
     }
 
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
-        g.drawLine(startX, startY, endX, endY);
+        drawOutline(g);
+    }
+
+    @Override
+    protected java.awt.Shape createOutline() {
+        return new Line2D.Float(startX, startY, endX, endY);
+    }
+
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        return getOutline().intersects(widen(area));
     }
 }
 
@@ -57,14 +272,28 @@ class Line extends Shape {
  * The Rectangle class is used to draw a rectangle on the canvas
  */
 class Rectangle extends Shape {
+    @Serial
+    private static final long serialVersionUID = -919242446281575955L;
+
     public Rectangle(int startX, int startY, int width, int height, Color color) {
         super(startX, startY, startX + width, startY + height, color);
     }
 
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
-        g.drawRect(startX, startY, endX - startX, endY - startY);
+        drawOutline(g);
+    }
+
+    @Override
+    protected java.awt.Shape createOutline() {
+        return new Rectangle2D.Float(startX, startY, endX - startX, endY - startY);
+    }
+
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        Rectangle2D outer = getBounds();
+        return touchesOutline(outer, new Rectangle2D.Double(outer.getX() + 1, outer.getY() + 1,
+                outer.getWidth() - 2, outer.getHeight() - 2), area);
     }
 }
 
@@ -72,14 +301,29 @@ class Rectangle extends Shape {
  * The Oval class is used to draw an oval on the canvas
  */
 class Oval extends Shape {
+    @Serial
+    private static final long serialVersionUID = 5682109034903007786L;
+
     public Oval(int startX, int startY, int width, int height, Color color) {
         super(startX, startY, startX + width, startY + height, color);
     }
 
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
-        g.drawOval(startX, startY, endX - startX, endY - startY);
+        drawOutline(g);
+    }
+
+    @Override
+    protected java.awt.Shape createOutline() {
+        return new Ellipse2D.Float(startX, startY, endX - startX, endY - startY);
+    }
+
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        Rectangle2D bounds = getBounds();
+        return touchesOutline(new Ellipse2D.Double(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()),
+                new Ellipse2D.Double(bounds.getX() + 1, bounds.getY() + 1, bounds.getWidth() - 2, bounds.getHeight() - 2),
+                area);
     }
 }
 
@@ -87,14 +331,28 @@ class Oval extends Shape {
  * The Circle class is used to draw a circle on the canvas
  */
 class Circle extends Shape {
+    @Serial
+    private static final long serialVersionUID = -4890769588443014989L;
+
     public Circle(int startX, int startY, int diameter, Color color) {
         super(startX, startY, startX + diameter, startY + diameter, color);
     }
 
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
-        g.drawOval(startX, startY, endX - startX, endX - startX);
+        drawOutline(g);
+    }
+
+    @Override
+    protected java.awt.Shape createOutline() {
+        return new Ellipse2D.Float(startX, startY, endX - startX, endX - startX);
+    }
+
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        int diameter = endX - startX;
+        return touchesOutline(new Ellipse2D.Double(startX, startY, diameter + 1, diameter + 1),
+                new Ellipse2D.Double(startX + 1, startY + 1, diameter - 1, diameter - 1), area);
     }
 }
 
@@ -102,7 +360,10 @@ class Circle extends Shape {
  * Handles the free draw operation
  */
 class FreeDraw extends Shape {
+    @Serial
+    private static final long serialVersionUID = 4446428453580282252L;
     private ArrayList<Point> points;
+    private transient Rectangle2D bounds;
 
     public FreeDraw(Color color) {
         super(0, 0, 0, 0, color);
@@ -112,16 +373,77 @@ class FreeDraw extends Shape {
 
     public void addPoint(int x, int y) {
         points.add(new Point(x, y));
+        bounds = null;
+        markChanged();
+    }
+
+    List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        if (bounds == null && !points.isEmpty()) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (Point point : points) {
+                minX = Math.min(minX, point.x);
+                minY = Math.min(minY, point.y);
+                maxX = Math.max(maxX, point.x);
+                maxY = Math.max(maxY, point.y);
+            }
+            bounds = bounds(minX, minY, maxX, maxY);
+        }
+        return bounds != null ? bounds : super.getBounds();
+    }
+
+    @Override
+    protected long hashContent(long hash) {
+        for (Point point : points) {
+            hash = mix(hash, point.x);
+            hash = mix(hash, point.y);
+        }
+        return hash;
     }
 
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
+        if (points.size() > 1) {
+            drawOutline(g);
+        }
+    }
+
+    /**
+     * Joins the points into one path, so the stroke is drawn in a single call.
+     *
+     * @return the path
+     */
+    @Override
+    protected java.awt.Shape createOutline() {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points.size());
+        path.moveTo(points.get(0).x, points.get(0).y);
+        for (int i = 1; i < points.size(); i++) {
+            path.lineTo(points.get(i).x, points.get(i).y);
+        }
+        return path;
+    }
+
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        Rectangle2D wide = widen(area);
+        if (!getBounds().intersects(wide)) {
+            return false;
+        }
+        if (points.size() == 1) {
+            return wide.contains(points.get(0));
+        }
         for (int i = 1; i < points.size(); i++) {
             Point p1 = points.get(i - 1);
             Point p2 = points.get(i);
-            g.drawLine(p1.x, p1.y, p2.x, p2.y);
+            if (wide.intersectsLine(p1.x, p1.y, p2.x, p2.y)) {
+                return true;
+            }
         }
+        return false;
     }
 }
 
@@ -129,17 +451,66 @@ class FreeDraw extends Shape {
  * The Text class is used to draw text on the canvas
  */
 class Text extends Shape {
+    @Serial
+    private static final long serialVersionUID = -4657432405399175336L;
+    // Generous estimate of the size of a character in the default font
+    private static final int CHAR_WIDTH = 10;
+    private static final int CHAR_HEIGHT = 16;
     private String text;
+    // Laid out for the font and render context it was last drawn with
+    private transient volatile Layout layout;
 
     public Text(int startX, int startY, String text, Color color) {
         super(startX, startY, startX, startY, color);
         this.text = text;
     }
 
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Draws the text from its laid out glyphs, laying it out again only when the font or the
+     * way it is rendered changes, such as after zooming.
+     *
+     * @param g the Graphics object
+     */
     @Override
     public void draw(Graphics g) {
-        g.setColor(color);
-        g.drawString(text, startX, startY);
+        if (text.isEmpty()) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        Font font = g2.getFont();
+        FontRenderContext context = g2.getFontRenderContext();
+        Layout cached = layout;
+        if (cached == null || !cached.font().equals(font) || !cached.context().equals(context)) {
+            cached = new Layout(font, context, new TextLayout(text, font, context));
+            layout = cached;
+        }
+        g2.setColor(color);
+        cached.text().draw(g2, startX, startY);
+    }
+
+    /**
+     * Text laid out for a font and render context. A TextLayout rather than bare glyphs, so
+     * right-to-left and combined characters come out as drawString draws them.
+     */
+    private record Layout(Font font, FontRenderContext context, TextLayout text) {
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        // The text is drawn above its baseline
+        return bounds(startX, startY - CHAR_HEIGHT, startX + CHAR_WIDTH * Math.max(1, text.length()), startY + CHAR_HEIGHT / 4);
+    }
+
+    @Override
+    protected long hashContent(long hash) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = mix(hash, text.charAt(i));
+        }
+        return hash;
     }
 }
 
@@ -147,6 +518,8 @@ class Text extends Shape {
  * The Eraser class is used to erase parts of the canvas
  */
 class Eraser extends Shape {
+    @Serial
+    private static final long serialVersionUID = -3689225505682181671L;
     private int size;
 
     public Eraser(int startX, int startY, int size, Color backgroundColor) {
@@ -154,11 +527,37 @@ class Eraser extends Shape {
         this.size = size;
     }
 
+    int getSize() {
+        return size;
+    }
+
     @Override
     public void draw(Graphics g) {
         g.setColor(color);
         g.fillRect(startX - size / 2, startY - size / 2, size, size);
     }
+
+    /**
+     * The object eraser leaves white squares alone, since removing one would bring back
+     * whatever it painted over.
+     *
+     * @param area the area of the eraser
+     * @return false
+     */
+    @Override
+    public boolean isHitBy(Rectangle2D area) {
+        return false;
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return bounds(startX - size / 2, startY - size / 2, startX - size / 2 + size, startY - size / 2 + size);
+    }
+
+    @Override
+    protected long hashContent(long hash) {
+        return mix(hash, size);
+    }
 }
 
 
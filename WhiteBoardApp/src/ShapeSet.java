@@ -0,0 +1,267 @@
+/**
+ * ShapeSet.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class holds the shapes of a board as a conflict-free replicated set. Every shape is
+ * identified by a dot naming the replica that drew it, and removals only remove the dots they
+ * have seen, so a shape added concurrently with a clear survives it. Adds, removals, clears
+ * and merges commute, so the server, its clients, relays and standbys converge to the same
+ * board whatever order the updates arrive in, and the set can be updated from many threads
+ * without a lock.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+public class ShapeSet {
+    // Shapes in drawing order, which every replica agrees on because it is the order of the dots
+    private final ConcurrentSkipListMap<Dot, Shape> live = new ConcurrentSkipListMap<>();
+    // Dots removed one by one, and per replica the counter up to which every dot was cleared
+    private final Set<Dot> tombstones = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Long> cleared = new ConcurrentHashMap<>();
+    // Per replica the highest counter seen, which is what a clear on this replica removes
+    private final ConcurrentHashMap<String, Long> observed = new ConcurrentHashMap<>();
+    private final AtomicLong lamportClock = new AtomicLong();
+
+    /**
+     * Constructor for an empty ShapeSet.
+     */
+    public ShapeSet() {
+    }
+
+    /**
+     * Constructor for a ShapeSet holding the given shapes, which already have dots.
+     *
+     * @param shapes the shapes
+     */
+    public ShapeSet(Collection<Shape> shapes) {
+        for (Shape shape : shapes) {
+            add(shape);
+        }
+    }
+
+    /**
+     * Gives a shape drawn on this replica a new dot, which orders it after every shape seen so far.
+     *
+     * @param shape the new shape
+     * @param replica the id of this replica
+     * @return the shape
+     */
+    public Shape stamp(Shape shape, String replica) {
+        long counter = observed.merge(replica, 1L, Long::sum);
+        shape.setDot(new Dot(lamportClock.incrementAndGet(), replica, counter));
+        return shape;
+    }
+
+    /**
+     * Adds a shape, or replaces an older version of it, unless its dot has been removed.
+     *
+     * @param shape the shape, which must have a dot
+     * @return true if the set changed
+     */
+    public boolean add(Shape shape) {
+        Dot dot = shape.getDot();
+        observe(dot);
+        if (isRemoved(dot)) {
+            return false;
+        }
+        while (true) {
+            Shape existing = live.putIfAbsent(dot, shape);
+            if (existing == null) {
+                break;
+            }
+            if (existing.getVersion() >= shape.getVersion()) {
+                return false;
+            }
+            if (live.replace(dot, existing, shape)) {
+                break;
+            }
+        }
+        // A removal running concurrently may have missed the shape, so check again now it is visible
+        if (isRemoved(dot)) {
+            live.remove(dot, shape);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the shapes with the given dots. A dot removed before its shape arrives stays removed.
+     *
+     * @param dots the dots to remove
+     * @return true if the set changed
+     */
+    public boolean remove(Collection<Dot> dots) {
+        boolean changed = false;
+        for (Dot dot : dots) {
+            // The tombstone goes first so a concurrent add of the dot sees it
+            if (!isRemoved(dot)) {
+                changed |= tombstones.add(dot);
+            }
+            changed |= live.remove(dot) != null;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes every shape whose dot is covered by the given clock, meaning the replica that
+     * cleared the board had seen it. Shapes it had not seen yet survive the clear.
+     *
+     * @param clock per replica, the highest counter to remove
+     * @return true if the set changed
+     */
+    public boolean clear(Map<String, Long> clock) {
+        boolean changed = false;
+        for (Map.Entry<String, Long> entry : clock.entrySet()) {
+            long before = cleared.getOrDefault(entry.getKey(), 0L);
+            changed |= cleared.merge(entry.getKey(), entry.getValue(), Math::max) > before;
+        }
+        if (!changed) {
+            return false;
+        }
+        live.keySet().removeIf(this::isRemoved);
+        // Tombstones under the clock are redundant now
+        tombstones.removeIf(dot -> dot.counter() <= cleared.getOrDefault(dot.replica(), 0L));
+        return true;
+    }
+
+    /**
+     * Merges the full state of another replica into this one.
+     *
+     * @param snapshot the state of the other replica
+     * @return true if the set changed
+     */
+    public boolean merge(BoardSnapshot snapshot) {
+        boolean changed = clear(snapshot.cleared());
+        changed |= remove(snapshot.tombstones());
+        for (Shape shape : snapshot.shapes()) {
+            changed |= add(shape);
+        }
+        snapshot.observed().forEach((replica, counter) -> observed.merge(replica, counter, Math::max));
+        return changed;
+    }
+
+    /**
+     * Applies an update sent between replicas: a shape, a clear, a diff or a full snapshot.
+     *
+     * @param update the update
+     * @return true if the set changed
+     */
+    public boolean apply(Object update) {
+        if (update instanceof Shape shape) {
+            return add(shape);
+        } else if (update instanceof ClearCommand clearCommand) {
+            return clear(clearCommand.getClock() != null ? clearCommand.getClock() : observedClock());
+        } else if (update instanceof BoardDiffCommand diff) {
+            boolean changed = remove(diff.removedDots());
+            for (Shape shape : diff.addedShapes()) {
+                changed |= add(shape);
+            }
+            return changed;
+        } else if (update instanceof BoardSnapshot snapshot) {
+            return merge(snapshot);
+        }
+        return false;
+    }
+
+    /**
+     * Drops shapes from this replica without removing them from the board, such as shapes far
+     * outside the viewport of a client. They are added again if they are sent again.
+     *
+     * @param forget whether to drop a shape
+     */
+    public void forget(Predicate<Shape> forget) {
+        live.values().removeIf(forget);
+    }
+
+    /**
+     * Returns the shape with the given dot.
+     *
+     * @param dot the dot
+     * @return the shape, or null if it is not in the set
+     */
+    public Shape get(Dot dot) {
+        return live.get(dot);
+    }
+
+    /**
+     * Returns the shapes in drawing order. The view is live and safe to iterate while the
+     * set is being updated.
+     *
+     * @return the shapes
+     */
+    public Collection<Shape> values() {
+        return live.values();
+    }
+
+    /**
+     * Returns a copy of the shapes in drawing order.
+     *
+     * @return the shapes
+     */
+    public ArrayList<Shape> shapes() {
+        return new ArrayList<>(live.values());
+    }
+
+    public int size() {
+        return live.size();
+    }
+
+    /**
+     * Returns the highest counter seen from every replica, which a clear issued now removes up to.
+     *
+     * @return the observed clock
+     */
+    public HashMap<String, Long> observedClock() {
+        return new HashMap<>(observed);
+    }
+
+    /**
+     * Returns the full state of the set, for a replica to merge.
+     *
+     * @return the state
+     */
+    public BoardSnapshot snapshot() {
+        return new BoardSnapshot(shapes(), new HashSet<>(tombstones), new HashMap<>(cleared), observedClock());
+    }
+
+    private boolean isRemoved(Dot dot) {
+        return dot.counter() <= cleared.getOrDefault(dot.replica(), 0L) || tombstones.contains(dot);
+    }
+
+    private void observe(Dot dot) {
+        observed.merge(dot.replica(), dot.counter(), Math::max);
+        lamportClock.accumulateAndGet(dot.lamport(), Math::max);
+    }
+}
+
+/**
+ * Identifies a shape: the replica that drew it and how many shapes that replica had drawn.
+ * The Lamport time orders shapes drawn later after the ones their author had already seen.
+ */
+record Dot(long lamport, String replica, long counter) implements Serializable, Comparable<Dot> {
+    @Override
+    public int compareTo(Dot other) {
+        int order = Long.compare(lamport, other.lamport);
+        if (order == 0) {
+            order = replica.compareTo(other.replica);
+        }
+        return order != 0 ? order : Long.compare(counter, other.counter);
+    }
+}
+
+/**
+ * The full state of a board: its shapes and everything that has been removed from it.
+ */
+record BoardSnapshot(ArrayList<Shape> shapes, HashSet<Dot> tombstones, HashMap<String, Long> cleared,
+                     HashMap<String, Long> observed) implements Serializable {
+}
@@ -0,0 +1,612 @@
+/**
+ * ShapeStore.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class holds the content of the shapes of a board outside the Java heap, in columns
+ * of direct buffers: a fixed-size row per shape with its type, packed colour and coordinates,
+ * a column of stroke points and a column of text. The board keeps small StoredShape handles
+ * in place of the shapes clients send, so a large board is a few objects per shape instead
+ * of a colour, a list and an object per point, and holding it barely affects garbage
+ * collection. Versions of a stroke share one row, whose run of points only grows.
+ * A row is freed for reuse once no handle to it is left, wherever the handles were held:
+ * on the board, in its history or on their way to a client.
+ */
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.io.Serial;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ShapeStore {
+    // Row layout, in bytes from the start of the row
+    private static final int TYPE = 0;
+    private static final int COLOR = 4;
+    private static final int X1 = 8;
+    private static final int Y1 = 12;
+    private static final int X2 = 16;
+    private static final int Y2 = 20;
+    // The eraser size, the byte length of a text or the number of points of a stroke
+    private static final int EXTRA = 24;
+    // Where the text or points start, in bytes or points
+    private static final int OFFSET = 28;
+    // How many points fit in the run of a stroke before it is moved
+    private static final int CAPACITY = 32;
+    private static final int ROW_BYTES = 40;
+    private static final int POINT_BYTES = 8;
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_RUN = 16;
+    // Moved runs and freed rows leave dead space behind, which is reclaimed once there is more of it than live content
+    private static final int MIN_DEAD_POINTS_TO_COMPACT = 1 << 16;
+    private static final int MIN_DEAD_TEXT_BYTES_TO_COMPACT = 1 << 19;
+
+    static final byte LINE = 1;
+    static final byte RECTANGLE = 2;
+    static final byte OVAL = 3;
+    static final byte CIRCLE = 4;
+    static final byte FREE_DRAW = 5;
+    static final byte TEXT = 6;
+    static final byte ERASER = 7;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // The row of each shape, as long as some handle to it is left
+    private final HashMap<Dot, RowReference> rowOf = new HashMap<>();
+    private final ReferenceQueue<Row> unreachable = new ReferenceQueue<>();
+    private final ArrayDeque<Integer> freeRows = new ArrayDeque<>();
+    private ByteBuffer rows = ByteBuffer.allocateDirect(INITIAL_ROWS * ROW_BYTES);
+    private ByteBuffer points = ByteBuffer.allocateDirect(INITIAL_ROWS * INITIAL_RUN * POINT_BYTES);
+    private ByteBuffer texts = ByteBuffer.allocateDirect(INITIAL_ROWS * 16);
+    private int rowCount;
+    private int pointsEnd;
+    private int textsEnd;
+    private long livePoints;
+    private long deadPoints;
+    private long deadTextBytes;
+
+    /**
+     * Replaces the shapes in an update with handles to their content in the store, adding the
+     * content the store does not have yet. Shapes of types the store does not know, and
+     * updates without shapes, are returned unchanged.
+     *
+     * @param update a shape, clear, diff or snapshot
+     * @return the update holding stored shapes
+     */
+    public Object intern(Object update) {
+        if (update instanceof Shape shape) {
+            return intern(shape);
+        } else if (update instanceof BoardDiffCommand diff) {
+            return new BoardDiffCommand(diff.removedDots(), internAll(diff.addedShapes()));
+        } else if (update instanceof BoardSnapshot snapshot) {
+            return new BoardSnapshot(internAll(snapshot.shapes()), snapshot.tombstones(), snapshot.cleared(),
+                    snapshot.observed());
+        }
+        return update;
+    }
+
+    private ArrayList<Shape> internAll(Collection<Shape> shapes) {
+        ArrayList<Shape> stored = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            stored.add(intern(shape));
+        }
+        return stored;
+    }
+
+    /**
+     * Stores the content of a shape, or the points a newer version of a stroke added.
+     *
+     * @param shape the shape, which has a dot
+     * @return a handle to the stored shape
+     */
+    public Shape intern(Shape shape) {
+        byte type = typeOf(shape);
+        if (type == 0 || shape.getDot() == null) {
+            return shape;
+        }
+        int pointCount = 0;
+        lock.writeLock().lock();
+        try {
+            if (freeUnreachableRows()) {
+                compactIfWorthIt();
+            }
+            RowReference reference = rowOf.get(shape.getDot());
+            Row row = reference == null ? null : reference.get();
+            if (row == null) {
+                row = new Row(appendRow(shape, type));
+                rowOf.put(shape.getDot(), new RowReference(row, shape.getDot(), unreachable));
+            }
+            if (shape instanceof FreeDraw stroke) {
+                // Only the author adds points to a stroke, so a newer version extends the points stored
+                List<Point> strokePoints = stroke.getPoints();
+                pointCount = strokePoints.size();
+                appendPoints(row.index, strokePoints);
+            }
+            return new StoredShape(this, row, shape.getDot(), shape.getVersion(), pointCount, shape.getBounds());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds a shape from its stored content, such as to send it to a client.
+     *
+     * @param stored the handle to the stored shape
+     * @return the shape
+     */
+    Shape materialize(StoredShape stored) {
+        lock.readLock().lock();
+        try {
+            int base = stored.row() * ROW_BYTES;
+            Color color = new Color(rows.getInt(base + COLOR), true);
+            int x1 = rows.getInt(base + X1), y1 = rows.getInt(base + Y1);
+            int x2 = rows.getInt(base + X2), y2 = rows.getInt(base + Y2);
+            int extra = rows.getInt(base + EXTRA), offset = rows.getInt(base + OFFSET);
+            Shape shape = switch (rows.get(base + TYPE)) {
+                case LINE -> new Line(x1, y1, x2, y2, color);
+                case RECTANGLE -> new Rectangle(x1, y1, x2 - x1, y2 - y1, color);
+                case OVAL -> new Oval(x1, y1, x2 - x1, y2 - y1, color);
+                case CIRCLE -> new Circle(x1, y1, x2 - x1, color);
+                case TEXT -> {
+                    byte[] bytes = new byte[extra];
+                    texts.get(offset, bytes);
+                    yield new Text(x1, y1, new String(bytes, StandardCharsets.UTF_8), color);
+                }
+                case ERASER -> new Eraser(x1, y1, extra, color);
+                default -> {
+                    FreeDraw stroke = new FreeDraw(color);
+                    for (int i = 0; i < stored.pointCount(); i++) {
+                        int at = (offset + i) * POINT_BYTES;
+                        stroke.addPoint(points.getInt(at), points.getInt(at + 4));
+                    }
+                    yield stroke;
+                }
+            };
+            shape.setDot(stored.getDot());
+            shape.setVersion(stored.getVersion());
+            return shape;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits stored shapes without rebuilding them, in the given order. The row passed to the
+     * visitor is only valid during the call.
+     *
+     * @param shapes the shapes to visit; shapes that are not stored are skipped
+     * @param visitor the visitor
+     */
+    public void forEach(Iterable<Shape> shapes, RowVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            Cursor cursor = new Cursor();
+            for (Shape shape : shapes) {
+                if (shape instanceof StoredShape stored && stored.store() == this) {
+                    cursor.base = stored.row() * ROW_BYTES;
+                    cursor.pointCount = stored.pointCount();
+                    visitor.visit(cursor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the runs of points and the texts together, dropping the space left behind by runs
+     * that were moved to grow and by rows that were freed. Rows keep their numbers, so handles
+     * stay valid.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            freeUnreachableRows();
+            ByteBuffer compacted = ByteBuffer.allocateDirect((int) Math.max(livePoints * POINT_BYTES * 5 / 4,
+                    INITIAL_ROWS * POINT_BYTES));
+            ByteBuffer compactedTexts = ByteBuffer.allocateDirect(Math.max((textsEnd - (int) deadTextBytes) * 5 / 4,
+                    INITIAL_ROWS * 16));
+            int end = 0;
+            int textEnd = 0;
+            for (int row = 0; row < rowCount; row++) {
+                int base = row * ROW_BYTES;
+                byte type = rows.get(base + TYPE);
+                int count = rows.getInt(base + EXTRA);
+                if (type == FREE_DRAW) {
+                    compacted.put(end * POINT_BYTES, points, rows.getInt(base + OFFSET) * POINT_BYTES, count * POINT_BYTES);
+                    rows.putInt(base + OFFSET, end);
+                    rows.putInt(base + CAPACITY, count);
+                    end += count;
+                } else if (type == TEXT) {
+                    compactedTexts.put(textEnd, texts, rows.getInt(base + OFFSET), count);
+                    rows.putInt(base + OFFSET, textEnd);
+                    textEnd += count;
+                }
+            }
+            points = compacted;
+            pointsEnd = end;
+            deadPoints = 0;
+            texts = compactedTexts;
+            textsEnd = textEnd;
+            deadTextBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Frees the rows no handle is left to, so their numbers are reused and their points and
+     * text count as dead space until the next compaction. Called with the write lock held.
+     *
+     * @return true if any row was freed
+     */
+    private boolean freeUnreachableRows() {
+        boolean freed = false;
+        for (RowReference reference; (reference = (RowReference) unreachable.poll()) != null; ) {
+            // A newer row may have been made for the shape after its handles were dropped
+            rowOf.remove(reference.dot, reference);
+            int base = reference.index * ROW_BYTES;
+            byte type = rows.get(base + TYPE);
+            if (type == FREE_DRAW) {
+                deadPoints += rows.getInt(base + CAPACITY);
+                livePoints -= rows.getInt(base + EXTRA);
+            } else if (type == TEXT) {
+                deadTextBytes += rows.getInt(base + EXTRA);
+            }
+            rows.put(base + TYPE, (byte) 0);
+            freeRows.push(reference.index);
+            freed = true;
+        }
+        return freed;
+    }
+
+    private void compactIfWorthIt() {
+        if (deadPoints > MIN_DEAD_POINTS_TO_COMPACT && deadPoints > livePoints
+                || deadTextBytes > MIN_DEAD_TEXT_BYTES_TO_COMPACT && deadTextBytes > textsEnd - deadTextBytes) {
+            compact();
+        }
+    }
+
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) rows.capacity() + points.capacity() + texts.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getDeadBytes() {
+        lock.readLock().lock();
+        try {
+            return deadPoints * POINT_BYTES + deadTextBytes + (long) freeRows.size() * ROW_BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getRowCount() {
+        lock.readLock().lock();
+        try {
+            return rowCount - freeRows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static byte typeOf(Shape shape) {
+        Class<?> type = shape.getClass();
+        if (type == Line.class) {
+            return LINE;
+        } else if (type == Rectangle.class) {
+            return RECTANGLE;
+        } else if (type == Oval.class) {
+            return OVAL;
+        } else if (type == Circle.class) {
+            return CIRCLE;
+        } else if (type == FreeDraw.class) {
+            return FREE_DRAW;
+        } else if (type == Text.class) {
+            return TEXT;
+        } else if (type == Eraser.class) {
+            return ERASER;
+        }
+        return 0;
+    }
+
+    private int appendRow(Shape shape, byte type) {
+        int row;
+        if (freeRows.isEmpty()) {
+            rows = ensureCapacity(rows, (rowCount + 1) * ROW_BYTES);
+            row = rowCount++;
+        } else {
+            row = freeRows.pop();
+        }
+        int base = row * ROW_BYTES;
+        rows.put(base + TYPE, type);
+        rows.putInt(base + COLOR, shape.color == null ? 0 : shape.color.getRGB());
+        rows.putInt(base + X1, shape.startX);
+        rows.putInt(base + Y1, shape.startY);
+        rows.putInt(base + X2, shape.endX);
+        rows.putInt(base + Y2, shape.endY);
+        if (shape instanceof Text text) {
+            byte[] bytes = text.getText().getBytes(StandardCharsets.UTF_8);
+            texts = ensureCapacity(texts, textsEnd + bytes.length);
+            texts.put(textsEnd, bytes);
+            rows.putInt(base + EXTRA, bytes.length);
+            rows.putInt(base + OFFSET, textsEnd);
+            textsEnd += bytes.length;
+        } else if (shape instanceof Eraser eraser) {
+            rows.putInt(base + EXTRA, eraser.getSize());
+        } else if (type == FREE_DRAW) {
+            rows.putInt(base + EXTRA, 0);
+            rows.putInt(base + OFFSET, reservePoints(INITIAL_RUN));
+            rows.putInt(base + CAPACITY, INITIAL_RUN);
+        }
+        return row;
+    }
+
+    /**
+     * Appends the points of a stroke that its row does not hold yet. A full run grows in place
+     * if it is the last one, and otherwise moves to the end of the column with twice the room.
+     */
+    private void appendPoints(int row, List<Point> strokePoints) {
+        int base = row * ROW_BYTES;
+        int stored = rows.getInt(base + EXTRA);
+        if (strokePoints.size() <= stored) {
+            return;
+        }
+        int offset = rows.getInt(base + OFFSET);
+        int capacity = rows.getInt(base + CAPACITY);
+        if (strokePoints.size() > capacity) {
+            int newCapacity = Math.max(strokePoints.size(), capacity * 2);
+            if (offset + capacity == pointsEnd) {
+                // The run is the last one in the column, so it grows where it is
+                reservePoints(newCapacity - capacity);
+                rows.putInt(base + CAPACITY, newCapacity);
+                capacity = newCapacity;
+            }
+        }
+        if (strokePoints.size() > capacity) {
+            int newCapacity = Math.max(strokePoints.size(), capacity * 2);
+            int newOffset = reservePoints(newCapacity);
+            points.put(newOffset * POINT_BYTES, points, offset * POINT_BYTES, stored * POINT_BYTES);
+            deadPoints += capacity;
+            offset = newOffset;
+            rows.putInt(base + OFFSET, offset);
+            rows.putInt(base + CAPACITY, newCapacity);
+        }
+        for (int i = stored; i < strokePoints.size(); i++) {
+            Point point = strokePoints.get(i);
+            int at = (offset + i) * POINT_BYTES;
+            points.putInt(at, point.x);
+            points.putInt(at + 4, point.y);
+        }
+        livePoints += strokePoints.size() - stored;
+        rows.putInt(base + EXTRA, strokePoints.size());
+        compactIfWorthIt();
+    }
+
+    private int reservePoints(int count) {
+        points = ensureCapacity(points, (pointsEnd + count) * POINT_BYTES);
+        int offset = pointsEnd;
+        pointsEnd += count;
+        return offset;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (needed <= buffer.capacity()) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(needed, buffer.capacity() * 2));
+        grown.put(0, buffer, 0, buffer.capacity());
+        return grown;
+    }
+
+    /**
+     * A row of the store, held by every handle to it. Once none is left, the row is freed.
+     */
+    static final class Row {
+        final int index;
+
+        private Row(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Finds the row of a shape without keeping it from being freed, and is queued once the
+     * row has no handles left.
+     */
+    private static final class RowReference extends WeakReference<Row> {
+        private final int index;
+        private final Dot dot;
+
+        RowReference(Row row, Dot dot, ReferenceQueue<Row> queue) {
+            super(row, queue);
+            this.index = row.index;
+            this.dot = dot;
+        }
+    }
+
+    /**
+     * A view of one stored shape, read straight from the columns.
+     */
+    private class Cursor implements ShapeRow {
+        private int base;
+        private int pointCount;
+
+        @Override
+        public byte type() {
+            return rows.get(base + TYPE);
+        }
+
+        @Override
+        public int color() {
+            return rows.getInt(base + COLOR);
+        }
+
+        @Override
+        public int x1() {
+            return rows.getInt(base + X1);
+        }
+
+        @Override
+        public int y1() {
+            return rows.getInt(base + Y1);
+        }
+
+        @Override
+        public int x2() {
+            return rows.getInt(base + X2);
+        }
+
+        @Override
+        public int y2() {
+            return rows.getInt(base + Y2);
+        }
+
+        @Override
+        public int size() {
+            return rows.getInt(base + EXTRA);
+        }
+
+        @Override
+        public int pointCount() {
+            return pointCount;
+        }
+
+        @Override
+        public int pointX(int index) {
+            return points.getInt((rows.getInt(base + OFFSET) + index) * POINT_BYTES);
+        }
+
+        @Override
+        public int pointY(int index) {
+            return points.getInt((rows.getInt(base + OFFSET) + index) * POINT_BYTES + 4);
+        }
+
+        @Override
+        public String text() {
+            byte[] bytes = new byte[rows.getInt(base + EXTRA)];
+            texts.get(rows.getInt(base + OFFSET), bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
+
+/**
+ * A stored shape as seen while visiting the store. Which accessors mean something depends on the type.
+ */
+interface ShapeRow {
+    byte type();
+
+    int color();
+
+    int x1();
+
+    int y1();
+
+    int x2();
+
+    int y2();
+
+    // The size of an eraser
+    int size();
+
+    int pointCount();
+
+    int pointX(int index);
+
+    int pointY(int index);
+
+    String text();
+}
+
+interface RowVisitor {
+    void visit(ShapeRow row);
+}
+
+/**
+ * A handle to a shape held in a ShapeStore. It carries what the board needs to merge and
+ * index the shape, and is rebuilt into the shape itself when it is sent or drawn.
+ */
+class StoredShape extends Shape {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final transient ShapeStore store;
+    private final transient ShapeStore.Row row;
+    private final int pointCount;
+    private final int minX, minY, width, height;
+    private transient long storedContentId;
+
+    StoredShape(ShapeStore store, ShapeStore.Row row, Dot dot, int version, int pointCount, Rectangle2D bounds) {
+        super(0, 0, 0, 0, null);
+        this.store = store;
+        this.row = row;
+        this.pointCount = pointCount;
+        this.minX = (int) bounds.getX();
+        this.minY = (int) bounds.getY();
+        this.width = (int) bounds.getWidth();
+        this.height = (int) bounds.getHeight();
+        setDot(dot);
+        setVersion(version);
+    }
+
+    ShapeStore store() {
+        return store;
+    }
+
+    int row() {
+        return row.index;
+    }
+
+    int pointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Rebuilds the shape this handle stands for.
+     *
+     * @return the shape
+     */
+    public Shape materialize() {
+        return store.materialize(this);
+    }
+
+    @Override
+    public void draw(Graphics g) {
+        materialize().draw(g);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D.Double(minX, minY, width, height);
+    }
+
+    @Override
+    public long getContentId() {
+        if (storedContentId == 0) {
+            storedContentId = materialize().getContentId();
+        }
+        return storedContentId;
+    }
+
+    /**
+     * Sends the shape itself, so the other end never sees a handle.
+     *
+     * @return the shape
+     */
+    @Serial
+    private Object writeReplace() {
+        return materialize();
+    }
+}
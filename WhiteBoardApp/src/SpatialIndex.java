@@ -0,0 +1,195 @@
+/**
+ * SpatialIndex.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class indexes the shapes of a board by the grid cells they cover, so the shapes in
+ * an area of an unbounded canvas are found without looking at the whole board. It may hold
+ * shapes that have since been removed; callers check what it returns against the board.
+ */
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+public class SpatialIndex {
+    private static final int CELL_SIZE = 512;
+    // Shapes covering more cells than this are kept aside and returned by every query
+    private static final int MAX_CELLS = 64;
+    private final ConcurrentHashMap<Long, Set<Dot>> cells = new ConcurrentHashMap<>();
+    private final Set<Dot> large = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Dot, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes a shape, or moves it to the cells its newer version covers.
+     *
+     * @param shape the shape, which must have a dot
+     */
+    public void update(Shape shape) {
+        entries.compute(shape.getDot(), (dot, old) -> {
+            if (old != null && old.version() >= shape.getVersion()) {
+                return old;
+            }
+            if (old != null) {
+                unindex(dot, old);
+            }
+            Entry entry = Entry.of(shape);
+            if (entry.cellCount() > MAX_CELLS) {
+                large.add(dot);
+            } else {
+                for (long x = entry.minX(); x <= entry.maxX(); x++) {
+                    for (long y = entry.minY(); y <= entry.maxY(); y++) {
+                        cells.computeIfAbsent(key(x, y), key -> ConcurrentHashMap.newKeySet()).add(dot);
+                    }
+                }
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Removes a shape from the index.
+     *
+     * @param dot the dot of the shape
+     */
+    public void remove(Dot dot) {
+        entries.computeIfPresent(dot, (key, old) -> {
+            unindex(key, old);
+            return null;
+        });
+    }
+
+    /**
+     * Removes every shape that is not to be kept, such as the shapes a clear removed.
+     *
+     * @param keep whether to keep the shape with a dot
+     */
+    public void retainAll(Predicate<Dot> keep) {
+        for (Dot dot : entries.keySet()) {
+            if (!keep.test(dot)) {
+                remove(dot);
+            }
+        }
+    }
+
+    /**
+     * Returns the dots of the shapes that may intersect a region.
+     *
+     * @param region the region of the canvas
+     * @return the dots
+     */
+    public Set<Dot> query(Rectangle2D region) {
+        Set<Dot> result = new HashSet<>(large);
+        long minX = cell(region.getMinX()), maxX = cell(region.getMaxX());
+        long minY = cell(region.getMinY()), maxY = cell(region.getMaxY());
+        if ((maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+            // Zoomed far out, so walking the occupied cells is cheaper than walking the region
+            for (Map.Entry<Long, Set<Dot>> cell : cells.entrySet()) {
+                long x = cell.getKey() >> 32, y = (int) (long) cell.getKey();
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                    result.addAll(cell.getValue());
+                }
+            }
+            return result;
+        }
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                Set<Dot> dots = cells.get(key(x, y));
+                if (dots != null) {
+                    result.addAll(dots);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void unindex(Dot dot, Entry entry) {
+        if (entry.cellCount() > MAX_CELLS) {
+            large.remove(dot);
+            return;
+        }
+        for (long x = entry.minX(); x <= entry.maxX(); x++) {
+            for (long y = entry.minY(); y <= entry.maxY(); y++) {
+                Set<Dot> dots = cells.get(key(x, y));
+                if (dots != null) {
+                    dots.remove(dot);
+                }
+            }
+        }
+    }
+
+    private static long cell(double coordinate) {
+        return (long) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * The cells covered by a version of a shape.
+     */
+    private record Entry(int version, long minX, long minY, long maxX, long maxY) {
+        static Entry of(Shape shape) {
+            Rectangle2D bounds = shape.getBounds();
+            return new Entry(shape.getVersion(), cell(bounds.getMinX()), cell(bounds.getMinY()),
+                    cell(bounds.getMaxX()), cell(bounds.getMaxY()));
+        }
+
+        long cellCount() {
+            return (maxX - minX + 1) * (maxY - minY + 1);
+        }
+    }
+}
+
+/**
+ * The area of the canvas a client shows. The server streams the shapes in the area around
+ * it, and the client forgets shapes that are further away.
+ */
+record Viewport(double x, double y, double width, double height) implements Serializable {
+    // Margins around the viewport, as a fraction of its size
+    private static final double INTEREST_MARGIN = 0.5;
+    private static final double PREFETCH_MARGIN = 0.25;
+    private static final double RETENTION_MARGIN = 1.5;
+
+    /**
+     * Returns the area whose shapes the server streams to the client.
+     *
+     * @return the area of interest
+     */
+    public Rectangle2D interest() {
+        return expand(INTEREST_MARGIN);
+    }
+
+    /**
+     * Returns the area the client can move within before it reports a new viewport, which
+     * lies inside the area of interest so the shapes are there before they come into view.
+     *
+     * @return the prefetched area
+     */
+    public Rectangle2D prefetched() {
+        return expand(PREFETCH_MARGIN);
+    }
+
+    /**
+     * Returns the area whose shapes the client keeps, which is larger than the area of interest
+     * so panning back and forth does not fetch the same shapes again.
+     *
+     * @return the retained area
+     */
+    public Rectangle2D retention() {
+        return expand(RETENTION_MARGIN);
+    }
+
+    public Rectangle2D bounds() {
+        return new Rectangle2D.Double(x, y, width, height);
+    }
+
+    private Rectangle2D expand(double margin) {
+        return new Rectangle2D.Double(x - width * margin, y - height * margin,
+                width * (1 + 2 * margin), height * (1 + 2 * margin));
+    }
+}
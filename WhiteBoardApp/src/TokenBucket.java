@@ -0,0 +1,199 @@
+/**
+ * TokenBucket.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class limits how fast a client may use the server. The bucket refills at a steady
+ * rate up to a burst capacity, and every operation or byte read takes tokens from it.
+ * When it is empty the caller waits, which is how a client that sends too much is slowed down.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor for a full TokenBucket.
+     *
+     * @param ratePerSecond tokens added per second
+     * @param capacity the most tokens the bucket holds, which is the largest burst allowed
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes tokens if the bucket has enough of them.
+     *
+     * @param amount the number of tokens
+     * @return true if the tokens were taken
+     */
+    public synchronized boolean tryAcquire(double amount) {
+        refill();
+        if (tokens < amount) {
+            return false;
+        }
+        tokens -= amount;
+        return true;
+    }
+
+    /**
+     * Takes tokens, waiting until the bucket has enough of them.
+     *
+     * @param amount the number of tokens, at most the capacity
+     * @return the time waited in nanoseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long acquire(double amount) throws InterruptedException {
+        long start = System.nanoTime();
+        awaitAvailable(amount);
+        synchronized (this) {
+            refill();
+            tokens -= amount;
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Waits until the bucket has at least the given number of tokens, without taking them.
+     *
+     * @param amount the number of tokens, at most the capacity
+     * @return the tokens in the bucket, which may be more than asked for
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public double awaitAvailable(double amount) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= amount) {
+                    return tokens;
+                }
+                waitNanos = (long) Math.ceil((amount - tokens) / ratePerNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+        }
+    }
+
+    /**
+     * Takes tokens that have already been used, such as bytes read after waiting for them.
+     * The bucket may go below empty, in which case later callers wait longer.
+     *
+     * @param amount the number of tokens
+     */
+    public synchronized void consume(double amount) {
+        refill();
+        tokens -= amount;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+    }
+}
+
+/**
+ * An input stream that reads no faster than a token bucket allows, one token per byte. While
+ * it waits nothing is read from the socket, so its receive buffer fills and TCP flow control
+ * stops the client from sending more.
+ */
+class ThrottledInputStream extends FilterInputStream {
+    private final TokenBucket budget;
+    private long throttledNanos;
+    private long bytesRead;
+    private volatile long lastReadAt = System.currentTimeMillis();
+
+    /**
+     * Constructor for ThrottledInputStream.
+     *
+     * @param in the stream to read from
+     * @param budget the bucket to take a token from for every byte read
+     */
+    ThrottledInputStream(InputStream in, TokenBucket budget) {
+        super(in);
+        this.budget = budget;
+    }
+
+    @Override
+    public int read() throws IOException {
+        awaitBudget(1);
+        int b = super.read();
+        if (b >= 0) {
+            budget.consume(1);
+            bytesRead++;
+            lastReadAt = System.currentTimeMillis();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        // Read no more than the bucket holds, so a large read cannot overdraw it
+        int allowed = (int) Math.min(len, Math.max(1, awaitBudget(1)));
+        int n = super.read(b, off, allowed);
+        if (n > 0) {
+            budget.consume(n);
+            bytesRead += n;
+            lastReadAt = System.currentTimeMillis();
+        }
+        return n;
+    }
+
+    /**
+     * Returns when a byte was last read, which shows the other end is still there even
+     * while a large object is arriving.
+     *
+     * @return the time in milliseconds
+     */
+    long getLastReadAt() {
+        return lastReadAt;
+    }
+
+    /**
+     * Returns how long reads have waited for the budget so far, and resets the count.
+     *
+     * @return the time waited in nanoseconds
+     */
+    long takeThrottledNanos() {
+        long nanos = throttledNanos;
+        throttledNanos = 0;
+        return nanos;
+    }
+
+    /**
+     * Returns how many bytes have been read so far, and resets the count.
+     *
+     * @return the number of bytes
+     */
+    long takeBytesRead() {
+        long bytes = bytesRead;
+        bytesRead = 0;
+        return bytes;
+    }
+
+    private double awaitBudget(int amount) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return budget.awaitAvailable(amount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        } finally {
+            throttledNanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -11,17 +11,25 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class WhiteboardClient extends JFrame {
+    private static final int FAILOVER_ATTEMPTS = 10;
+    private static final int FAILOVER_RETRY_DELAY = 1000;
+    private static final int RECONNECT_ATTEMPTS = 12;
+    private static final int RECONNECT_INITIAL_DELAY = 250;
+    private static final int RECONNECT_MAX_DELAY = 10000;
     protected Socket socket;
-    protected ObjectOutputStream output;
-    protected ObjectInputStream input;
+    protected MessageChannel channel;
     protected DrawingCanvas canvas;
+    protected JPanel toolPanel;
     protected Color currentColor = Color.BLACK;
     protected int currentEraserSize = 10;
     protected JTextField textField;
@@ -30,8 +38,24 @@ public class WhiteboardClient extends JFrame {
     protected JTextField chatInput;
     protected JTextPane userList;
     protected String username;
+    protected String boardName;
     protected ExecutorService drawingExecutor = Executors.newSingleThreadExecutor();
     protected ExecutorService messagingExecutor = Executors.newSingleThreadExecutor();
+    protected PlaybackWindow playbackWindow;
+    protected LatencyTracer tracer;
+    protected final PresenceClient presence = new PresenceClient();
+    protected boolean joinRequested;
+    protected boolean joinApproved;
+    protected volatile long lastSeq;
+    // Whether the board is shown as a raster whose shapes have not all arrived yet
+    protected volatile boolean detailPending;
+    // For each bulk update announced but not yet received, the sequence number applied when it was announced
+    protected final ConcurrentLinkedDeque<Long> pendingBulk = new ConcurrentLinkedDeque<>();
+    protected volatile FailoverInfo failover;
+    protected volatile String sessionToken;
+    protected volatile boolean stopping;
+    protected String serverAddress;
+    protected int serverPort;
 
     /**
      * Constructor for the WhiteboardClient class.
@@ -41,8 +65,23 @@ public class WhiteboardClient extends JFrame {
      * @param username The username of the client
      */
     public WhiteboardClient(String serverAddress, int serverPort, String username) {
-        super("Distributed Shared Whiteboard: " + username);
+        this(serverAddress, serverPort, username, WhiteboardServer.DEFAULT_BOARD);
+    }
+
+    /**
+     * Constructor for the WhiteboardClient class that joins a named board.
+     *
+     * @param serverAddress The address of the server
+     * @param serverPort The port number of the server
+     * @param username The username of the client
+     * @param boardName The name of the board to join
+     */
+    public WhiteboardClient(String serverAddress, int serverPort, String username, String boardName) {
+        super("Distributed Shared Whiteboard: " + username
+                + (WhiteboardServer.DEFAULT_BOARD.equals(boardName) ? "" : " (" + boardName + ")"));
         this.username = username;
+        this.tracer = new LatencyTracer(username);
+        this.boardName = boardName;
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1000, 750);
         setLocationRelativeTo(null); // Center the window
@@ -50,12 +89,7 @@ public class WhiteboardClient extends JFrame {
         setupUI();
 
         try {
-            socket = new Socket(serverAddress, serverPort);
-            output = new ObjectOutputStream(socket.getOutputStream());
-            input = new ObjectInputStream(socket.getInputStream());
-
-            // Send username immediately after connection
-            sendMessage(username);
+            connect(serverAddress, serverPort);
 
             // Start the dispatcher thread
             Thread dispatcherThread = new Thread(this::dispatchInput);
@@ -68,6 +102,167 @@ public class WhiteboardClient extends JFrame {
         }
     }
 
+    /**
+     * Connects to a server and announces the username and board.
+     *
+     * @param serverAddress The address of the server
+     * @param serverPort The port number of the server
+     * @throws IOException If the connection fails
+     */
+    protected void connect(String serverAddress, int serverPort) throws IOException {
+        connect(serverAddress, serverPort, 0);
+    }
+
+    /**
+     * Connects to a server and announces the username, board and the last update applied.
+     *
+     * @param serverAddress The address of the server
+     * @param serverPort The port number of the server
+     * @param resumeSeq The sequence number to resume from, or 0 to receive the whole board
+     * @throws IOException If the connection fails
+     */
+    protected void connect(String serverAddress, int serverPort, long resumeSeq) throws IOException {
+        if (channel != null) {
+            // Stop the writer of the connection that dropped
+            channel.close();
+        }
+        socket = new Socket(serverAddress, serverPort);
+        channel = MessageChannel.connect(socket.getInputStream(), socket.getOutputStream());
+        channel.startWriter("server", () -> { });
+        pendingBulk.clear();
+        tracer.resetClock();
+        if (detailPending) {
+            // The new server sends the board afresh, in whatever form it chooses
+            detailPending = false;
+            drawingExecutor.submit(() -> SwingUtilities.invokeLater(canvas::dropRaster));
+        }
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+
+        // Send username and board immediately after connection
+        sendCommand(new Hello(username, boardName, resumeSeq, canvas.getViewport(), sessionToken));
+        sendCommand(tracer.probe());
+    }
+
+    /**
+     * Reconnects to the same server after the connection dropped, waiting longer after each
+     * failed attempt. The session token lets the server replace the old connection, and the
+     * last update applied lets it send only what was missed.
+     *
+     * @return true if the client reconnected
+     */
+    protected boolean reconnect() {
+        appendToChatPane("Connection lost. Reconnecting...", false);
+        long delay = RECONNECT_INITIAL_DELAY;
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS && !stopping; attempt++) {
+            try {
+                // Spread the attempts of clients that lost the server at the same moment
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                connect(serverAddress, serverPort, resumeSeq());
+                resume();
+                appendToChatPane("Reconnected.", false);
+                return true;
+            } catch (IOException e) {
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        appendToChatPane("Could not reconnect to the server.", false);
+        return false;
+    }
+
+    /**
+     * Returns the sequence number to resume from after reconnecting. A client that had not
+     * received all the shapes behind a raster asks for the whole board again, and one still
+     * waiting for a bulk update resumes from before it.
+     *
+     * @return the sequence number, or 0 for the whole board
+     */
+    protected long resumeSeq() {
+        if (detailPending) {
+            return 0;
+        }
+        // Updates after an announced bulk update may have overtaken it
+        Long beforeBulk = pendingBulk.peekFirst();
+        return beforeBulk != null ? beforeBulk : lastSeq;
+    }
+
+    /**
+     * Picks up where the client left off on a new connection: asks to join again if it had
+     * asked before, and sends the shapes drawn here again in case the last ones were lost.
+     */
+    protected void resume() {
+        if (joinRequested) {
+            sendJoinRequest(username);
+        }
+        SwingUtilities.invokeLater(canvas::resendOwnShapes);
+    }
+
+    /**
+     * Reconnects to the standby server after the server failed, resuming from the last
+     * update applied. The standby needs a few seconds to notice the failure, so
+     * connecting is retried.
+     *
+     * @return true if the client reconnected
+     */
+    protected boolean failOver() {
+        FailoverInfo target = failover;
+        if (target == null) {
+            return false;
+        }
+        failover = null;
+        for (int attempt = 0; attempt < FAILOVER_ATTEMPTS; attempt++) {
+            try {
+                connect(target.host(), target.port(), resumeSeq());
+                resume();
+                appendToChatPane("Reconnected to the standby server.", false);
+                return true;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(FAILOVER_RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reconnects to the server that owns the board. The new server sends the whole board
+     * on join, which is merged into the canvas, and numbers its updates afresh.
+     *
+     * @param redirect where to reconnect to
+     * @throws IOException If the connection fails
+     */
+    protected void followRedirect(RedirectCommand redirect) throws IOException {
+        socket.close();
+        lastSeq = 0;
+        connect(redirect.host(), redirect.port());
+        if (joinRequested) {
+            sendJoinRequest(username);
+        }
+    }
+
+    /**
+     * Switches the client to a read-only viewer: drawing, tools and chat are disabled,
+     * except for playback of the board history and the latency and render profiles.
+     */
+    protected void enterViewerMode() {
+        canvas.setReadOnly(true);
+        for (Component component : toolPanel.getComponents()) {
+            if (!(component instanceof AbstractButton button && ("Playback".equals(button.getText())
+                    || "Latency".equals(button.getText()) || "Profiler".equals(button.getText())))) {
+                component.setEnabled(false);
+            }
+        }
+        chatInput.setEnabled(false);
+        setTitle(getTitle() + " [view only]");
+    }
+
     /**
      * Sets up the UI components of the client application.
      */
@@ -75,13 +270,13 @@ public class WhiteboardClient extends JFrame {
         canvas = new DrawingCanvas(this);
         add(canvas, BorderLayout.CENTER);
 
-        JPanel toolPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         add(toolPanel, BorderLayout.NORTH);
 
         // Tool selection combo box
         toolPanel.add(new JLabel("Tools:"));
         JComboBox<String> toolSelector = new JComboBox<>(new String[]{"Free Draw", "Line", "Rectangle", "Oval",
-                "Circle", "Eraser", "Text"});
+                "Circle", "Eraser", "Object Eraser", "Text"});
         toolSelector.addActionListener(e -> {
             canvas.setCurrentTool((String) toolSelector.getSelectedItem());
             textField.setEnabled("Text".equals(toolSelector.getSelectedItem()));
@@ -157,6 +352,44 @@ public class WhiteboardClient extends JFrame {
             canvas.setEraserSize(currentEraserSize);
         });
         toolPanel.add(sizeSelector);
+
+        // Playback of the board history
+        JButton playbackButton = new JButton("Playback");
+        playbackButton.addActionListener(e -> {
+            if (playbackWindow == null) {
+                playbackWindow = new PlaybackWindow(this);
+            } else {
+                playbackWindow.refresh();
+            }
+            playbackWindow.setVisible(true);
+        });
+        toolPanel.add(playbackButton);
+
+        // Where the time goes between drawing a shape and seeing it on other clients
+        JButton latencyButton = new JButton("Latency");
+        latencyButton.addActionListener(e -> {
+            JTextArea report = new JTextArea(tracer.report());
+            report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            report.setEditable(false);
+            JOptionPane.showMessageDialog(this, report, "Latency of shapes drawn by others",
+                    JOptionPane.INFORMATION_MESSAGE);
+        });
+        toolPanel.add(latencyButton);
+
+        // Frame times and the work waiting for the Swing thread, over the canvas; F3 toggles it too
+        JToggleButton profilerButton = new JToggleButton("Profiler");
+        profilerButton.addActionListener(e -> {
+            canvas.getProfiler().setOverlayShown(profilerButton.isSelected());
+            canvas.repaint();
+        });
+        toolPanel.add(profilerButton);
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("F3"), "profiler");
+        getRootPane().getActionMap().put("profiler", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                profilerButton.doClick();
+            }
+        });
     }
 
     /**
@@ -165,12 +398,7 @@ public class WhiteboardClient extends JFrame {
      * @param message The message to send
      */
     protected void sendMessage(String message) {
-        try {
-            output.writeObject(message);
-            output.reset();
-        } catch (IOException e) {
-            appendToChatPane("Failed to send message", false);
-        }
+        channel.send(message);
     }
 
     /**
@@ -179,62 +407,190 @@ public class WhiteboardClient extends JFrame {
      * @param shape The shape to send
      */
     public void sendShape(Shape shape) {
-        try {
-            output.writeObject(shape);
-            output.reset();
-        } catch (IOException e) {
-            System.out.println("Failed to send shape: " + e.getMessage());
-        }
+        channel.send(shape);
+    }
+
+    /**
+     * Sends a shape just drawn to the server, traced if it is one of the sample.
+     *
+     * @param shape The shape to send
+     * @param inputMillis The time of the mouse event that drew it, in milliseconds since the epoch
+     */
+    public void sendShape(Shape shape, long inputMillis) {
+        OpTrace trace = tracer.start(inputMillis);
+        channel.send(trace == null ? shape : new TracedUpdate(shape, trace));
+    }
+
+    public LatencyTracer getTracer() {
+        return tracer;
+    }
+
+    public PresenceClient getPresence() {
+        return presence;
+    }
+
+    /**
+     * Shows the join requests waiting on a headless server. Only managers decide them.
+     *
+     * @param requests the requests
+     */
+    protected void showJoinRequests(JoinRequestList requests) {
+    }
+
+    /**
+     * Applies an update of the board on the Swing thread, counting it for the render profiler
+     * until it is applied.
+     *
+     * @param apply applies the update to the canvas
+     */
+    protected void applyLater(Runnable apply) {
+        RenderProfiler profiler = canvas.getProfiler();
+        profiler.updateRead();
+        drawingExecutor.submit(() -> {
+            profiler.updateQueued();
+            SwingUtilities.invokeLater(() -> {
+                profiler.updateApplied();
+                apply.run();
+            });
+        });
     }
 
     /**
      * Dispatches input from the server and processes it accordingly.
      */
     protected void dispatchInput() {
-        try {
-            while (true) {
-                Object object = input.readObject();
-                if (object instanceof String message) {
-                    // Process messages in a separate thread
-                    messagingExecutor.submit(() -> processMessage(message));
-                } else if (object instanceof Shape shape) {
-                    // Add shapes to the canvas in the Swing thread
-                    drawingExecutor.submit(() -> SwingUtilities.invokeLater(() -> canvas.addShape(shape)));
-                } else if (object instanceof ClearCommand) {
-                    // Clear the canvas in the Swing thread
-                    drawingExecutor.submit(() -> SwingUtilities.invokeLater(canvas::clearCanvas));
-                } else if (object instanceof OpenCommand openCommand) {
-                    // Clear the canvas and add all shapes in the OpenCommand
-                    drawingExecutor.submit(() -> SwingUtilities.invokeLater(() -> {
-                        canvas.clearCanvas();
-                        openCommand.getShapes().forEach(canvas::addShape);
-                    }));
-                } else if (object instanceof JoinResponse joinResponse) {
-                    // Handle join response
-                    if (joinResponse.approved()) {
-                        JOptionPane.showMessageDialog(this, "Your join request has been approved.");
-                    } else {
-                        JOptionPane.showMessageDialog(this, "Your join request has been denied.",
-                                "Access Denied", JOptionPane.ERROR_MESSAGE);
-                        System.exit(1);
+        while (true) {
+            try {
+                readInput();
+                return;
+            } catch (IOException | ClassNotFoundException e) {
+                // Handle exceptions
+                System.out.println("Error processing input: " + e.getMessage());
+                if (stopping || !(failOver() || reconnect())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads input from the server until the connection is closed or the client must stop.
+     *
+     * @throws IOException If the connection fails
+     * @throws ClassNotFoundException If the server sends an unknown object
+     */
+    protected void readInput() throws IOException, ClassNotFoundException {
+        while (true) {
+            Object object = channel.read();
+            if (object instanceof BulkPending) {
+                pendingBulk.addLast(lastSeq);
+                continue;
+            }
+            if (MessageChannel.isSequencedBulk(object)) {
+                pendingBulk.pollFirst();
+            }
+            OpTrace trace = null;
+            if (object instanceof SequencedUpdate update) {
+                // Remember how far the board has been applied, to resume from there after a failover.
+                // Updates arrive in order, except ones already covered by the board sent on join
+                lastSeq = Math.max(lastSeq, update.seq());
+                object = update.update();
+                trace = update.trace();
+            }
+            if (object instanceof String message) {
+                // Process messages in a separate thread
+                messagingExecutor.submit(() -> processMessage(message));
+            } else if (object instanceof Shape || object instanceof ClearCommand
+                    || object instanceof BoardDiffCommand || object instanceof BoardSnapshot) {
+                // Apply shapes, clears, opened boards and the whole board in the Swing thread
+                Object boardUpdate = object;
+                if (DrawingCanvas.isBulk(boardUpdate)) {
+                    // Added a slice at a time, so the window stays responsive while a large board loads
+                    canvas.applyInSlices(boardUpdate);
+                } else if (trace != null) {
+                    // Followed until the canvas has painted it
+                    OpTrace boardTrace = trace;
+                    long receivedAt = LatencyTracer.nowMicros();
+                    applyLater(() -> canvas.applyUpdate(boardUpdate, boardTrace, receivedAt));
+                } else {
+                    applyLater(() -> canvas.applyUpdate(boardUpdate));
+                }
+            } else if (object instanceof RasterSnapshot raster) {
+                // Show the board at once, decoding the tiles off the Swing thread
+                detailPending = true;
+                drawingExecutor.submit(() -> canvas.showRaster(raster));
+            } else if (object instanceof VectorDetailComplete) {
+                // Every shape behind the raster has arrived
+                detailPending = false;
+                drawingExecutor.submit(() -> SwingUtilities.invokeLater(canvas::dropRaster));
+            } else if (object instanceof PresenceTicket ticket) {
+                // Cursors and shapes being dragged out are sent to the same host over UDP
+                presence.connect(socket.getInetAddress(), ticket);
+            } else if (object instanceof SessionToken token) {
+                // Presented when reconnecting
+                sessionToken = token.token();
+            } else if (object instanceof Ping ping) {
+                // Answered on the control channel, ahead of any drawing waiting to be sent
+                sendCommand(new Pong(ping.sentAt()));
+                sendCommand(tracer.probe());
+            } else if (object instanceof ClockProbe probe) {
+                // The server's answer, to keep the estimate of its clock fresh
+                tracer.onProbe(probe);
+            } else if (object instanceof HistorySnapshot snapshot) {
+                // Hand the reconstructed board to the playback window
+                SwingUtilities.invokeLater(() -> {
+                    if (playbackWindow != null) {
+                        playbackWindow.showSnapshot(snapshot);
                     }
-                } else if (object instanceof ServerQuitCommand) {
-                    // Handle server quit
-                    handleServerQuit();
-                } else if (object instanceof KickCommand cmd) {
-                    // Handle kick
-                    if (cmd.getUsername().equals(this.username)) {
-                        handleKick();
+                });
+            } else if (object instanceof HistoryChunk chunk) {
+                // Hand the streamed operations to the playback window
+                SwingUtilities.invokeLater(() -> {
+                    if (playbackWindow != null) {
+                        playbackWindow.enqueue(chunk);
                     }
-                } else if (object instanceof UsernameTakenCommand) {
-                    // Handle username taken
-                    handleUsernameTaken();
-                    break;
+                });
+            } else if (object instanceof ViewerModeCommand) {
+                // Watching a relayed board
+                SwingUtilities.invokeLater(this::enterViewerMode);
+            } else if (object instanceof FailoverInfo failoverInfo) {
+                // Where to reconnect if the server fails
+                failover = failoverInfo;
+            } else if (object instanceof RedirectCommand redirect) {
+                // The board lives on another server of the cluster
+                followRedirect(redirect);
+            } else if (object instanceof JoinRequestList requests) {
+                // Only sent to a manager deciding the join requests of a headless server
+                showJoinRequests(requests);
+            } else if (object instanceof JoinPending joinPending) {
+                // The manager has not decided yet
+                appendToChatPane("Waiting for the manager to approve your join request"
+                        + (joinPending.position() > 0 ? " (" + joinPending.position() + " ahead of you)." : "."), false);
+            } else if (object instanceof JoinResponse joinResponse) {
+                // Handle join response, which is asked again after a redirect
+                if (joinResponse.approved()) {
+                    if (!joinApproved) {
+                        joinApproved = true;
+                        JOptionPane.showMessageDialog(this, "Your join request has been approved.");
+                    }
+                } else {
+                    JOptionPane.showMessageDialog(this, "Your join request has been denied.",
+                            "Access Denied", JOptionPane.ERROR_MESSAGE);
+                    System.exit(1);
                 }
+            } else if (object instanceof ServerQuitCommand) {
+                // Handle server quit
+                handleServerQuit();
+            } else if (object instanceof KickCommand cmd) {
+                // Handle kick
+                if (cmd.getUsername().equals(this.username)) {
+                    handleKick();
+                }
+            } else if (object instanceof UsernameTakenCommand) {
+                // Handle username taken
+                handleUsernameTaken();
+                return;
             }
-        } catch (IOException | ClassNotFoundException e) {
-            // Handle exceptions
-            System.out.println("Error processing input: " + e.getMessage());
         }
     }
 
@@ -286,11 +642,11 @@ public class WhiteboardClient extends JFrame {
     /**
      * Sends a clear command to the server.
      *
+     * @param clearCommand The clear command, with the shapes this client had seen
      * @throws IOException If an I/O error occurs
      */
-    protected void sendClearCommand() throws IOException {
-        output.writeObject(new ClearCommand());
-        output.reset();
+    protected void sendClearCommand(ClearCommand clearCommand) throws IOException {
+        channel.send(clearCommand);
     }
 
     /**
@@ -300,8 +656,16 @@ public class WhiteboardClient extends JFrame {
      * @throws IOException If an I/O error occurs
      */
     public void sendNewShapesList(ArrayList<Shape> newShapes) throws IOException {
-        output.writeObject(new OpenCommand(newShapes));
-        output.reset();
+        channel.send(new OpenCommand(newShapes));
+    }
+
+    /**
+     * Sends a command to the server.
+     *
+     * @param command The command to send
+     */
+    public void sendCommand(Serializable command) {
+        channel.send(command);
     }
 
     /**
@@ -310,22 +674,28 @@ public class WhiteboardClient extends JFrame {
      * @param username The username to send
      */
     public void sendJoinRequest(String username) {
-        try {
-            output.writeObject(new JoinRequest(username));
-            output.reset();
-        } catch (IOException e) {
-            System.out.println("Failed to send join request: " + e.getMessage());
-        }
+        joinRequested = true;
+        channel.send(new JoinRequest(username));
     }
 
     protected String getUsername() {
         return username;
     }
 
+    /**
+     * Checks whether the client only receives the shapes near its viewport.
+     *
+     * @return true if the client receives the shapes near its viewport, false for the whole board
+     */
+    protected boolean isViewportLimited() {
+        return true;
+    }
+
     /**
      * Handles the server quitting by displaying a message and exiting the application.
      */
     private void handleServerQuit() {
+        stopping = true;
         SwingUtilities.invokeLater(() -> {
             JOptionPane.showMessageDialog(this, "The manager has quit. The application will now exit.", "Server " +
                     "Shutdown", JOptionPane.INFORMATION_MESSAGE);
@@ -337,6 +707,7 @@ public class WhiteboardClient extends JFrame {
      * Handles the client being kicked out by displaying a message and exiting the application.
      */
     private void handleKick() {
+        stopping = true;
         SwingUtilities.invokeLater(() -> {
             JOptionPane.showMessageDialog(this, "You have been kicked out by the manager.",
                     "Kicked Out", JOptionPane.WARNING_MESSAGE);
@@ -348,6 +719,7 @@ public class WhiteboardClient extends JFrame {
      * Handles the username being taken by displaying a message and exiting the application.
      */
     private void handleUsernameTaken() {
+        stopping = true;
         SwingUtilities.invokeLater(() -> {
             JOptionPane.showMessageDialog(this, "Username is already taken. Please choose a different one.", "Username Taken", JOptionPane.ERROR_MESSAGE);
             System.exit(0);
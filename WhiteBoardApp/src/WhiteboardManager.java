@@ -8,11 +8,24 @@
  */
 
 import javax.swing.*;
+import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WhiteboardManager extends WhiteboardClient{
+    private final DefaultListModel<PendingJoin> joinRequestModel = new DefaultListModel<>();
+    private final JList<PendingJoin> joinRequestList = new JList<>(joinRequestModel);
+    private final JButton joinRequestsButton = new JButton("Join Requests (0)");
+    private JDialog joinRequestsDialog;
+    private JoinApprovalQueue joinApprovals;
+    // The key the manager logs in to the server with, and whether the join requests come from
+    // the server rather than from a server in this process
+    private volatile String managerKey;
+    private volatile boolean remoteRequests;
     /**
      * Constructor for the WhiteboardManager class. Creates a new WhiteboardManager
      * and sets up the menu bar for the whiteboard application.
@@ -22,8 +35,90 @@ public class WhiteboardManager extends WhiteboardClient{
      * @param username username
      */
     public WhiteboardManager(String serverAddress, int serverPort, String username) {
-        super(serverAddress, serverPort, username);
+        this(serverAddress, serverPort, username, WhiteboardServer.DEFAULT_BOARD);
+    }
+
+    /**
+     * Constructor for the WhiteboardManager class that manages a named board.
+     *
+     * @param serverAddress server address
+     * @param serverPort server port
+     * @param username username
+     * @param boardName name of the board
+     */
+    public WhiteboardManager(String serverAddress, int serverPort, String username, String boardName) {
+        super(serverAddress, serverPort, username, boardName);
         setupMenuBar();
+        setupJoinRequestsDialog();
+    }
+
+    /**
+     * Constructor for a WhiteboardManager that decides the join requests of a headless server
+     * it connects to, logging in with the key of the server.
+     *
+     * @param serverAddress server address
+     * @param serverPort server port
+     * @param username username
+     * @param boardName name of the board
+     * @param managerKey the key of the server
+     */
+    public WhiteboardManager(String serverAddress, int serverPort, String username, String boardName,
+                             String managerKey) {
+        this(serverAddress, serverPort, username, boardName);
+        remoteRequests = true;
+        watchJoinRequests(new JoinApprovalQueue());
+        logIn(managerKey);
+    }
+
+    /**
+     * Logs in to the server as the manager, which puts the manager on the board and lets it
+     * kick users and shut the server down.
+     *
+     * @param managerKey the key of the server
+     */
+    public void logIn(String managerKey) {
+        this.managerKey = managerKey;
+        sendCommand(new ManagerLogin(managerKey));
+    }
+
+    /**
+     * Logs in as the manager again after reconnecting, so the board and the join requests keep coming.
+     */
+    @Override
+    protected void connect(String serverAddress, int serverPort, long resumeSeq) throws IOException {
+        super.connect(serverAddress, serverPort, resumeSeq);
+        if (managerKey != null) {
+            sendCommand(new ManagerLogin(managerKey));
+        }
+    }
+
+    /**
+     * Copies the join requests waiting on the headless server into the queue shown in the
+     * window. Deciding one sends the decision to the server.
+     *
+     * @param requests the requests
+     */
+    @Override
+    protected void showJoinRequests(JoinRequestList requests) {
+        if (!remoteRequests) {
+            return;
+        }
+        List<PendingJoin> pending = new ArrayList<>();
+        for (JoinRequestInfo request : requests.requests()) {
+            pending.add(new PendingJoin(request.id(), request.username(), request.boardName(), request.requestedAt(),
+                    approved -> sendCommand(new JoinDecision(new HashSet<>(Set.of(request.id())), approved))));
+        }
+        joinApprovals.replace(pending);
+    }
+
+    /**
+     * The manager receives the whole board, since saving writes every shape to the file.
+     *
+     * @return false
+     */
+    @Override
+    protected boolean isViewportLimited() {
+        return false;
     }
 
     /**
@@ -95,45 +190,95 @@ public class WhiteboardManager extends WhiteboardClient{
             }
         });
 
+        // Reopen the join requests window
+        joinRequestsButton.addActionListener(e -> joinRequestsDialog.setVisible(true));
+
         menuBar.add(fileMenu);
         menuBar.add(new JLabel("Username to kick:"));
         menuBar.add(usernameField);
         menuBar.add(kickButton);
+        menuBar.add(joinRequestsButton);
         setJMenuBar(menuBar);
     }
 
     /**
-     * Notifies the manager that a client has requested to join the whiteboard.
-     * Displays a dialog box asking the manager to approve or deny the request.
+     * Shows the join requests of a queue as they arrive, in a window from which the manager
+     * approves or denies any number of them at once. The window does not block drawing.
      *
-     * @param username username of the client requesting to join
-     * @return true if the manager approves the request, false otherwise
+     * @param approvals the queue of join requests
      */
-    public boolean notifyJoinRequest(String username) {
-        final CountDownLatch latch = new CountDownLatch(1);
-        final boolean[] approval = new boolean[1];
-
-        SwingUtilities.invokeLater(() -> {
-            try {
-                // Display a dialog box asking the manager to approve or deny the request
-                int result = JOptionPane.showConfirmDialog(this,
-                        username + " wants to share your whiteboard. Approve?",
-                        "Join Request",
-                        JOptionPane.YES_NO_OPTION,
-                        JOptionPane.QUESTION_MESSAGE);
-                approval[0] = (result == JOptionPane.YES_OPTION);
-            } finally {
-                latch.countDown();
-            }
-        });
+    public void watchJoinRequests(JoinApprovalQueue approvals) {
+        this.joinApprovals = approvals;
+        approvals.setListener(() -> SwingUtilities.invokeLater(this::refreshJoinRequests));
+        SwingUtilities.invokeLater(this::refreshJoinRequests);
+    }
+
+    /**
+     * Creates the window listing the join requests waiting for a decision.
+     */
+    private void setupJoinRequestsDialog() {
+        joinRequestsDialog = new JDialog(this, "Join Requests", false);
+        // Opening when a request arrives must not take the keyboard from the canvas or chat
+        joinRequestsDialog.setAutoRequestFocus(false);
+        joinRequestList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+
+        JButton approveButton = new JButton("Approve");
+        approveButton.addActionListener(e -> decideJoinRequests(joinRequestList.getSelectedValuesList(), true));
+        JButton denyButton = new JButton("Deny");
+        denyButton.addActionListener(e -> decideJoinRequests(joinRequestList.getSelectedValuesList(), false));
+        JButton approveAllButton = new JButton("Approve All");
+        approveAllButton.addActionListener(e -> decideJoinRequests(joinApprovals.getPending(), true));
+        JButton denyAllButton = new JButton("Deny All");
+        denyAllButton.addActionListener(e -> decideJoinRequests(joinApprovals.getPending(), false));
 
-        try {
-            latch.await();  // Wait for the dialog to be dismissed
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();  // Restore interrupt status
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(approveButton);
+        buttons.add(denyButton);
+        buttons.add(approveAllButton);
+        buttons.add(denyAllButton);
+
+        joinRequestsDialog.add(new JScrollPane(joinRequestList), BorderLayout.CENTER);
+        joinRequestsDialog.add(buttons, BorderLayout.SOUTH);
+        joinRequestsDialog.setSize(420, 260);
+        joinRequestsDialog.setLocationRelativeTo(this);
+    }
+
+    /**
+     * Approves or denies join requests. The answers go out from a background thread so the
+     * window stays responsive.
+     *
+     * @param requests the requests
+     * @param approved true to let them join, false to turn them away
+     */
+    private void decideJoinRequests(List<PendingJoin> requests, boolean approved) {
+        if (joinApprovals == null || requests.isEmpty()) {
+            return;
+        }
+        List<PendingJoin> decided = new ArrayList<>(requests);
+        messagingExecutor.execute(() -> joinApprovals.decide(decided, approved));
+    }
+
+    /**
+     * Shows the requests now waiting, keeping the selection, and opens the window when
+     * requests arrive.
+     */
+    private void refreshJoinRequests() {
+        List<PendingJoin> pending = joinApprovals.getPending();
+        Set<Long> selected = new HashSet<>();
+        for (PendingJoin request : joinRequestList.getSelectedValuesList()) {
+            selected.add(request.id());
+        }
+        joinRequestModel.clear();
+        joinRequestModel.addAll(pending);
+        for (int i = 0; i < pending.size(); i++) {
+            if (selected.contains(pending.get(i).id())) {
+                joinRequestList.addSelectionInterval(i, i);
+            }
+        }
+        joinRequestsButton.setText("Join Requests (" + pending.size() + ")");
+        if (!pending.isEmpty() && !joinRequestsDialog.isVisible()) {
+            joinRequestsDialog.setVisible(true);
         }
-        // Return the manager's approval decision
-        return approval[0];
     }
 
     /**
@@ -142,11 +287,6 @@ public class WhiteboardManager extends WhiteboardClient{
      * @param username username of the client to kick
      */
     public void sendKickCommand(String username) {
-        try {
-            output.writeObject(new KickCommand(username));
-            output.reset();
-        } catch (IOException e) {
-            System.err.println("Failed to send kick command: " + e.getMessage());
-        }
+        channel.send(new KickCommand(username));
     }
 }
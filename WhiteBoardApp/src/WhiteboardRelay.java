@@ -0,0 +1,142 @@
+/**
+ * WhiteboardRelay.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * WhiteboardRelay joins a board on an upstream server once, as a single client, and re-broadcasts
+ * it to any number of read-only viewers connected to the relay. The upstream server only sends
+ * each update to the relay, however large the audience is.
+ */
+
+import java.io.*;
+import java.net.*;
+
+public class WhiteboardRelay {
+    private static final int RECONNECT_DELAY = 2000;
+    private final String relayName;
+    private final Board board;
+    private String upstreamAddress;
+    private int upstreamPort;
+
+    /**
+     * Constructor for the WhiteboardRelay class.
+     *
+     * @param upstreamAddress address of the upstream server
+     * @param upstreamPort port of the upstream server
+     * @param relayName username the relay joins the upstream board with
+     * @param board the local read-only copy of the board
+     */
+    public WhiteboardRelay(String upstreamAddress, int upstreamPort, String relayName, Board board) {
+        this.upstreamAddress = upstreamAddress;
+        this.upstreamPort = upstreamPort;
+        this.relayName = relayName;
+        this.board = board;
+    }
+
+    public static void main(String[] args) {
+        // Check if the correct number of arguments are provided
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java WhiteboardRelay <upstreamAddress> <upstreamPort> <listenPort> [boardName]");
+            System.exit(1);
+        }
+
+        String upstreamAddress = args[0];
+        int upstreamPort = Integer.parseInt(args[1]);
+        int listenPort = Integer.parseInt(args[2]);
+        String boardName = args.length == 4 ? args[3] : WhiteboardServer.DEFAULT_BOARD;
+
+        // Serve viewers from a read-only local server
+        WhiteboardServer server = new WhiteboardServer(listenPort);
+        server.setReadOnly(true);
+        new Thread(server::listenForClients).start();
+
+        WhiteboardRelay relay = new WhiteboardRelay(upstreamAddress, upstreamPort, "relay-" + listenPort,
+                server.getBoard(boardName));
+        relay.run();
+    }
+
+    /**
+     * Mirrors the upstream board, reconnecting whenever the upstream connection is lost.
+     */
+    public void run() {
+        while (true) {
+            try {
+                mirror();
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("Lost connection to upstream server: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Joins the upstream board and applies everything it sends to the local copy, which
+     * broadcasts it to the viewers.
+     *
+     * @throws IOException if the upstream connection fails
+     * @throws ClassNotFoundException if the upstream server sends an unknown object
+     */
+    private void mirror() throws IOException, ClassNotFoundException {
+        try (Socket socket = new Socket(upstreamAddress, upstreamPort)) {
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            out.writeObject(new Hello(relayName, board.getName()));
+            out.writeObject(new JoinRequest(relayName));
+            out.flush();
+
+            // The upstream server sends the whole board on join, which is merged into the local copy
+            System.out.println("Relaying board " + board.getName() + " from " + upstreamAddress + ":" + upstreamPort);
+
+            while (true) {
+                Object object = in.readObject();
+                if (object instanceof SequencedUpdate update) {
+                    // The relay numbers the operations of its own copy of the board
+                    object = update.update();
+                }
+                if (object instanceof String message) {
+                    if (message.startsWith("User List Update:")) {
+                        board.mirrorUserList(message);
+                    } else {
+                        board.broadcastMessage(message);
+                    }
+                } else if (object instanceof Shape || object instanceof ClearCommand
+                        || object instanceof BoardDiffCommand || object instanceof BoardSnapshot) {
+                    board.apply(object, null);
+                } else if (object instanceof Ping ping) {
+                    // Show the upstream server the relay is still there
+                    out.writeObject(new Pong(ping.sentAt()));
+                    out.reset();
+                    out.flush();
+                } else if (object instanceof RedirectCommand redirect) {
+                    // The board lives on another node of the cluster
+                    upstreamAddress = redirect.host();
+                    upstreamPort = redirect.port();
+                    return;
+                } else if (object instanceof JoinResponse joinResponse && !joinResponse.approved()) {
+                    quit("The relay was not allowed to join the board.");
+                } else if (object instanceof KickCommand kickCommand && kickCommand.getUsername().equals(relayName)) {
+                    quit("The relay was kicked out by the manager.");
+                } else if (object instanceof ServerQuitCommand) {
+                    quit("The upstream server has shut down.");
+                } else if (object instanceof UsernameTakenCommand) {
+                    quit("Another relay is already relaying this board as " + relayName + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells the viewers the board has ended and stops the relay.
+     *
+     * @param reason why the relay stops
+     */
+    private void quit(String reason) {
+        System.out.println(reason);
+        board.broadcastCommand(new ServerQuitCommand(), null);
+        System.exit(0);
+    }
+}
@@ -4,22 +4,35 @@
  * Student ID: 1160040
  * This class represents the server side of the whiteboard application. It listens
  * for incoming client connections and creates a new ClientHandler thread for each
- * client. It also manages the list of connected clients and shapes on the whiteboard.
+ * client. It hosts any number of named boards, each with its own clients and shapes.
  */
 
 import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class WhiteboardServer {
+    public static final String DEFAULT_BOARD = "default";
     private ServerSocket serverSocket;
-    private static final int NUM_THREADS = 32;
     private static final int TIMEOUT = 60;
-    private ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
-    private ArrayList<ClientHandler> clients = new ArrayList<>();
-    private ArrayList<Shape> shapes = new ArrayList<>();
-    private WhiteboardManager manager;
+    private ExecutorService pool = Executors.newCachedThreadPool();
+    private ConcurrentHashMap<String, Board> boards = new ConcurrentHashMap<>();
+    // Servers without a manager, such as cluster nodes, approve every request at once
+    private volatile JoinPolicy joinPolicy = new AutoApprovePolicy();
+    private volatile String managerName;
+    private ClusterNode cluster;
+    private boolean readOnly;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Replicator replicator = new Replicator(this);
+    private final JoinApprovalQueue joinApprovals = new JoinApprovalQueue();
+    private final ConnectionMonitor connectionMonitor = new ConnectionMonitor(metrics);
+    private final SessionRegistry sessions = new SessionRegistry();
+    private volatile FailoverInfo failover;
+    private MetricsExporter metricsExporter;
+    private PresenceServer presence;
 
     /**
      * Constructor for the WhiteboardServer class. Creates a new server socket
@@ -33,6 +46,35 @@ public class WhiteboardServer {
         } catch (IOException e) {
             System.out.println("Error creating server socket: " + e.getMessage());
         }
+        metrics.registerGauge("join_requests_pending", joinApprovals::size);
+        metrics.registerGauge("sessions", sessions::size);
+        metrics.registerGauge("shape_store_rows",
+                () -> boards.values().stream().mapToLong(board -> board.getStore().getRowCount()).sum());
+        metrics.registerGauge("shape_store_offheap_bytes",
+                () -> boards.values().stream().mapToLong(board -> board.getStore().getOffHeapBytes()).sum());
+        metrics.registerGauge("shape_store_dead_bytes",
+                () -> boards.values().stream().mapToLong(board -> board.getStore().getDeadBytes()).sum());
+        metrics.registerGauge("board_raster_bytes",
+                () -> boards.values().stream().mapToLong(board -> board.getRaster().getTileBytes()).sum());
+        metrics.registerGauge("boards", boards::size);
+        metrics.registerGauge("board_shapes", "board", () -> perBoard(board -> (long) board.getShapeCount()));
+        metrics.registerGauge("board_clients", "board", () -> perBoard(board -> (long) board.getClients().size()));
+        if (serverSocket != null) {
+            metricsExporter = new MetricsExporter(metrics, serverSocket.getLocalPort());
+            presence = new PresenceServer(serverSocket.getLocalPort(), metrics);
+        }
+    }
+
+    /**
+     * Returns a value for each board, for a gauge labelled by board.
+     *
+     * @param value reads the value of a board
+     * @return the values by board name
+     */
+    private Map<String, Long> perBoard(Function<Board, Long> value) {
+        HashMap<String, Long> values = new HashMap<>();
+        boards.forEach((name, board) -> values.put(name, value.apply(board)));
+        return values;
     }
 
     /**
@@ -40,16 +82,21 @@ public class WhiteboardServer {
      * thread for each client.
      */
     public void listenForClients() {
+        // Add shutdown hook to gracefully shutdown server
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+        connectionMonitor.start();
+        if (metricsExporter != null) {
+            metricsExporter.start();
+        }
+        if (presence != null) {
+            presence.start();
+        }
         try {
             while (!serverSocket.isClosed()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
                     ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                    clients.add(clientHandler);
                     pool.execute(clientHandler);
-
-                    // Add shutdown hook to gracefully shutdown server
-                    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
                 } catch (IOException e) {
                     if (!serverSocket.isClosed()) {
                         System.out.println("Error accepting client connection: " + e.getMessage());
@@ -73,103 +120,182 @@ public class WhiteboardServer {
     }
 
     /**
-     * Adds a new shape to the whiteboard and broadcasts it to all connected clients.
+     * Returns the board with the given name, creating it if it does not exist yet.
      *
-     * @param shape shape to be added
-     * @param senderStream ObjectOutputStream of the client that sent the shape
+     * @param name name of the board
+     * @return the board
      */
-    public synchronized void addShape(Shape shape, ObjectOutputStream senderStream) {
-        shapes.add(shape);
-        broadcastShape(shape, senderStream);
+    public Board getBoard(String name) {
+        return boards.computeIfAbsent(name == null || name.isBlank() ? DEFAULT_BOARD : name, boardName -> {
+            Board board = new Board(boardName, readOnly);
+            board.setMetrics(metrics);
+            board.setOperationListener(operation -> replicator.publish(boardName, operation));
+            return board;
+        });
+    }
+
+    public Collection<Board> getBoards() {
+        return boards.values();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Broadcasts a shape to all connected clients except the client that sent the shape.
+     * Returns the relay of cursors and shapes being dragged out.
      *
-     * @param shape shape to be broadcasted
-     * @param senderStream ObjectOutputStream of the client that sent the shape
+     * @return the relay, or null if the server socket could not be opened
      */
-    public synchronized void broadcastShape(Shape shape, ObjectOutputStream senderStream) {
-        for (ClientHandler client : clients) {
-            if (client.getOut() != senderStream) {
-                client.sendShape(shape);
-            }
-        }
+    public PresenceServer getPresence() {
+        return presence;
+    }
+
+    public ConnectionMonitor getConnectionMonitor() {
+        return connectionMonitor;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public Replicator getReplicator() {
+        return replicator;
+    }
+
+    public FailoverInfo getFailover() {
+        return failover;
     }
 
     /**
-     * Broadcasts a message to all connected clients.
+     * Sets the standby server clients should reconnect to if this server fails, and tells
+     * every connected client about it.
      *
-     * @param message message to be broadcasted
+     * @param failover where the standby can be reached, or null if there is none
      */
-    public synchronized void broadcastMessage(String message) {
-        for (ClientHandler client : clients) {
-            client.sendMessage(message);
+    public void setFailover(FailoverInfo failover) {
+        this.failover = failover;
+        if (failover != null) {
+            for (Board board : boards.values()) {
+                board.broadcastCommand(failover, null);
+            }
         }
     }
 
     /**
-     * Updates the user list displayed on the whiteboard for all connected clients.
+     * Makes every board of this server read-only, for servers that mirror boards of another server.
+     *
+     * @param readOnly whether clients can only watch the boards
      */
-    public synchronized void updateUserList() {
-        StringBuilder userList = new StringBuilder("<html>");
-        for (ClientHandler client : clients) {
-            userList.append(client.getUsername()).append("<br>");
-        }
-        userList.append("</html>");
-        broadcastMessage("User List Update:" + userList);
-    }
-
-    public List<ClientHandler> getClients() {
-        return clients;
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
-    public List<Shape> getShapes() {
-        return shapes;
+    public void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
     }
 
     /**
-     * Clears all shapes on the whiteboard and broadcasts the clear command to all
+     * Returns where a client should connect to join a board, when the board is owned by
+     * another node of the cluster.
      *
-     * @param sender ObjectOutputStream of the client that sent the clear command
+     * @param boardName name of the board
+     * @return the redirect to the owning node, or null if this server hosts the board
      */
-    public synchronized void clearAllShapes(ObjectOutputStream sender) {
-        shapes.clear();
-        broadcastClearAll(sender);
+    public RedirectCommand redirectFor(String boardName) {
+        if (cluster == null || cluster.isLocal(boardName)) {
+            return null;
+        }
+        ClusterMember owner = cluster.ownerOf(boardName);
+        return owner == null ? null : new RedirectCommand(owner.host(), owner.clientPort());
     }
 
     /**
-     * Broadcasts a clear command to all connected clients except the client that sent the command.
+     * Hands every board this node no longer owns to its new owner. Clients of a board are
+     * only redirected once the new owner has acknowledged it, and anything they drew while it
+     * was sent is sent after it. The board is only closed once the new owner has all of it. A
+     * board whose transfer fails stays here open, along with its clients if they were not
+     * redirected yet, to be handed over on a later call.
      *
-     * @param sender ObjectOutputStream of the client that sent the clear command
+     * @return true if every board that moved was handed over
      */
-    private synchronized void broadcastClearAll(ObjectOutputStream sender) {
-        for (ClientHandler client : clients) {
-            if (client.getOut() != sender) {
-                client.sendClearCommand();
+    public synchronized boolean rebalance() {
+        boolean handedOver = true;
+        // Owners that could not be reached, so their other boards are not tried until the next call
+        HashSet<String> unreachable = new HashSet<>();
+        for (Board board : new ArrayList<>(boards.values())) {
+            RedirectCommand redirect = redirectFor(board.getName());
+            if (redirect == null) {
+                continue;
+            }
+            ClusterMember owner = cluster.ownerOf(board.getName());
+            long sent = board.getLastSequence();
+            if (unreachable.contains(owner.nodeId()) || !cluster.transfer(board.getName(), board.getSnapshot(), owner)) {
+                System.out.println("Keeping board " + board.getName() + " until it can be moved");
+                unreachable.add(owner.nodeId());
+                handedOver = false;
+                continue;
             }
+            System.out.println("Moving board " + board.getName() + " to " + redirect.host() + ":" + redirect.port());
+            board.broadcastCommand(redirect, null);
+            board.disconnectAll();
+            if (board.getLastSequence() != sent && !cluster.transfer(board.getName(), board.getSnapshot(), owner)) {
+                System.out.println("Keeping board " + board.getName() + " until it can be moved");
+                unreachable.add(owner.nodeId());
+                handedOver = false;
+                continue;
+            }
+            boards.remove(board.getName(), board);
+            board.closeAll();
         }
+        return handedOver;
     }
 
     /**
-     * Opens a new whiteboard for all connected clients except the client that sent the command.
+     * Receives a board handed over by another node of the cluster. It is merged with
+     * anything clients that were redirected before the transfer arrived have drawn already.
      *
-     * @param sender ObjectOutputStream of the client that sent the open command
+     * @param boardName name of the board
+     * @param snapshot state of the board
      */
-    public synchronized void openNewBoard(ObjectOutputStream sender) {
-        for (ClientHandler client : clients) {
-            if (client.getOut() != sender) {
-                client.sendOpenCommand(shapes);
-            }
-        }
+    public void receiveBoard(String boardName, BoardSnapshot snapshot) {
+        getBoard(boardName).apply(snapshot, null);
+    }
+
+    /**
+     * Sets how join requests are decided from now on.
+     *
+     * @param joinPolicy the policy
+     * @param managerName the manager running in this process, who is not told when the
+     *                    server quits, or null
+     */
+    public void setJoinPolicy(JoinPolicy joinPolicy, String managerName) {
+        this.joinPolicy = joinPolicy;
+        this.managerName = managerName;
     }
 
-    public void setManager(WhiteboardManager manager) {
-        this.manager = manager;
+    public JoinPolicy getJoinPolicy() {
+        return joinPolicy;
+    }
+
+    /**
+     * Asks the join policy whether a client may join a board, without waiting for the answer.
+     *
+     * @param request the join request
+     * @param board the board the client wants to join
+     * @param decision called with the decision, on the thread that makes it
+     * @return the queued request, or null if it was decided at once
+     */
+    public PendingJoin requestJoin(JoinRequest request, Board board, Consumer<Boolean> decision) {
+        return joinPolicy.requestJoin(request.getUsername(), board.getName(), decision);
     }
 
-    public synchronized boolean notifyManager(JoinRequest request) {
-        return manager.notifyJoinRequest(request.getUsername());
+    public JoinApprovalQueue getJoinApprovals() {
+        return joinApprovals;
     }
 
     /**
@@ -183,13 +309,17 @@ public class WhiteboardServer {
                 serverSocket.close();
             }
 
-            // Notify existing clients of the server shutdown
-            broadcastServerShutdown();
+            // Hand the boards of a cluster node to the remaining nodes before anyone is told to quit
+            if (cluster != null) {
+                cluster.leave();
+            }
 
-            for (ClientHandler client : clients) {
-                client.closeConnection();
+            // Notify existing clients of the server shutdown, except the manager
+            ServerQuitCommand quitCommand = new ServerQuitCommand();
+            for (Board board : boards.values()) {
+                board.broadcastCommand(quitCommand, managerName);
+                board.closeAll();
             }
-            clients.clear();
 
             // Ensure all tasks are completed before shutting down the thread pool
             pool.shutdown();
@@ -197,67 +327,17 @@ public class WhiteboardServer {
                 pool.shutdownNow();
             }
 
+            connectionMonitor.stop();
+            if (metricsExporter != null) {
+                metricsExporter.stop();
+            }
+            if (presence != null) {
+                presence.stop();
+            }
             System.out.println("Server shutdown successfully.");
 
         } catch (IOException | InterruptedException e) {
             System.err.println("Error while shutting down the server: " + e.getMessage());
         }
     }
-
-    /**
-     * Broadcasts a server shutdown command to all connected clients.
-     */
-    private synchronized void broadcastServerShutdown() {
-        ServerQuitCommand quitCommand = new ServerQuitCommand();
-
-        // Notify all clients except the manager
-        Iterator<ClientHandler> it = clients.iterator();
-        while (it.hasNext()) {
-            ClientHandler client = it.next();
-            try {
-                if (!Objects.equals(client.getUsername(), manager.getUsername()) && client.getSocket().isConnected()) {
-                    client.getOut().writeObject(quitCommand);
-                    client.getOut().reset();
-                }
-            } catch (IOException e) {
-                System.err.println("Error notifying client of shutdown: " + e.getMessage());
-                it.remove();
-            }
-        }
-    }
-
-    /**
-     * Kicks out a user from the whiteboard by sending a kick command to the client.
-     *
-     * @param username username of the user to be kicked out
-     */
-    public synchronized void kickUser(String username) {
-        Iterator<ClientHandler> it = clients.iterator();
-        while (it.hasNext()) {
-            ClientHandler client = it.next();
-            if (client.getUsername().equals(username)) {
-                try {
-                    client.getOut().writeObject(new KickCommand(username));
-                    client.getOut().reset();
-                    client.getOut().close();
-                    it.remove(); // Remove from the client list
-                } catch (IOException e) {
-                    System.err.println("Error kicking out user: " + e.getMessage());
-                }
-                break;
-            }
-        }
-    }
-
-    /**
-     * Checks if a username is already taken by another client.
-     *
-     * @param username username to check
-     * @param askingClientSocket socket of the client that is asking
-     * @return true if the username is taken, false otherwise
-     */
-    public synchronized boolean isUsernameTaken(String username, Socket askingClientSocket) {
-        return clients.stream()
-                .anyMatch(c -> !c.getSocket().equals(askingClientSocket) && c.getUsername().equals(username));
-    }
 }
@@ -0,0 +1,134 @@
+/**
+ * WhiteboardStandby.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * WhiteboardStandby keeps a hot copy of every board of a primary server by applying the
+ * operations the primary streams to it. When the primary stops responding, the standby
+ * takes over and clients reconnect to it, resuming from the last update they applied.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class WhiteboardStandby {
+    private static final int FAILOVER_TIMEOUT = 3000;
+    private static final int RECONNECT_DELAY = 1000;
+    private static final int METRICS_INTERVAL = 10;
+    private final WhiteboardServer server;
+    private final String primaryAddress;
+    private final int primaryPort;
+    private final String host;
+    private final int port;
+    private volatile long lagMillis;
+    private volatile long lastAppliedAt;
+
+    /**
+     * Constructor for the WhiteboardStandby class.
+     *
+     * @param server the server that takes over when the primary fails
+     * @param primaryAddress address of the primary server
+     * @param primaryPort port of the primary server
+     * @param host the address clients use to reach the standby
+     * @param port the port clients use to reach the standby
+     */
+    public WhiteboardStandby(WhiteboardServer server, String primaryAddress, int primaryPort, String host, int port) {
+        this.server = server;
+        this.primaryAddress = primaryAddress;
+        this.primaryPort = primaryPort;
+        this.host = host;
+        this.port = port;
+        server.getMetrics().registerGauge("replication_lag_ms", () -> lagMillis);
+        server.getMetrics().registerGauge("replication_last_applied_age_ms",
+                () -> lastAppliedAt == 0 ? 0 : System.currentTimeMillis() - lastAppliedAt);
+    }
+
+    public static void main(String[] args) {
+        // Check if the correct number of arguments are provided
+        if (args.length != 4) {
+            System.out.println("Usage: java WhiteboardStandby <primaryAddress> <primaryPort> <standbyAddress> <standbyPort>");
+            System.exit(1);
+        }
+
+        String primaryAddress = args[0];
+        int primaryPort = Integer.parseInt(args[1]);
+        String standbyAddress = args[2];
+        int standbyPort = Integer.parseInt(args[3]);
+
+        WhiteboardServer server = new WhiteboardServer(standbyPort);
+        WhiteboardStandby standby = new WhiteboardStandby(server, primaryAddress, primaryPort, standbyAddress, standbyPort);
+
+        // Report replication lag while standing by
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> System.out.print(server.getMetrics()),
+                METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.SECONDS);
+
+        standby.replicate();
+        reporter.shutdownNow();
+
+        // The primary has failed, so start serving its clients
+        System.out.println("Primary server failed. Taking over on port " + standbyPort + ".");
+        server.listenForClients();
+    }
+
+    /**
+     * Replicates the primary until it fails. Returns once a primary that was connected stops
+     * responding; until the first connection succeeds, connecting is retried.
+     */
+    public void replicate() {
+        while (true) {
+            try (Socket socket = new Socket(primaryAddress, primaryPort)) {
+                socket.setSoTimeout(FAILOVER_TIMEOUT);
+                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.writeObject(new ReplicaHello(host, port));
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                System.out.println("Replicating primary server " + primaryAddress + ":" + primaryPort + ".");
+                applyStream(in);
+            } catch (ConnectException e) {
+                System.out.println("Waiting for primary server: " + e.getMessage());
+                sleep();
+                continue;
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("Lost primary server: " + e.getMessage());
+            }
+            return;
+        }
+    }
+
+    /**
+     * Applies the snapshots, operations and heartbeats streamed by the primary.
+     *
+     * @param in the stream from the primary
+     * @throws IOException if the primary fails or stops sending heartbeats
+     * @throws ClassNotFoundException if the primary sends an unknown object
+     */
+    private void applyStream(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        while (true) {
+            Object object = in.readObject();
+            if (object instanceof ReplicaSnapshot snapshot) {
+                Board board = server.getBoard(snapshot.boardName());
+                for (BoardOperation operation : snapshot.operations()) {
+                    board.applyReplicated(operation);
+                }
+            } else if (object instanceof ReplicatedOperation replicated) {
+                server.getBoard(replicated.boardName()).applyReplicated(replicated.operation());
+                lastAppliedAt = System.currentTimeMillis();
+                lagMillis = Math.max(0, lastAppliedAt - replicated.publishedAt());
+            } else if (object instanceof ReplicationHeartbeat heartbeat) {
+                // Nothing is pending on the primary, so the lag is just the time in flight
+                lagMillis = Math.max(0, System.currentTimeMillis() - heartbeat.sentAt());
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
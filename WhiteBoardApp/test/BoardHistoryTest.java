@@ -0,0 +1,159 @@
+/**
+ * BoardHistoryTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests for BoardHistory: seeking to any operation or point in time gives back the board as
+ * it was then, across checkpoints, removals, large diffs and clears.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardHistoryTest {
+    private final ShapeSet board = new ShapeSet();
+    private final BoardHistory history = new BoardHistory();
+    // The board after each operation, and when each was recorded
+    private final List<List<Long>> boards = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+
+    /**
+     * Seeking to every sequence number gives back the board as it was right after that operation.
+     */
+    @Test
+    void seeksToEveryOperation() throws InterruptedException {
+        recordSession(new Random(26));
+
+        assertEquals(List.of(), contentIds(history.seekToSequence(0)));
+        for (int seq = 1; seq <= boards.size(); seq++) {
+            assertEquals(boards.get(seq - 1), contentIds(history.seekToSequence(seq)), "after operation " + seq);
+        }
+        assertEquals(boards.size(), history.getLastSequence());
+    }
+
+    /**
+     * Seeking to a point in time gives back the board after the last operation recorded at or
+     * before it.
+     */
+    @Test
+    void seeksToEveryPointInTime() throws InterruptedException {
+        recordSession(new Random(37));
+
+        assertEquals(List.of(), contentIds(history.seek(timestamps.get(0) - 1)));
+        for (int i = 0; i < timestamps.size(); i++) {
+            long timestamp = timestamps.get(i);
+            int last = timestamps.lastIndexOf(timestamp);
+            assertEquals(boards.get(last), contentIds(history.seek(timestamp)), "at " + timestamp);
+        }
+        assertEquals(timestamps.get(0), history.getFirstTimestamp());
+        assertEquals(timestamps.get(timestamps.size() - 1), history.getLastTimestamp());
+    }
+
+    /**
+     * A resuming client is caught up from the latest operations only, and is told to take a
+     * snapshot once it is further behind than the window kept for resuming.
+     */
+    @Test
+    void catchesUpOnlyFromTheResumeWindow() {
+        for (int i = 0; i < 5100; i++) {
+            record(board.stamp(new Line(i, i, i + 1, i + 1, Color.BLACK), "a"));
+        }
+
+        assertNull(history.getRecentOperationsAfter(50));
+        List<BoardOperation> missed = history.getRecentOperationsAfter(200);
+        assertEquals(4900, missed.size());
+        for (int i = 0; i < missed.size(); i++) {
+            assertEquals(201 + i, missed.get(i).seq());
+        }
+        assertEquals(List.of(), history.getRecentOperationsAfter(5100));
+        assertNull(history.getRecentOperationsAfter(5101));
+        // The playback history still has every operation
+        assertEquals(boards.get(49), contentIds(history.seekToSequence(50)));
+    }
+
+    /**
+     * A long session keeps only the latest operations and the checkpoints they start from,
+     * which still play back as they were, and the operations kept give back the whole board
+     * when replayed from the start.
+     */
+    @Test
+    void dropsOperationsOlderThanTheHorizon() {
+        BoardHistory bounded = new BoardHistory(500);
+        for (int i = 0; i < 20000; i++) {
+            Object update = i % 1000 == 999 ? new ClearCommand(new HashMap<>(board.observedClock()))
+                    : board.stamp(new Line(i, i, i + 1, i + 1, Color.BLACK), "a");
+            board.apply(update);
+            bounded.record(update, board, recorded -> { });
+            boards.add(contentIds(board.shapes()));
+        }
+
+        assertTrue(bounded.getOperationCount() >= 500, "kept " + bounded.getOperationCount());
+        assertTrue(bounded.getOperationCount() < 500 + 256, "kept " + bounded.getOperationCount());
+        assertTrue(bounded.getCheckpointCount() <= 5, "kept " + bounded.getCheckpointCount() + " checkpoints");
+        long first = bounded.getOperations(1, 1).get(0).seq();
+        assertEquals(20000 - bounded.getOperationCount() + 1, first);
+        for (long seq = first; seq <= 20000; seq++) {
+            assertEquals(boards.get((int) seq - 1), contentIds(bounded.seekToSequence(seq)), "after operation " + seq);
+        }
+        // Older points give the board as it was before the first operation kept
+        assertEquals(boards.get((int) first - 2), contentIds(bounded.seekToSequence(1)));
+        assertEquals(first - 1, bounded.countOperationsUntil(0));
+
+        ShapeSet replayed = new ShapeSet();
+        for (BoardOperation operation : bounded.getOperationsFromStart()) {
+            operation.applyTo(replayed);
+        }
+        assertEquals(boards.get(boards.size() - 1), contentIds(replayed.shapes()));
+    }
+
+    /**
+     * Records a session long enough to span several checkpoints: shapes drawn, removed one
+     * at a time and many at once, and a clear, spread over a few milliseconds.
+     *
+     * @param random where the session comes from
+     */
+    private void recordSession(Random random) throws InterruptedException {
+        List<Dot> drawn = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            if (i % 400 == 399) {
+                record(new ClearCommand(new HashMap<>(board.observedClock())));
+                drawn.clear();
+            } else if (i % 200 == 100) {
+                ArrayList<Shape> added = new ArrayList<>();
+                for (int j = 0; j < 300; j++) {
+                    Shape shape = board.stamp(new Circle(i, j, 5, Color.RED), "a");
+                    drawn.add(shape.getDot());
+                    added.add(shape);
+                }
+                record(new BoardDiffCommand(new ArrayList<>(), added));
+            } else if (random.nextInt(3) > 0 || drawn.isEmpty()) {
+                Shape shape = board.stamp(new Line(i, i, i + random.nextInt(50), i, Color.BLACK), "a");
+                drawn.add(shape.getDot());
+                record(shape);
+            } else {
+                record(new BoardDiffCommand(new ArrayList<>(List.of(drawn.remove(random.nextInt(drawn.size())))),
+                        new ArrayList<>()));
+            }
+            if (i % 100 == 0) {
+                Thread.sleep(2);
+            }
+        }
+    }
+
+    private void record(Object update) {
+        board.apply(update);
+        BoardOperation operation = history.record(update, board, recorded -> { });
+        boards.add(contentIds(board.shapes()));
+        timestamps.add(operation.timestamp());
+    }
+
+    private static List<Long> contentIds(List<Shape> shapes) {
+        return shapes.stream().map(Shape::getContentId).toList();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * ConsistentHashRingTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests for ConsistentHashRing: every node works out the same owner for a board whatever
+ * order it learned the members in, boards spread across the nodes, and a node joining or
+ * leaving only moves the boards it takes or gives up.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+    private static final List<String> NODES = List.of("node-a", "node-b", "node-c");
+    private static final int BOARDS = 3000;
+
+    /**
+     * Owners depend only on the names of the nodes and the board, so nodes that learned the
+     * members in a different order, or run another build, agree on them.
+     */
+    @Test
+    void mapsBoardsTheSameWayOnEveryNode() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES);
+        ConsistentHashRing reordered = new ConsistentHashRing(List.of("node-c", "node-a", "node-b"));
+
+        assertEquals("node-c", ring.ownerOf("default"));
+        assertEquals("node-b", ring.ownerOf("retro"));
+        assertEquals("node-b", ring.ownerOf("board-2"));
+        assertEquals("node-a", ring.ownerOf("board-3"));
+        assertEquals(owners(ring), owners(reordered));
+        assertNull(new ConsistentHashRing(List.of()).ownerOf("default"));
+    }
+
+    /**
+     * Every node owns a fair share of the boards.
+     */
+    @Test
+    void spreadsBoardsAcrossNodes() {
+        Map<String, String> owners = owners(new ConsistentHashRing(NODES));
+
+        for (String node : NODES) {
+            long owned = owners.values().stream().filter(node::equals).count();
+            assertTrue(owned > BOARDS / 5 && owned < BOARDS / 2, node + " owns " + owned);
+        }
+    }
+
+    /**
+     * A node that joins takes about its share of the boards, and every board that moves
+     * moves to it.
+     */
+    @Test
+    void movesOnlyBoardsTakenByAJoiningNode() {
+        Map<String, String> before = owners(new ConsistentHashRing(NODES));
+        Map<String, String> after = owners(new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d")));
+
+        int moved = 0;
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals("node-d", entry.getValue(), entry.getKey());
+                moved++;
+            }
+        }
+        assertTrue(moved > BOARDS / 8 && moved < BOARDS * 3 / 8, moved + " boards moved");
+    }
+
+    /**
+     * When a node leaves only its own boards move, and they spread over the nodes left.
+     */
+    @Test
+    void movesOnlyBoardsOfALeavingNode() {
+        Map<String, String> before = owners(new ConsistentHashRing(NODES));
+        Map<String, String> after = owners(new ConsistentHashRing(List.of("node-a", "node-c")));
+
+        Map<String, Integer> taken = new HashMap<>();
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = after.get(entry.getKey());
+            if (entry.getValue().equals("node-b")) {
+                taken.merge(owner, 1, Integer::sum);
+            } else {
+                assertEquals(entry.getValue(), owner, entry.getKey());
+            }
+        }
+        assertEquals(Set.of("node-a", "node-c"), taken.keySet());
+    }
+
+    /**
+     * Returns the owner of each of a fixed set of boards.
+     *
+     * @param ring the ring
+     * @return the owners by board name
+     */
+    private static Map<String, String> owners(ConsistentHashRing ring) {
+        HashMap<String, String> owners = new HashMap<>();
+        for (int i = 0; i < BOARDS; i++) {
+            owners.put("board-" + i, ring.ownerOf("board-" + i));
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * MessageChannelTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests for MessageChannel, over piped streams between a server end and a client end: urgent
+ * messages overtake a large one frame by frame, a numbered bulk update is announced before
+ * the live updates that overtake it, connections that send serialized objects are served
+ * whole messages in order, and malformed or oversized frames are refused.
+ */
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageChannelTest {
+    // Large enough that everything written in a test fits before any of it is read
+    private static final int PIPE_BYTES = 4 * 1024 * 1024;
+    private final ShapeSet stamps = new ShapeSet();
+    private PipedOutputStream toServer;
+    private PipedInputStream serverIn;
+    private PipedOutputStream serverOut;
+    private PipedInputStream fromServer;
+
+    @BeforeEach
+    void connectPipes() throws IOException {
+        toServer = new PipedOutputStream();
+        serverIn = new PipedInputStream(toServer, PIPE_BYTES);
+        serverOut = new PipedOutputStream();
+        fromServer = new PipedInputStream(serverOut, PIPE_BYTES);
+    }
+
+    /**
+     * A kick, a chat message and a shape sent while a large diff is half written each arrive
+     * whole and in order of urgency, ahead of the rest of the diff, which arrives intact.
+     */
+    @Test
+    void interleavesFramesByPriority() throws Exception {
+        MessageChannel client = MessageChannel.connect(fromServer, toServer);
+        MessageChannel server = MessageChannel.accept(serverIn, serverOut);
+        BoardDiffCommand large = new BoardDiffCommand(new ArrayList<>(), lines(3000));
+        assertTrue(MessageChannel.serialize(large).length > 3 * MessageChannel.CHUNK_SIZE);
+
+        server.send(large);
+        server.writeNext();
+        Line line = stamp(new Line(1, 2, 3, 4, Color.RED));
+        server.send(line);
+        server.send("hello");
+        server.send(new KickCommand("alice"));
+        writeAll(server);
+
+        assertEquals("alice", ((KickCommand) client.read()).getUsername());
+        assertEquals("hello", client.read());
+        assertEquals(line.getContentId(), ((Shape) client.read()).getContentId());
+        BoardDiffCommand received = (BoardDiffCommand) client.read();
+        assertEquals(contentIds(large.addedShapes()), contentIds(received.addedShapes()));
+    }
+
+    /**
+     * A numbered snapshot goes on the bulk channel behind a BulkPending on the live channel,
+     * so the live update sent after it arrives after the announcement and before the snapshot.
+     */
+    @Test
+    void announcesBulkUpdatesBeforeLiveUpdatesOvertakeThem() throws Exception {
+        MessageChannel client = MessageChannel.connect(fromServer, toServer);
+        MessageChannel server = MessageChannel.accept(serverIn, serverOut);
+        BoardSnapshot snapshot = new BoardSnapshot(lines(3000), new HashSet<>(), new HashMap<>(), new HashMap<>());
+
+        server.send(new SequencedUpdate(5, snapshot));
+        server.send(new SequencedUpdate(6, stamp(new Line(1, 2, 3, 4, Color.RED))));
+        writeAll(server);
+
+        assertInstanceOf(BulkPending.class, client.read());
+        assertEquals(6, ((SequencedUpdate) client.read()).seq());
+        SequencedUpdate bulk = (SequencedUpdate) client.read();
+        assertEquals(5, bulk.seq());
+        assertEquals(contentIds(snapshot.shapes()), contentIds(((BoardSnapshot) bulk.update()).shapes()));
+    }
+
+    /**
+     * A connection that starts with a serialized object rather than the frame header is read
+     * and written one whole object at a time, in the order sent whatever their priority.
+     */
+    @Test
+    void fallsBackToSerializedStream() throws Exception {
+        ObjectOutputStream legacyOut = new ObjectOutputStream(toServer);
+        legacyOut.writeObject(new JoinRequest("alice"));
+        legacyOut.flush();
+        MessageChannel server = MessageChannel.accept(serverIn, serverOut);
+        ObjectInputStream legacyIn = new ObjectInputStream(fromServer);
+
+        assertNotNull(server.getObjectOutput());
+        assertEquals("alice", ((JoinRequest) server.read()).getUsername());
+        BoardDiffCommand large = new BoardDiffCommand(new ArrayList<>(), lines(3000));
+        server.send(large);
+        server.send(new KickCommand("alice"));
+        writeAll(server);
+
+        assertEquals(contentIds(large.addedShapes()),
+                contentIds(((BoardDiffCommand) legacyIn.readObject()).addedShapes()));
+        assertInstanceOf(KickCommand.class, legacyIn.readObject());
+    }
+
+    /**
+     * Frames on an unknown channel or longer than a chunk are refused.
+     */
+    @Test
+    void refusesMalformedFrames() throws Exception {
+        DataOutputStream frames = new DataOutputStream(toServer);
+        frames.writeInt(MessageChannel.MAGIC);
+        frames.writeByte(MessageChannel.Priority.values().length);
+        frames.writeByte(1);
+        frames.writeInt(4);
+        frames.write(new byte[4]);
+        frames.flush();
+        MessageChannel server = MessageChannel.accept(serverIn, serverOut);
+        assertEquals("Malformed frame", assertThrows(StreamCorruptedException.class, server::read).getMessage());
+
+        connectPipes();
+        frames = new DataOutputStream(toServer);
+        frames.writeInt(MessageChannel.MAGIC);
+        frames.writeByte(0);
+        frames.writeByte(1);
+        frames.writeInt(MessageChannel.CHUNK_SIZE + 1);
+        frames.flush();
+        MessageChannel oversized = MessageChannel.accept(serverIn, serverOut);
+        assertEquals("Malformed frame", assertThrows(StreamCorruptedException.class, oversized::read).getMessage());
+    }
+
+    /**
+     * A message whose frames add up to more than the largest message allowed is refused
+     * before the frame that goes past it is read.
+     */
+    @Test
+    void refusesMessagesLargerThanAllowed() throws Exception {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new DataOutputStream(header).writeInt(MessageChannel.MAGIC);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream frame = new DataOutputStream(bytes);
+        frame.writeByte(MessageChannel.Priority.BULK.ordinal());
+        frame.writeByte(0);
+        frame.writeInt(MessageChannel.CHUNK_SIZE);
+        frame.write(new byte[MessageChannel.CHUNK_SIZE]);
+        byte[] chunk = bytes.toByteArray();
+        int fit = MessageChannel.MAX_MESSAGE_BYTES / MessageChannel.CHUNK_SIZE;
+        List<InputStream> parts = new ArrayList<>();
+        parts.add(new ByteArrayInputStream(header.toByteArray()));
+        IntStream.range(0, fit + 1).forEach(i -> parts.add(new ByteArrayInputStream(chunk)));
+        MessageChannel server = MessageChannel.accept(new SequenceInputStream(Collections.enumeration(parts)), serverOut);
+        assertEquals("Malformed frame", assertThrows(StreamCorruptedException.class, server::read).getMessage());
+        // Only the last frame is left unread
+        assertEquals(MessageChannel.CHUNK_SIZE, server.available());
+    }
+
+    /**
+     * Writes everything queued on a channel.
+     *
+     * @param channel the channel
+     */
+    private static void writeAll(MessageChannel channel) throws IOException, InterruptedException {
+        channel.finish();
+        while (channel.writeNext()) {
+            // Keep writing
+        }
+    }
+
+    private ArrayList<Shape> lines(int count) {
+        ArrayList<Shape> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(stamp(new Line(i, i, i + 10, i + 20, Color.BLUE)));
+        }
+        return lines;
+    }
+
+    private <T extends Shape> T stamp(T shape) {
+        stamps.stamp(shape, "a");
+        return shape;
+    }
+
+    private static List<Long> contentIds(List<Shape> shapes) {
+        return shapes.stream().map(Shape::getContentId).toList();
+    }
+}
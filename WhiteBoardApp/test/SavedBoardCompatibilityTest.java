@@ -0,0 +1,116 @@
+/**
+ * SavedBoardCompatibilityTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests that boards saved by the first version of the application still open. Saved boards
+ * are serialized lists of shapes, so a change to a shape class that alters its serial
+ * version makes every saved board unreadable.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SavedBoardCompatibilityTest {
+    // A board saved by the first version: a line, rectangle, oval, circle, free drawing, text and eraser
+    private static final String FIRST_VERSION_BOARD = String.join("",
+            "rO0ABXNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAAHdwQAAAAHc3IABExpbmU+MbTFLF5T3AIA",
+            "AHhyAAVTaGFwZW7LkwnTxQgkAgAFSQAEZW5kWEkABGVuZFlJAAZzdGFydFhJAAZzdGFydFlMAAVjb2xvcnQAEExqYXZhL2F3dC9D",
+            "b2xvcjt4cAAAAB4AAAAoAAAAAQAAAAJzcgAOamF2YS5hd3QuQ29sb3IBpReDEI8zdQIABUYABmZhbHBoYUkABXZhbHVlTAACY3N0",
+            "ABtMamF2YS9hd3QvY29sb3IvQ29sb3JTcGFjZTtbAAlmcmdidmFsdWV0AAJbRlsABmZ2YWx1ZXEAfgAIeHAAAAAA//8AAHBwcHNy",
+            "AAlSZWN0YW5nbGXzPjHdjuzx7QIAAHhxAH4AAwAAAEsAAABWAAAABQAAAAZzcQB+AAYAAAAA/wAA/3BwcHNyAARPdmFsTtroD+hu",
+            "cioCAAB4cQB+AAMAAAAUAAAAFgAAAAkAAAAKc3EAfgAGAAAAAP8A/wBwcHBzcgAGQ2lyY2xlvCB++MKSGLMCAAB4cQB+AAMAAAAc",
+            "AAAAHQAAAA0AAAAOc3EAfgAGAAAAAP8AAABwcHBzcgAIRnJlZURyYXc9tOMezteZjAIAAUwABnBvaW50c3QAFUxqYXZhL3V0aWwv",
+            "QXJyYXlMaXN0O3hxAH4AAwAAAAAAAAAAAAAAAAAAAABzcQB+AAYAAAAA//8A/3BwcHNxAH4AAAAAAAJ3BAAAAAJzcgAOamF2YS5h",
+            "d3QuUG9pbnS2xIpyNH7IJgIAAkkAAXhJAAF5eHAAAAABAAAAAXNxAH4AGAAAAAQAAAAFeHNyAARUZXh0v11550bJ/1gCAAFMAAR0",
+            "ZXh0dAASTGphdmEvbGFuZy9TdHJpbmc7eHEAfgADAAAAFAAAAB4AAAAUAAAAHnNxAH4ABgAAAAD//8gAcHBwdAAIYmFzZWxpbmVz",
+            "cgAGRXJhc2VyzM088u2AsdkCAAFJAARzaXpleHEAfgADAAAAMgAAADIAAAAyAAAAMnNxAH4ABgAAAAD/////cHBwAAAACng=");
+
+    /**
+     * A board saved by the first version opens with every shape as it was drawn, and the
+     * shapes can be put on a board.
+     */
+    @Test
+    void opensBoardSavedByFirstVersion() throws Exception {
+        List<Shape> shapes = read(Base64.getDecoder().decode(FIRST_VERSION_BOARD));
+
+        assertEquals(List.of("Line", "Rectangle", "Oval", "Circle", "FreeDraw", "Text", "Eraser"),
+                shapes.stream().map(shape -> shape.getClass().getName()).toList());
+        Line line = (Line) shapes.get(0);
+        assertEquals(List.of(1, 2, 30, 40), List.of(line.startX, line.startY, line.endX, line.endY));
+        assertEquals(Color.RED, line.color);
+        Rectangle rectangle = (Rectangle) shapes.get(1);
+        assertEquals(List.of(5, 6, 75, 86), List.of(rectangle.startX, rectangle.startY, rectangle.endX, rectangle.endY));
+        assertEquals(List.of(new Point(1, 1), new Point(4, 5)), ((FreeDraw) shapes.get(4)).getPoints());
+        assertEquals("baseline", ((Text) shapes.get(5)).getText());
+        assertEquals(10, ((Eraser) shapes.get(6)).getSize());
+
+        ShapeSet board = new ShapeSet();
+        for (Shape shape : shapes) {
+            assertNull(shape.getDot());
+            assertTrue(board.add(board.stamp(shape, "server")));
+        }
+        assertEquals(shapes.size(), board.size());
+    }
+
+    /**
+     * The serial versions of the shape classes stay those of the first version. Changing one
+     * breaks every saved board that holds that kind of shape.
+     */
+    @Test
+    void keepsSerialVersionsOfFirstVersion() {
+        Map<Class<?>, Long> firstVersion = Map.of(
+                Shape.class, 7983636434861230116L,
+                Line.class, 4481561863156290524L,
+                Rectangle.class, -919242446281575955L,
+                Oval.class, 5682109034903007786L,
+                Circle.class, -4890769588443014989L,
+                FreeDraw.class, 4446428453580282252L,
+                Text.class, -4657432405399175336L,
+                Eraser.class, -3689225505682181671L);
+        firstVersion.forEach((type, uid) ->
+                assertEquals(uid, ObjectStreamClass.lookup(type).getSerialVersionUID(), type.getName()));
+    }
+
+    /**
+     * A board saved now opens again with the same shapes.
+     */
+    @Test
+    void opensBoardSavedNow() throws Exception {
+        ShapeSet board = new ShapeSet();
+        FreeDraw stroke = new FreeDraw(Color.BLUE);
+        stroke.addPoint(3, 4);
+        stroke.addPoint(8, 9);
+        for (Shape shape : List.of(new Line(0, 0, 10, 10, Color.BLACK), new Circle(5, 5, 20, Color.GREEN), stroke,
+                new Text(1, 20, "now", Color.BLACK))) {
+            board.add(board.stamp(shape, "a"));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(board.shapes());
+        }
+
+        List<Shape> opened = read(bytes.toByteArray());
+        assertEquals(board.shapes().stream().map(Shape::getContentId).toList(),
+                opened.stream().map(Shape::getContentId).toList());
+        assertEquals(board.shapes().stream().map(Shape::getDot).toList(), opened.stream().map(Shape::getDot).toList());
+    }
+
+    /**
+     * Reads a saved board the way the canvas opens one.
+     *
+     * @param saved the saved board
+     * @return its shapes
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Shape> read(byte[] saved) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(saved))) {
+            return (ArrayList<Shape>) in.readObject();
+        }
+    }
+}
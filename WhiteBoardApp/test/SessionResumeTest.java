@@ -0,0 +1,191 @@
+/**
+ * SessionResumeTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests for session tokens, over real connections to a server whose manager approves who
+ * joins: an approved client comes back with its token without being approved again, a kicked
+ * one does not, and a connection refused for a taken username is given no session.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionResumeTest {
+    private static final String BOARD = WhiteboardServer.DEFAULT_BOARD;
+    private static final long WAIT_MILLIS = 3000;
+    // How long to watch for something that must not arrive
+    private static final long QUIET_MILLIS = 700;
+    private WhiteboardServer server;
+    private final List<Socket> sockets = new ArrayList<>();
+    private Client manager;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = new WhiteboardServer(0);
+        server.setJoinPolicy(new ManagerPolicy(server.getJoinApprovals(), "key", true), null);
+        Thread listener = new Thread(server::listenForClients);
+        listener.setDaemon(true);
+        listener.start();
+        manager = connect("boss", null);
+        manager.channel.send(new ManagerLogin("key"));
+        manager.await(message -> message instanceof JoinRequestList);
+    }
+
+    @AfterEach
+    void closeConnections() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.shutdown();
+    }
+
+    /**
+     * A client approved by the manager gets back onto the board with its token after its
+     * connection drops, without asking to join again.
+     */
+    @Test
+    void resumesApprovedSession() throws Exception {
+        String token = joinApproved("alice");
+        sockets.get(sockets.size() - 1).close();
+
+        Client back = connect("alice", token);
+        assertEquals(token, back.token);
+        back.await(message -> message instanceof SequencedUpdate);
+    }
+
+    /**
+     * A kicked client's token no longer lets it onto the board: it is given a new session,
+     * and nothing of the board, until the manager approves it again.
+     */
+    @Test
+    void kickedTokenCannotRejoin() throws Exception {
+        String token = joinApproved("alice");
+        manager.channel.send(new KickCommand("alice"));
+        Thread.sleep(QUIET_MILLIS);
+
+        Client back = connect("alice", token);
+        assertNotEquals(token, back.token);
+        assertTrue(back.quiet(message -> message instanceof SequencedUpdate || message instanceof PresenceTicket));
+        assertNull(server.getSessions().find(token, "alice", BOARD));
+    }
+
+    /**
+     * A connection refused because its username is taken is not given a session, and does
+     * not push out the client holding the name.
+     */
+    @Test
+    void refusesTakenUsernameWithoutSession() throws Exception {
+        joinApproved("alice");
+        int sessions = server.getSessions().size();
+
+        Client impostor = connect("alice", null, message -> message instanceof UsernameTakenCommand);
+        assertNull(impostor.token);
+        assertEquals(sessions, server.getSessions().size());
+        assertTrue(server.getBoard(BOARD).isUsernameTaken("alice", null));
+    }
+
+    /**
+     * Joins a client the manager approves.
+     *
+     * @param username the username of the client
+     * @return the session token the client was given
+     */
+    private String joinApproved(String username) throws Exception {
+        Client client = connect(username, null);
+        client.channel.send(new JoinRequest(username));
+        JoinRequestList list = (JoinRequestList) manager.await(message -> message instanceof JoinRequestList pending
+                && pending.requests().stream().anyMatch(request -> request.username().equals(username)));
+        HashSet<Long> ids = new HashSet<>();
+        list.requests().stream().filter(request -> request.username().equals(username))
+                .forEach(request -> ids.add(request.id()));
+        manager.channel.send(new JoinDecision(ids, true));
+        client.await(message -> message instanceof JoinResponse response && response.approved());
+        client.await(message -> message instanceof SequencedUpdate);
+        return client.token;
+    }
+
+    private Client connect(String username, String token) throws Exception {
+        return connect(username, token, message -> message instanceof SessionToken);
+    }
+
+    /**
+     * Connects a client and reads until the first message it expects.
+     *
+     * @param username the username of the client
+     * @param token the session token to present, or null
+     * @param first the first message expected
+     * @return the client
+     */
+    private Client connect(String username, String token, Predicate<Object> first) throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        sockets.add(socket);
+        MessageChannel channel = MessageChannel.connect(socket.getInputStream(), socket.getOutputStream());
+        channel.startWriter(username, () -> { });
+        channel.send(new Hello(username, BOARD, 0, null, token));
+        Client client = new Client(channel);
+        client.await(first);
+        return client;
+    }
+
+    /**
+     * A connection to the server, with the messages it received read on a thread of its own.
+     */
+    private static class Client {
+        private final MessageChannel channel;
+        private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        private volatile String token;
+
+        Client(MessageChannel channel) {
+            this.channel = channel;
+            Thread reader = new Thread(() -> {
+                try {
+                    for (Object message; (message = channel.read()) != null; ) {
+                        if (message instanceof SessionToken sessionToken) {
+                            token = sessionToken.token();
+                        }
+                        received.add(message);
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    // The connection was closed
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        Object await(Predicate<Object> expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            for (long left; (left = deadline - System.currentTimeMillis()) > 0; ) {
+                Object message = received.poll(left, TimeUnit.MILLISECONDS);
+                if (message != null && expected.test(message)) {
+                    return message;
+                }
+            }
+            return fail("Timed out waiting for a message");
+        }
+
+        boolean quiet(Predicate<Object> unexpected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + QUIET_MILLIS;
+            for (long left; (left = deadline - System.currentTimeMillis()) > 0; ) {
+                Object message = received.poll(left, TimeUnit.MILLISECONDS);
+                if (message != null && unexpected.test(message)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
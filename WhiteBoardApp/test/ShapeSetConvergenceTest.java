@@ -0,0 +1,292 @@
+/**
+ * ShapeSetConvergenceTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Property-based tests for ShapeSet. Random sessions of drawing, stroke updates, removals
+ * and clears are generated on several replicas, then delivered to every replica in random
+ * orders, twice over, from many threads at once and as merged snapshots. Every replica must
+ * end up with the same shapes in the same order.
+ *
+ * Usage: mvn test [-Dconvergence.trials=N] [-Dconvergence.seed=S]
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+class ShapeSetConvergenceTest {
+    private static final int REPLICAS = 4;
+    private static final int OPERATIONS = 120;
+    private static final int THREADS = 8;
+    private static final int DEFAULT_TRIALS = 300;
+
+    /**
+     * Every random session converges, for as many sessions as asked for.
+     */
+    @Test
+    void convergesUnderRandomInterleavings() throws Exception {
+        int trials = Integer.getInteger("convergence.trials", DEFAULT_TRIALS);
+        long seed = Long.getLong("convergence.seed", System.nanoTime());
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int trial = 0; trial < trials; trial++) {
+                long trialSeed = seed + trial;
+                try {
+                    checkRandomSession(new Random(trialSeed), pool);
+                } catch (AssertionError e) {
+                    throw new AssertionError("Trial failed, rerun with seed " + trialSeed + ": " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println("All " + trials + " random sessions converged (seed " + seed + ").");
+    }
+
+    /**
+     * A shape the clearing replica had not seen survives the clear, wherever it is applied first.
+     */
+    @Test
+    void addWinsOverConcurrentClear() {
+        ShapeSet a = new ShapeSet();
+        ShapeSet b = new ShapeSet();
+        Shape seen = a.stamp(new Line(0, 0, 1, 1, Color.BLACK), "a");
+        a.add(seen);
+        b.add(copy(seen));
+        Shape concurrent = a.stamp(new Line(2, 2, 3, 3, Color.BLACK), "a");
+        a.add(concurrent);
+        ClearCommand clear = new ClearCommand(b.observedClock());
+        b.apply(clear);
+
+        a.apply(copy(clear));
+        b.apply(copy(concurrent));
+        check(describe(a).equals(describe(b)), "replicas differ after a concurrent clear");
+        check(a.size() == 1 && a.values().iterator().next().getDot().equals(concurrent.getDot()),
+                "the unseen shape did not survive the clear");
+    }
+
+    /**
+     * A removal that arrives before the shape it removes still removes it.
+     */
+    @Test
+    void removalBeforeAddIsKept() {
+        ShapeSet source = new ShapeSet();
+        Shape shape = source.stamp(new Oval(1, 1, 5, 5, Color.RED), "a");
+        ShapeSet target = new ShapeSet();
+        target.remove(List.of(shape.getDot()));
+        check(!target.add(copy(shape)), "a removed shape was added");
+        check(target.size() == 0, "a removed shape is on the board");
+    }
+
+    /**
+     * Versions of a stroke replace older ones and never the other way round.
+     */
+    @Test
+    void newerVersionWins() {
+        ShapeSet set = new ShapeSet();
+        FreeDraw stroke = new FreeDraw(Color.BLUE);
+        stroke.addPoint(0, 0);
+        set.stamp(stroke, "a");
+        FreeDraw older = (FreeDraw) copy(stroke);
+        stroke.addPoint(5, 5);
+        FreeDraw newer = (FreeDraw) copy(stroke);
+
+        check(set.add(newer), "the newer version was not added");
+        check(!set.add(older), "the older version replaced the newer one");
+        check(set.values().iterator().next().getVersion() == newer.getVersion(), "the newer version was lost");
+    }
+
+    /**
+     * Generates a random session and checks that every way of delivering it converges.
+     *
+     * @param random the source of randomness
+     * @param pool threads for concurrent delivery
+     */
+    private static void checkRandomSession(Random random, ExecutorService pool) throws Exception {
+        List<Object> updates = generateSession(random);
+        List<String> expected = null;
+
+        // Every replica receives the updates in its own random order
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            List<Object> order = new ArrayList<>(updates);
+            Collections.shuffle(order, random);
+            ShapeSet set = new ShapeSet();
+            for (Object update : order) {
+                set.apply(copy(update));
+            }
+            List<String> result = describe(set);
+            if (expected == null) {
+                expected = result;
+            }
+            check(result.equals(expected), "replica " + replica + " diverged");
+
+            // Applying everything again changes nothing
+            for (Object update : order) {
+                set.apply(copy(update));
+            }
+            check(describe(set).equals(expected), "replaying the updates changed replica " + replica);
+        }
+
+        // One replica applying the updates from many threads at once, like the server
+        ShapeSet concurrent = new ShapeSet();
+        List<Object> order = new ArrayList<>(updates);
+        Collections.shuffle(order, random);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            List<Object> slice = new ArrayList<>();
+            for (int i = thread; i < order.size(); i += THREADS) {
+                slice.add(copy(order.get(i)));
+            }
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (Object update : slice) {
+                    concurrent.apply(update);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        check(describe(concurrent).equals(expected), "concurrent application diverged");
+
+        // Replicas that each saw part of the session converge by merging their snapshots
+        ShapeSet[] partial = new ShapeSet[REPLICAS];
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            partial[replica] = new ShapeSet();
+        }
+        for (Object update : updates) {
+            partial[random.nextInt(REPLICAS)].apply(copy(update));
+        }
+        ShapeSet merged = new ShapeSet();
+        List<Integer> mergeOrder = new ArrayList<>();
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            mergeOrder.add(replica);
+        }
+        Collections.shuffle(mergeOrder, random);
+        for (int replica : mergeOrder) {
+            merged.merge(copy(partial[replica].snapshot()));
+        }
+        check(describe(merged).equals(expected), "merged snapshots diverged");
+    }
+
+    /**
+     * Generates the updates of a random session. Each replica draws shapes, extends its
+     * strokes, removes shapes and clears the board, having seen a random part of what the
+     * other replicas did.
+     *
+     * @param random the source of randomness
+     * @return the updates, in the order they were made
+     */
+    private static List<Object> generateSession(Random random) {
+        ShapeSet[] replicas = new ShapeSet[REPLICAS];
+        List<List<FreeDraw>> strokes = new ArrayList<>();
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            replicas[replica] = new ShapeSet();
+            strokes.add(new ArrayList<>());
+        }
+
+        List<Object> updates = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            int replica = random.nextInt(REPLICAS);
+            ShapeSet set = replicas[replica];
+            String replicaId = "replica-" + replica;
+            Object update;
+            int choice = random.nextInt(100);
+            if (choice < 45) {
+                update = set.stamp(randomShape(random), replicaId);
+                if (update instanceof FreeDraw stroke) {
+                    strokes.get(replica).add(stroke);
+                }
+            } else if (choice < 70 && !strokes.get(replica).isEmpty()) {
+                List<FreeDraw> own = strokes.get(replica);
+                FreeDraw stroke = own.get(random.nextInt(own.size()));
+                stroke.addPoint(random.nextInt(500), random.nextInt(500));
+                update = stroke;
+            } else if (choice < 90 && set.size() > 0) {
+                List<Shape> shapes = set.shapes();
+                ArrayList<Dot> removed = new ArrayList<>();
+                for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                    removed.add(shapes.get(random.nextInt(shapes.size())).getDot());
+                }
+                update = new BoardDiffCommand(removed, new ArrayList<>());
+            } else {
+                update = new ClearCommand(set.observedClock());
+            }
+            // Shapes are sent as they are now, later points must not leak into earlier updates
+            update = copy(update);
+            set.apply(update);
+            updates.add(update);
+
+            // Other replicas see the update only sometimes, so later operations are concurrent with it
+            for (int other = 0; other < REPLICAS; other++) {
+                if (other != replica && random.nextInt(3) == 0) {
+                    replicas[other].apply(copy(update));
+                }
+            }
+        }
+        return updates;
+    }
+
+    private static Shape randomShape(Random random) {
+        int x = random.nextInt(500), y = random.nextInt(500);
+        Color color = new Color(random.nextInt(0xffffff));
+        return switch (random.nextInt(5)) {
+            case 0 -> new Line(x, y, random.nextInt(500), random.nextInt(500), color);
+            case 1 -> new Rectangle(x, y, random.nextInt(100), random.nextInt(100), color);
+            case 2 -> new Text(x, y, "t" + random.nextInt(10), color);
+            case 3 -> new Eraser(x, y, 10, Color.WHITE);
+            default -> {
+                FreeDraw stroke = new FreeDraw(color);
+                stroke.addPoint(x, y);
+                yield stroke;
+            }
+        };
+    }
+
+    /**
+     * Describes the board in drawing order, with the version and content of every shape.
+     *
+     * @param set the board
+     * @return one line per shape
+     */
+    private static List<String> describe(ShapeSet set) {
+        List<String> lines = new ArrayList<>();
+        for (Shape shape : set.shapes()) {
+            lines.add(shape.getDot() + " v" + shape.getVersion() + " " + shape.getContentId());
+        }
+        return lines;
+    }
+
+    /**
+     * Copies an update the way it travels between replicas, through serialization.
+     *
+     * @param update the update
+     * @return the copy
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T update) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(update);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (T) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
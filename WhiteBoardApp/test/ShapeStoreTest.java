@@ -0,0 +1,161 @@
+/**
+ * ShapeStoreTest.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Tests for ShapeStore: shapes come back out of the store as they went in, through growing
+ * strokes and compactions, and the rows of shapes no handle is left to are reused.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeStoreTest {
+    private final ShapeSet stamps = new ShapeSet();
+
+    /**
+     * Every kind of shape the store knows is rebuilt with the same content, dot and version.
+     */
+    @Test
+    void materializesWhatWasInterned() {
+        ShapeStore store = new ShapeStore();
+        FreeDraw stroke = new FreeDraw(new Color(10, 20, 30, 40));
+        stroke.addPoint(1, 2);
+        stroke.addPoint(-3, 4);
+        List<Shape> shapes = List.of(new Line(1, 2, 30, 40, Color.RED), new Rectangle(5, 6, 70, 80, Color.BLUE),
+                new Oval(9, 10, 11, 12, Color.GREEN), new Circle(13, 14, 15, Color.BLACK), stroke,
+                new Text(16, 17, "héllo", Color.MAGENTA), new Eraser(18, 19, 20, Color.WHITE));
+
+        for (Shape shape : shapes) {
+            stamps.stamp(shape, "a");
+            StoredShape stored = (StoredShape) store.intern(shape);
+            Shape rebuilt = stored.materialize();
+
+            assertSame(shape.getClass(), rebuilt.getClass());
+            assertEquals(shape.getContentId(), rebuilt.getContentId());
+            assertEquals(shape.getDot(), rebuilt.getDot());
+            assertEquals(shape.getVersion(), rebuilt.getVersion());
+            assertEquals(shape.getBounds(), stored.getBounds());
+        }
+        assertEquals(shapes.size(), store.getRowCount());
+    }
+
+    /**
+     * Strokes that outgrow their runs while other strokes are drawn keep all their points,
+     * older versions keep the points they had, and compacting drops the space left behind
+     * without changing any of them.
+     */
+    @Test
+    void keepsStrokesThroughGrowthAndCompaction() {
+        ShapeStore store = new ShapeStore();
+        FreeDraw first = stamp(new FreeDraw(Color.RED));
+        FreeDraw second = stamp(new FreeDraw(Color.BLUE));
+        StoredShape early = null;
+        StoredShape firstStored = null, secondStored = null;
+        for (int i = 0; i < 500; i++) {
+            first.addPoint(i, -i);
+            second.addPoint(-i, i);
+            first.setVersion(i + 1);
+            second.setVersion(i + 1);
+            firstStored = (StoredShape) store.intern(first);
+            secondStored = (StoredShape) store.intern(second);
+            if (i == 9) {
+                early = firstStored;
+            }
+        }
+        assertTrue(store.getDeadBytes() > 0);
+        assertEquals(2, store.getRowCount());
+
+        store.compact();
+
+        assertEquals(0, store.getDeadBytes());
+        assertEquals(first.getPoints(), ((FreeDraw) firstStored.materialize()).getPoints());
+        assertEquals(second.getPoints(), ((FreeDraw) secondStored.materialize()).getPoints());
+        assertEquals(first.getPoints().subList(0, 10), ((FreeDraw) early.materialize()).getPoints());
+    }
+
+    /**
+     * Once the handles to a shape are dropped its row and text count as dead, the shapes kept
+     * read back the same after a compaction, and new shapes reuse the rows.
+     */
+    @Test
+    void reusesRowsOfShapesNoLongerHeld() throws InterruptedException {
+        ShapeStore store = new ShapeStore();
+        List<StoredShape> kept = new ArrayList<>();
+        List<Shape> keptShapes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Shape shape = i % 2 == 0 ? stamp(new Text(i, i, "text " + i, Color.BLACK)) : stamp(strokeOf(i));
+            StoredShape stored = (StoredShape) store.intern(shape);
+            if (i % 4 < 2) {
+                kept.add(stored);
+                keptShapes.add(shape);
+            }
+        }
+        assertEquals(0, store.getDeadBytes());
+
+        for (int attempt = 0; attempt < 100 && store.getRowCount() > kept.size(); attempt++) {
+            System.gc();
+            Thread.sleep(20);
+            store.compact();
+        }
+        assertEquals(kept.size(), store.getRowCount());
+        assertTrue(store.getDeadBytes() > 0);
+        for (int i = 0; i < kept.size(); i++) {
+            assertEquals(keptShapes.get(i).getContentId(), kept.get(i).materialize().getContentId());
+        }
+
+        for (int i = 0; i < 100; i++) {
+            kept.add((StoredShape) store.intern(stamp(new Line(i, i, i + 1, i + 1, Color.RED))));
+        }
+        assertEquals(200, store.getRowCount());
+        assertEquals(0, store.getDeadBytes());
+        assertEquals(keptShapes.get(0).getContentId(), kept.get(0).materialize().getContentId());
+    }
+
+    /**
+     * The rows of shapes cleared from a board are freed once its history has dropped the
+     * operations and checkpoints holding them, and are kept for as long as it has not.
+     */
+    @Test
+    void freesRowsOfShapesTheBoardHistoryDropped() throws InterruptedException {
+        Board bounded = new Board("bounded", false, new BoardHistory(100));
+        Board unbounded = new Board("unbounded", false);
+        for (int i = 0; i < 4200; i++) {
+            Object update = i % 1000 == 999 ? new ClearCommand(new HashMap<>(stamps.observedClock()))
+                    : stamp(new Line(i, i, i + 1, i + 1, Color.BLACK));
+            bounded.apply(update, null);
+            unbounded.apply(update, null);
+        }
+        ShapeStore store = bounded.getStore();
+
+        for (int attempt = 0; attempt < 100 && store.getRowCount() > bounded.getShapeCount(); attempt++) {
+            System.gc();
+            Thread.sleep(20);
+            store.compact();
+        }
+        assertEquals(200, bounded.getShapeCount());
+        assertEquals(200, store.getRowCount());
+        unbounded.getStore().compact();
+        assertEquals(4196, unbounded.getStore().getRowCount());
+        bounded.closeAll();
+        unbounded.closeAll();
+    }
+
+    private <T extends Shape> T stamp(T shape) {
+        stamps.stamp(shape, "a");
+        return shape;
+    }
+
+    private static FreeDraw strokeOf(int seed) {
+        FreeDraw stroke = new FreeDraw(Color.ORANGE);
+        for (int i = 0; i < 40; i++) {
+            stroke.addPoint(seed + i, seed - i);
+        }
+        return stroke;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * BenchmarkShapes.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This class creates the shapes the benchmarks work on: one of each kind, sized like shapes
+ * drawn by hand, and boards of a mix of them spread over an area.
+ */
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class BenchmarkShapes {
+    private static final String REPLICA = "bench";
+    // Points in a free drawn stroke
+    private static final int STROKE_POINTS = 60;
+    private static final String[] KINDS = {"Line", "Rectangle", "Oval", "Circle", "FreeDraw", "Text", "Eraser"};
+    private static final ShapeSet stamps = new ShapeSet();
+
+    /**
+     * Creates a shape of the given kind at a random place in an area, with a dot as if it had
+     * been drawn by a client.
+     *
+     * @param kind the simple name of the shape class
+     * @param random the source of positions
+     * @param width width of the area
+     * @param height height of the area
+     * @return the shape
+     */
+    public static Shape create(String kind, Random random, int width, int height) {
+        int x = random.nextInt(width), y = random.nextInt(height);
+        int w = 10 + random.nextInt(150), h = 10 + random.nextInt(150);
+        Color color = new Color(random.nextInt(0xffffff));
+        Shape shape = switch (kind) {
+            case "Line" -> new Line(x, y, x + w, y + h, color);
+            case "Rectangle" -> new Rectangle(x, y, w, h, color);
+            case "Oval" -> new Oval(x, y, w, h, color);
+            case "Circle" -> new Circle(x, y, w, color);
+            case "Text" -> new Text(x, y, "Meeting notes " + random.nextInt(1000), color);
+            case "Eraser" -> new Eraser(x, y, 10 + random.nextInt(30), Color.WHITE);
+            case "FreeDraw" -> {
+                FreeDraw stroke = new FreeDraw(color);
+                for (int i = 0; i < STROKE_POINTS; i++) {
+                    x += random.nextInt(7) - 3;
+                    y += random.nextInt(7) - 3;
+                    stroke.addPoint(x, y);
+                }
+                yield stroke;
+            }
+            default -> throw new IllegalArgumentException("Unknown shape " + kind);
+        };
+        return stamps.stamp(shape, REPLICA);
+    }
+
+    /**
+     * Creates shapes of every kind in turn at random places in an area.
+     *
+     * @param count the number of shapes
+     * @param random the source of positions
+     * @param width width of the area
+     * @param height height of the area
+     * @return the shapes
+     */
+    public static ArrayList<Shape> mixed(int count, Random random, int width, int height) {
+        ArrayList<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shapes.add(create(KINDS[i % KINDS.length], random, width, height));
+        }
+        return shapes;
+    }
+}
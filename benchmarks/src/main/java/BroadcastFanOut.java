@@ -0,0 +1,113 @@
+/**
+ * BroadcastFanOut.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Draws shapes on a board joined by in-memory clients. Each client is a ClientHandler whose
+ * channel speaks frames into a stream that discards them, so a shape goes through the same
+ * filtering, queueing, serializing and framing as for a real client, and is counted as
+ * delivered once every writer has flushed it.
+ */
+
+import bench.Workload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class BroadcastFanOut implements Workload {
+    private static final int BOARD_WIDTH = 4000;
+    private static final int BOARD_HEIGHT = 3000;
+    private static final long SETTLE_INTERVAL = 50;
+    private static WhiteboardServer server;
+    private final ArrayList<ClientHandler> clients = new ArrayList<>();
+    private final Random random = new Random(1);
+    // Writers flush once they have nothing left to write, so one flush per client per shape
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile long expected = Long.MAX_VALUE;
+    private volatile Thread waiting;
+    private Board board;
+    private String variant;
+
+    /**
+     * Creates a board and joins the clients to it.
+     *
+     * @param variant the simple name of the shape class drawn
+     * @param size the number of clients
+     */
+    @Override
+    public void setUp(String variant, int size) throws Exception {
+        this.variant = variant;
+        synchronized (BroadcastFanOut.class) {
+            if (server == null) {
+                // Only used to evict clients that fall behind; it never accepts connections
+                server = new WhiteboardServer(0);
+            }
+        }
+        board = new Board("bench");
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+                if (flushes.incrementAndGet() >= expected) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+        };
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new DataOutputStream(header).writeInt(MessageChannel.MAGIC);
+        for (int i = 0; i < size; i++) {
+            MessageChannel channel = MessageChannel.accept(new ByteArrayInputStream(header.toByteArray()), sink);
+            ClientHandler client = new ClientHandler(server, "bench-" + i, channel);
+            clients.add(client);
+            board.join(client, 0);
+        }
+        settle();
+    }
+
+    /**
+     * Waits until the clients have been sent the board they joined.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void settle() throws InterruptedException {
+        long last;
+        do {
+            last = flushes.get();
+            Thread.sleep(SETTLE_INTERVAL);
+        } while (flushes.get() != last || clients.stream().anyMatch(client -> client.getQueuedMessages() > 0));
+    }
+
+    @Override
+    public Object run() throws Exception {
+        Shape shape = BenchmarkShapes.create(variant, random, BOARD_WIDTH, BOARD_HEIGHT);
+        waiting = Thread.currentThread();
+        expected = flushes.get() + clients.size();
+        board.apply(shape, null);
+        while (flushes.get() < expected) {
+            LockSupport.park(this);
+        }
+        return shape;
+    }
+
+    @Override
+    public void tearDown() {
+        expected = Long.MAX_VALUE;
+        board.closeAll();
+        for (ClientHandler client : clients) {
+            client.closeConnection();
+        }
+        clients.clear();
+    }
+}
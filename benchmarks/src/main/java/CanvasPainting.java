@@ -0,0 +1,46 @@
+/**
+ * CanvasPainting.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Paints a drawing canvas showing a board of mixed shapes into an offscreen image the size
+ * of a window. The shapes are spread over the window, so all of them are drawn.
+ */
+
+import bench.Workload;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class CanvasPainting implements Workload {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+    private DrawingCanvas canvas;
+    private BufferedImage image;
+
+    /**
+     * Creates the canvas and applies the board to it.
+     *
+     * @param variant unused, the board is always of mixed shapes
+     * @param size the number of shapes
+     */
+    @Override
+    public void setUp(String variant, int size) {
+        canvas = new DrawingCanvas();
+        canvas.setSize(WIDTH, HEIGHT);
+        ShapeSet board = new ShapeSet();
+        for (Shape shape : BenchmarkShapes.mixed(size, new Random(size), WIDTH, HEIGHT)) {
+            board.add(shape);
+        }
+        canvas.applyUpdate(board.snapshot());
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public Object run() {
+        Graphics2D g = image.createGraphics();
+        canvas.paintComponent(g);
+        g.dispose();
+        return image;
+    }
+}
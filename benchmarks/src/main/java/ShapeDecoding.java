@@ -0,0 +1,22 @@
+/**
+ * ShapeDecoding.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Deserializes a shape, or an OpenCommand of a board of mixed shapes, the way a message is
+ * read once its last frame has arrived.
+ */
+
+public class ShapeDecoding extends ShapeEncoding {
+    private byte[] bytes;
+
+    @Override
+    public void setUp(String variant, int size) throws Exception {
+        super.setUp(variant, size);
+        bytes = MessageChannel.serialize(message);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        return MessageChannel.deserialize(bytes);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * ShapeEncoding.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Serializes a shape, or an OpenCommand of a board of mixed shapes, the way a message is
+ * serialized before it is split into frames.
+ */
+
+import bench.Workload;
+
+import java.util.Random;
+
+public class ShapeEncoding implements Workload {
+    private static final int BOARD_WIDTH = 4000;
+    private static final int BOARD_HEIGHT = 3000;
+    protected Object message;
+
+    /**
+     * Creates the message.
+     *
+     * @param variant the simple name of a shape class, or OpenCommand
+     * @param size the number of shapes in an OpenCommand
+     */
+    @Override
+    public void setUp(String variant, int size) throws Exception {
+        Random random = new Random(size);
+        message = variant.equals("OpenCommand")
+                ? new OpenCommand(BenchmarkShapes.mixed(size, random, BOARD_WIDTH, BOARD_HEIGHT))
+                : BenchmarkShapes.create(variant, random, BOARD_WIDTH, BOARD_HEIGHT);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        return MessageChannel.serialize(message);
+    }
+}
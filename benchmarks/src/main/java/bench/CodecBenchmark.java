@@ -0,0 +1,58 @@
+/**
+ * CodecBenchmark.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Measures how long each kind of shape, and an OpenCommand of a board of mixed shapes, takes
+ * to serialize and deserialize the way messages are sent in frames.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    // Shapes in the opened board
+    private static final int OPEN_SHAPES = 1000;
+
+    @Param({"Line", "Rectangle", "Oval", "Circle", "FreeDraw", "Text", "Eraser", "OpenCommand"})
+    public String message;
+
+    private Workload encode;
+    private Workload decode;
+
+    @Setup
+    public void setUp() throws Exception {
+        encode = Workload.load("ShapeEncoding");
+        encode.setUp(message, OPEN_SHAPES);
+        decode = Workload.load("ShapeDecoding");
+        decode.setUp(message, OPEN_SHAPES);
+    }
+
+    @Benchmark
+    public Object encode() throws Exception {
+        return encode.run();
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return decode.run();
+    }
+}
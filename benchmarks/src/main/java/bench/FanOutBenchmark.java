@@ -0,0 +1,55 @@
+/**
+ * FanOutBenchmark.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Measures how long a shape drawn on a board takes to reach every client of the board, from
+ * being applied until each client's writer has written it, with in-memory clients.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    private Workload fanOut;
+
+    // A fresh board each iteration, so the board and its history do not grow without end
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        fanOut = Workload.load("BroadcastFanOut");
+        fanOut.setUp("Line", clients);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        fanOut.tearDown();
+    }
+
+    @Benchmark
+    public Object broadcastShape() throws Exception {
+        return fanOut.run();
+    }
+}
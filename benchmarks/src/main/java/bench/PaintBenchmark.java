@@ -0,0 +1,53 @@
+/**
+ * PaintBenchmark.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * Measures how long the drawing canvas takes to paint a board of mixed shapes into an
+ * offscreen image the size of a window, as the board grows.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int shapes;
+
+    private Workload paint;
+
+    @Setup
+    public void setUp() throws Exception {
+        paint = Workload.load("CanvasPainting");
+        paint.setUp("mixed", shapes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        paint.tearDown();
+    }
+
+    @Benchmark
+    public Object paintComponent() throws Exception {
+        return paint.run();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Workload.java
+ * Author: Marshall Zhang
+ * Student ID: 1160040
+ * This interface is the work a benchmark measures. The whiteboard classes are in the default
+ * package, which JMH cannot generate benchmarks for and named packages cannot refer to, so the
+ * workloads are written next to them in the default package and the benchmarks call them
+ * through this interface, loading them by name once per trial.
+ */
+
+package bench;
+
+public interface Workload {
+    /**
+     * Prepares the workload before it is measured.
+     *
+     * @param variant which kind of work to do, such as the type of shape
+     * @param size how much work to do, such as the number of shapes or clients
+     * @throws Exception if the workload cannot be prepared
+     */
+    void setUp(String variant, int size) throws Exception;
+
+    /**
+     * Does the work once.
+     *
+     * @return the result, which the benchmark consumes so the work is not optimized away
+     * @throws Exception if the work fails
+     */
+    Object run() throws Exception;
+
+    /**
+     * Releases what the workload holds, such as threads and connections.
+     */
+    default void tearDown() {
+    }
+
+    /**
+     * Creates a workload of the given class from the default package.
+     *
+     * @param className name of the class
+     * @return the workload
+     */
+    static Workload load(String className) {
+        try {
+            return (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Error loading workload " + className + ": " + e.getMessage(), e);
+        }
+    }
+}